@@ -0,0 +1,607 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+
+/**
+ *   Microbenchmarks of the postings list operators, tf-idf scoring, reading
+ *   postings from the persistent index, HITS iterations and the tokenizer.
+ *
+ *   java -cp bench/classes ir.Benchmarks [-json results.json] [-filter regex]
+ *                                        [-wi 3] [-i 5] [-r 1000] [-d docdir] [-seed 42]
+ *
+ *   The operators are measured on synthetic postings lists, generated from
+ *   a fixed seed, of controlled lengths and skew: "uniform" lists spread
+ *   their docIDs evenly, "clustered" lists crowd them at the low docIDs,
+ *   as frequent terms do. If the persistent index has been written to
+ *   ./index, they are also measured on the postings of a sample of its
+ *   terms, from the most to the least frequent. The HITS benchmark needs
+ *   data/linksDavis.txt, and the tokenizer reads the files in -d (or
+ *   synthetic text if no directory is given).
+ *
+ *   Every benchmark is run for -wi warmup iterations and -i measured
+ *   iterations of -r milliseconds, in this JVM, and its throughput is
+ *   reported in operations per second, with the half-width of its 99.9%
+ *   confidence interval. With -json the results are written in the format
+ *   of JMH (scoreError and scoreConfidence computed as JMH does, and the
+ *   standard deviation of the iterations in scoreStdev), so runs of
+ *   different commits can be compared with the usual JMH tools.
+ */
+public class Benchmarks {
+
+    /** The docIDs of the synthetic postings lists are taken from 0..UNIVERSE-1. */
+    final static int UNIVERSE = 200000;
+
+    /** The lengths of the two synthetic lists given to the binary operators. */
+    final static String[] LENGTHS = { "1000x1000", "1000x100000", "100000x100000" };
+
+    /** How the docIDs of the synthetic lists are spread. */
+    final static String[] SKEWS = { "uniform", "clustered" };
+
+    /** Max number of positions of a document in a synthetic list, and the length of the documents. */
+    final static int MAX_TF = 20;
+    final static int DOC_LENGTH = 2000;
+
+    /** Number of terms sampled from the persistent index. */
+    final static int SAMPLE_TERMS = 64;
+
+    /** The confidence level of scoreError, as in JMH. */
+    final static double CONFIDENCE = 0.999;
+
+    /** Size of the synthetic text for the tokenizer, in bytes. */
+    final static int TEXT_SIZE = 1 << 20;
+
+    /** Max number of bytes read from the -d directory for the tokenizer. */
+    final static int MAX_TEXT_SIZE = 16 << 20;
+
+    /** One benchmarked operation. Returns a value that is consumed, so the work cannot be optimized away. */
+    interface Operation {
+        long run();
+    }
+
+    int warmupIterations = 3;
+    int iterations = 5;
+    long iterationMillis = 1000;
+    String jsonFile = null;
+    Pattern filter = null;
+    String docDir = null;
+    long seed = 42;
+
+    /** The results, as JSON objects. */
+    ArrayList<String> results = new ArrayList<String>();
+
+    /** Consumes the values of the operations. */
+    static volatile long sink;
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Measures <code>operation</code> and prints and records its throughput.
+     *  <code>params</code> are the names and values of the parameters.
+     */
+    void measure( String name, String[] params, Operation operation ) {
+        StringBuilder label = new StringBuilder( name );
+        for ( int i=0; i<params.length; i+=2 ) {
+            label.append( ' ' ).append( params[i] ).append( '=' ).append( params[i + 1] );
+        }
+        if ( filter != null && !filter.matcher( label ).find() ) {
+            return;
+        }
+        double[] scores = new double[iterations];
+        long consumed = 0;
+        for ( int it=-warmupIterations; it<iterations; it++ ) {
+            long ops = 0;
+            long start = System.nanoTime();
+            long end = start + iterationMillis * 1000000L;
+            long now;
+            do {
+                consumed += operation.run();
+                ops++;
+            } while (( now = System.nanoTime() ) < end );
+            if ( it >= 0 ) {
+                scores[it] = ops * 1e9 / ( now - start );
+            }
+        }
+        sink += consumed;
+
+        double mean = 0;
+        for ( double score : scores ) {
+            mean += score / iterations;
+        }
+        double variance = 0;
+        for ( double score : scores ) {
+            variance += ( score - mean ) * ( score - mean );
+        }
+        double stdev = iterations > 1 ? Math.sqrt( variance / ( iterations - 1 )) : Double.NaN;
+        // The half-width of the confidence interval of the mean, from Student's t distribution
+        double error = iterations > 1 ? studentT( 1 - ( 1 - CONFIDENCE ) / 2, iterations - 1 ) * stdev / Math.sqrt( iterations ) : Double.NaN;
+        System.out.println( String.format( Locale.ROOT, "%-80s %14.1f +- %10.1f ops/s %12.3f us/op",
+                                           label, mean, error, 1e6 / mean ));
+
+        StringBuilder json = new StringBuilder();
+        json.append( "{\"benchmark\":\"ir.Benchmarks." ).append( name ).append( "\",\"mode\":\"thrpt\"" );
+        json.append( ",\"threads\":1,\"forks\":0" );
+        json.append( ",\"warmupIterations\":" ).append( warmupIterations );
+        json.append( ",\"warmupTime\":\"" ).append( iterationMillis ).append( " ms\"" );
+        json.append( ",\"measurementIterations\":" ).append( iterations );
+        json.append( ",\"measurementTime\":\"" ).append( iterationMillis ).append( " ms\"" );
+        json.append( ",\"params\":{" );
+        for ( int i=0; i<params.length; i+=2 ) {
+            json.append( i > 0 ? "," : "" ).append( SearchServer.quote( params[i] )).append( ':' ).append( SearchServer.quote( params[i + 1] ));
+        }
+        json.append( "},\"primaryMetric\":{\"score\":" ).append( number( mean ));
+        json.append( ",\"scoreError\":" ).append( number( error ));
+        json.append( ",\"scoreConfidence\":[" ).append( number( mean - error )).append( ',' ).append( number( mean + error )).append( ']' );
+        json.append( ",\"scoreStdev\":" ).append( number( stdev ));
+        json.append( ",\"scoreUnit\":\"ops/s\",\"rawData\":[[" );
+        for ( int i=0; i<scores.length; i++ ) {
+            json.append( i > 0 ? "," : "" ).append( number( scores[i] ));
+        }
+        json.append( "]]},\"secondaryMetrics\":{}}" );
+        results.add( json.toString() );
+    }
+
+
+    /** A number in the JSON output. Like JMH, NaN (e.g. the error of a single iteration) is written as "NaN". */
+    static String number( double x ) {
+        return Double.isNaN( x ) ? "\"NaN\"" : String.format( Locale.ROOT, "%.3f", x );
+    }
+
+
+    /**
+     *  The <code>p</code> quantile of Student's t distribution with
+     *  <code>df</code> degrees of freedom, for 0.5 &lt;= p &lt; 1, found by
+     *  bisection on the distribution function.
+     */
+    static double studentT( double p, int df ) {
+        double low = 0, high = 1;
+        while ( studentTCdf( high, df ) < p ) {
+            high *= 2;
+        }
+        for ( int i=0; i<100; i++ ) {
+            double mid = ( low + high ) / 2;
+            if ( studentTCdf( mid, df ) < p ) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        return ( low + high ) / 2;
+    }
+
+
+    /** P(T &lt;= t) for t &gt;= 0 and Student's t distribution with <code>df</code> degrees of freedom. */
+    static double studentTCdf( double t, int df ) {
+        return 1 - 0.5 * incompleteBeta( df / ( df + t * t ), df / 2.0, 0.5 );
+    }
+
+
+    /** The regularized incomplete beta function I_x(a, b), by its continued fraction (Numerical Recipes 6.4). */
+    static double incompleteBeta( double x, double a, double b ) {
+        if ( x <= 0 || x >= 1 ) {
+            return x <= 0 ? 0 : 1;
+        }
+        double front = Math.exp( logGamma( a + b ) - logGamma( a ) - logGamma( b ) + a * Math.log( x ) + b * Math.log( 1 - x ));
+        if ( x > ( a + 1 ) / ( a + b + 2 )) {
+            return 1 - front * betaFraction( 1 - x, b, a ) / b;
+        }
+        return front * betaFraction( x, a, b ) / a;
+    }
+
+
+    /** Lentz's evaluation of the continued fraction of the incomplete beta function. */
+    private static double betaFraction( double x, double a, double b ) {
+        final double tiny = 1e-300;
+        double c = 1, d = 1 - ( a + b ) * x / ( a + 1 );
+        d = 1 / ( Math.abs( d ) < tiny ? tiny : d );
+        double h = d;
+        for ( int m=1; m<1000; m++ ) {
+            for ( int odd=0; odd<2; odd++ ) {
+                double coefficient = odd == 0 ? m * ( b - m ) * x / (( a + 2 * m - 1 ) * ( a + 2 * m ))
+                                              : -( a + m ) * ( a + b + m ) * x / (( a + 2 * m ) * ( a + 2 * m + 1 ));
+                d = 1 + coefficient * d;
+                d = 1 / ( Math.abs( d ) < tiny ? tiny : d );
+                c = 1 + coefficient / c;
+                c = Math.abs( c ) < tiny ? tiny : c;
+                h *= d * c;
+                if ( odd == 1 && Math.abs( d * c - 1 ) < 1e-15 ) {
+                    return h;
+                }
+            }
+        }
+        return h;
+    }
+
+
+    /** ln Gamma(x) for x &gt; 0 (Lanczos approximation). */
+    static double logGamma( double x ) {
+        final double[] g = { 76.18009172947146, -86.50532032941677, 24.01409824083091,
+                             -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5 };
+        double y = x, tmp = x + 5.5;
+        tmp -= ( x + 0.5 ) * Math.log( tmp );
+        double series = 1.000000000190015;
+        for ( double coefficient : g ) {
+            series += coefficient / ++y;
+        }
+        return -tmp + Math.log( 2.5066282746310005 * series / x );
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  A synthetic postings list of <code>length</code> documents. The
+     *  number of positions of every document is skewed towards 1, as
+     *  term frequencies are.
+     */
+    static PostingsList syntheticList( Random random, int length, String skew ) {
+        BitSet docs = new BitSet( UNIVERSE );
+        int n = 0;
+        while ( n < length ) {
+            double u = random.nextDouble();
+            if ( "clustered".equals( skew )) {
+                u = u * u * u;
+            }
+            int docID = (int) ( u * UNIVERSE );
+            if ( !docs.get( docID )) {
+                docs.set( docID );
+                n++;
+            }
+        }
+        PostingsList list = new PostingsList();
+        for ( int docID = docs.nextSetBit( 0 ); docID >= 0; docID = docs.nextSetBit( docID + 1 )) {
+            int tf = 1 + (int) ( MAX_TF * Math.pow( random.nextDouble(), 4 ));
+            int[] positions = new int[tf];
+            for ( int i=0; i<tf; i++ ) {
+                positions[i] = random.nextInt( DOC_LENGTH );
+            }
+            Arrays.sort( positions );
+            for ( int pos : positions ) {
+                list.insert( docID, pos );
+            }
+        }
+        return list;
+    }
+
+
+    /**
+     *  Registers the documents of the synthetic lists, which tf-idf
+     *  scoring needs.
+     */
+    static void registerSyntheticDocuments( Random random ) {
+        Index.docNames.clear();
+        Index.docLengths.clear();
+        Index.docSqrEuclLengths.clear();
+        for ( int docID=0; docID<UNIVERSE; docID++ ) {
+            int length = DOC_LENGTH / 2 + random.nextInt( DOC_LENGTH );
+            Index.docNames.put( docID, "doc" + docID );
+            Index.docLengths.put( docID, length );
+            Index.docSqrEuclLengths.put( docID, (double) length );
+        }
+    }
+
+
+    /**
+     *  The operators and tf-idf scoring on the synthetic lists.
+     */
+    void syntheticBenchmarks() {
+        Random random = new Random( seed );
+        registerSyntheticDocuments( random );
+        Searcher searcher = new Searcher( null, null );
+        for ( String skew : SKEWS ) {
+            for ( String lengths : LENGTHS ) {
+                String[] parts = lengths.split( "x" );
+                PostingsList a = syntheticList( random, Integer.parseInt( parts[0] ), skew );
+                PostingsList b = syntheticList( random, Integer.parseInt( parts[1] ), skew );
+                binaryOperators( searcher, a, b, new String[] { "lengths", lengths, "skew", skew, "terms", "synthetic" } );
+            }
+        }
+    }
+
+
+    /**
+     *  Measures intersectWith, phraseWith, unionWith and getTfidf on the lists
+     *  <code>a</code> and <code>b</code>.
+     */
+    void binaryOperators( Searcher searcher, PostingsList a, PostingsList b, String[] params ) {
+        measure( "intersectWith", params, () -> a.intersectWith( b ).size() );
+        measure( "phraseWith", params, () -> a.phraseWith( b, 1 ).size() );
+        measure( "unionWith", params, () -> a.unionWith( b ).size() );
+        Query query = new Query( "a b" );
+        PostingsList[] lists = { a, b };
+        PostingsList union = a.unionWith( b );
+        for ( NormalizationType normType : NormalizationType.values() ) {
+            String[] tfidfParams = Arrays.copyOf( params, params.length + 2 );
+            tfidfParams[params.length] = "norm";
+            tfidfParams[params.length + 1] = normType.toString().toLowerCase();
+            measure( "getTfidf", tfidfParams, () -> searcher.getTfidf( query, lists, union, normType, null ).length );
+        }
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Samples SAMPLE_TERMS terms of the persistent index, from the largest to
+     *  the smallest postings list, by reading its dictionary. Returns null if
+     *  there is no index on disk.
+     */
+    static String[] sampleTerms( PersistentHashedIndex index ) {
+        ArrayList<String> terms = new ArrayList<String>();
+        ArrayList<Integer> sizes = new ArrayList<Integer>();
+        for ( long slot=0; slot<index.tableSize; slot++ ) {
+            PersistentHashedIndex.Entry entry = index.readEntry( index.tableStart + slot * PersistentHashedIndex.DICT_ENTRY_SIZE );
+            if ( entry == null || entry.size == 0 ) {
+                continue;
+            }
+            byte[] data = index.readData( entry.pos, Math.min( entry.size, 256 ));
+            int space = 0;
+            while ( space < data.length && data[space] != ' ' ) {
+                space++;
+            }
+            terms.add( new String( data, 0, space, StandardCharsets.UTF_8 ));
+            sizes.add( entry.size );
+        }
+        if ( terms.isEmpty() ) {
+            return null;
+        }
+        Integer[] order = new Integer[terms.size()];
+        for ( int i=0; i<order.length; i++ ) {
+            order[i] = i;
+        }
+        Arrays.sort( order, ( i, j ) -> Integer.compare( sizes.get( j ), sizes.get( i )));
+        int n = Math.min( SAMPLE_TERMS, order.length );
+        String[] sample = new String[n];
+        for ( int i=0; i<n; i++ ) {
+            sample[i] = terms.get( order[(int) ((long) i * ( order.length - 1 ) / Math.max( 1, n - 1 ))] );
+        }
+        return sample;
+    }
+
+
+    /**
+     *  getPostings on the persistent index, and the operators on the postings
+     *  of its most frequent, median and rare sampled terms.
+     */
+    void indexBenchmarks() {
+        File data = new File( PersistentHashedIndex.INDEXDIR, PersistentHashedIndex.DATA_FNAME );
+        if ( !data.exists() ) {
+            System.err.println( "No index in " + PersistentHashedIndex.INDEXDIR + ", skipping the benchmarks on real terms" );
+            return;
+        }
+        Index.docNames.clear();
+        Index.docLengths.clear();
+        Index.docSqrEuclLengths.clear();
+        PersistentHashedIndex index = new PersistentHashedIndex();
+        index.init();
+        String[] terms = sampleTerms( index );
+        if ( terms == null ) {
+            System.err.println( "The index in " + PersistentHashedIndex.INDEXDIR + " is empty" );
+            return;
+        }
+        int[] next = new int[1];
+        measure( "getPostings", new String[] { "terms", "sample of " + terms.length }, () -> {
+            next[0] = ( next[0] + 1 ) % terms.length;
+            return index.getPostings( terms[next[0]] ).size();
+        });
+
+        Searcher searcher = new Searcher( index, null );
+        String frequent = terms[0];
+        String median = terms[terms.length / 2];
+        String rare = terms[terms.length - 1];
+        String[][] pairs = { { frequent, terms[Math.min( 1, terms.length - 1 )] }, { frequent, median }, { median, rare } };
+        String[] names = { "frequent+frequent", "frequent+median", "median+rare" };
+        for ( int i=0; i<pairs.length; i++ ) {
+            PostingsList a = index.getPostings( pairs[i][0] );
+            PostingsList b = index.getPostings( pairs[i][1] );
+            if ( a.size() == 0 || b.size() == 0 ) {
+                continue;
+            }
+            binaryOperators( searcher, a, b, new String[] { "lengths", a.size() + "x" + b.size(), "skew", "real", "terms", names[i] } );
+        }
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  One HITS iteration over the base sets of random root sets.
+     */
+    void hitsBenchmarks() {
+        if ( !new File( "data/linksDavis.txt" ).exists() ) {
+            System.err.println( "No link graph in data/linksDavis.txt, skipping the HITS benchmarks" );
+            return;
+        }
+        HITSRanker ranker = new HITSRanker( "data/linksDavis.txt", "data/davisTitles.txt", null );
+        Random random = new Random( seed );
+        HITSRanker.BaseSet b = ranker.new BaseSet();
+        for ( int rootSetSize : new int[] { 50, HITSRanker.MAX_ROOT_SET_SIZE } ) {
+            String[][] rootSets = new String[16][rootSetSize];
+            for ( String[] rootSet : rootSets ) {
+                for ( int i=0; i<rootSetSize; i++ ) {
+                    rootSet[i] = ranker.graph.title( random.nextInt( ranker.graph.numberOfNodes() ));
+                }
+            }
+            int[] next = new int[1];
+            measure( "iterate", new String[] { "rootSet", String.valueOf( rootSetSize ), "inLinks", String.valueOf( ranker.maxInLinksPerNode ) }, () -> {
+                next[0] = ( next[0] + 1 ) % rootSets.length;
+                ranker.iterate( rootSets[next[0]], ranker.maxInLinksPerNode, b, null );
+                return b.nodes.length;
+            });
+        }
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Synthetic text: words of a Zipf-distributed vocabulary, with some
+     *  punctuation, numbers, e-mail addresses and URLs.
+     */
+    static byte[] syntheticText( Random random ) {
+        String[] vocabulary = new String[20000];
+        for ( int i=0; i<vocabulary.length; i++ ) {
+            StringBuilder word = new StringBuilder();
+            int length = 2 + random.nextInt( 9 );
+            for ( int j=0; j<length; j++ ) {
+                word.append( (char) ( 'a' + random.nextInt( 26 )));
+            }
+            vocabulary[i] = word.toString();
+        }
+        double[] cumulative = new double[vocabulary.length];
+        double sum = 0;
+        for ( int i=0; i<vocabulary.length; i++ ) {
+            sum += 1.0 / ( i + 1 );
+            cumulative[i] = sum;
+        }
+        StringBuilder text = new StringBuilder();
+        while ( text.length() < TEXT_SIZE ) {
+            int r = random.nextInt( 100 );
+            if ( r == 0 ) {
+                text.append( "someone@example.com" );
+            } else if ( r == 1 ) {
+                text.append( "http://www.example.com/page?id=" ).append( random.nextInt( 1000 ));
+            } else if ( r < 4 ) {
+                text.append( random.nextInt( 100000 ));
+            } else {
+                int i = Arrays.binarySearch( cumulative, random.nextDouble() * sum );
+                text.append( vocabulary[i < 0 ? Math.min( -i - 1, vocabulary.length - 1 ) : i] );
+            }
+            text.append( r % 10 == 9 ? ". " : r % 10 == 8 ? ", " : r % 20 == 7 ? "\n" : " " );
+        }
+        return text.toString().getBytes( StandardCharsets.UTF_8 );
+    }
+
+
+    /**
+     *  Tokenizes the files in the -d directory (or synthetic text), as the
+     *  Indexer does, with the patterns if patterns.txt exists.
+     */
+    void tokenizerBenchmarks() throws IOException {
+        ArrayList<ByteBuffer> texts = new ArrayList<ByteBuffer>();
+        long bytes = 0;
+        String source = "synthetic";
+        if ( docDir != null ) {
+            File[] files = new File( docDir ).listFiles();
+            if ( files != null ) {
+                Arrays.sort( files );
+                for ( File f : files ) {
+                    if ( f.isFile() && bytes + f.length() <= MAX_TEXT_SIZE ) {
+                        texts.add( direct( Files.readAllBytes( f.toPath() )));
+                        bytes += f.length();
+                    }
+                }
+                source = texts.size() + " files";
+            }
+        }
+        if ( texts.isEmpty() ) {
+            byte[] text = syntheticText( new Random( seed ));
+            texts.add( direct( text ));
+            bytes = text.length;
+        }
+        String patterns = new File( "patterns.txt" ).exists() ? "patterns.txt" : null;
+        for ( String file : patterns == null ? new String[] { null } : new String[] { null, patterns } ) {
+            Tokenizer tokenizer = new Tokenizer( true, false, true, file );
+            Tokenizer.TokenSink tokenSink = token -> {};
+            measure( "tokenize", new String[] { "text", source, "bytes", String.valueOf( bytes ), "patterns", file == null ? "none" : file }, () -> {
+                long tokens = 0;
+                for ( ByteBuffer text : texts ) {
+                    tokenizer.reset( text.duplicate() );
+                    try {
+                        tokens += tokenizer.tokenize( tokenSink );
+                    } catch ( IOException e ) {
+                        throw new RuntimeException( e );
+                    }
+                }
+                return tokens;
+            });
+        }
+    }
+
+
+    static ByteBuffer direct( byte[] bytes ) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect( bytes.length );
+        buffer.put( bytes ).flip();
+        return buffer;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Decodes the command line arguments. Returns false if they are wrong.
+     */
+    boolean decodeArgs( String[] args ) {
+        try {
+            for ( int i=0; i<args.length; i+=2 ) {
+                if ( i + 1 == args.length ) {
+                    System.err.println( "Missing value of " + args[i] );
+                    return false;
+                }
+                String value = args[i + 1];
+                switch ( args[i] ) {
+                case "-json": jsonFile = value; break;
+                case "-filter": filter = Pattern.compile( value ); break;
+                case "-wi": warmupIterations = Integer.parseInt( value ); break;
+                case "-i": iterations = Math.max( 1, Integer.parseInt( value )); break;
+                case "-r": iterationMillis = Long.parseLong( value ); break;
+                case "-d": docDir = value; break;
+                case "-seed": seed = Long.parseLong( value ); break;
+                default:
+                    System.err.println( "Unknown option: " + args[i] );
+                    return false;
+                }
+            }
+        } catch ( IllegalArgumentException e ) {
+            System.err.println( e.getMessage() );
+            return false;
+        }
+        return true;
+    }
+
+
+    public static void main( String[] args ) throws IOException {
+        Benchmarks benchmarks = new Benchmarks();
+        if ( !benchmarks.decodeArgs( args )) {
+            System.err.println( "Usage: java ir.Benchmarks [-json results.json] [-filter regex] [-wi 3] [-i 5] [-r 1000] [-d docdir] [-seed 42]" );
+            System.exit( 1 );
+        }
+        benchmarks.syntheticBenchmarks();
+        benchmarks.indexBenchmarks();
+        benchmarks.hitsBenchmarks();
+        benchmarks.tokenizerBenchmarks();
+        if ( benchmarks.jsonFile != null ) {
+            try ( PrintWriter out = new PrintWriter( benchmarks.jsonFile, StandardCharsets.UTF_8 )) {
+                out.println( "[" );
+                for ( int i=0; i<benchmarks.results.size(); i++ ) {
+                    out.println( "    " + benchmarks.results.get( i ) + ( i + 1 < benchmarks.results.size() ? "," : "" ));
+                }
+                out.println( "]" );
+            }
+            System.err.println( "Wrote " + benchmarks.results.size() + " results to " + benchmarks.jsonFile );
+        }
+    }
+}
@@ -3,4 +3,4 @@ if ! [ -d classes ];
 then
    mkdir classes
 fi
-javac -cp . -d classes ir/Engine.java ir/HashedIndex.java ir/HITSRanker.java ir/Index.java ir/Indexer.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/NormalizationType.java ir/PersistentHashedIndex.java ir/PostingsEntry.java ir/PostingsList.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/Searcher.java ir/SearchGUI.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/Tokenizer.java ir/TokenTest.java 
+javac -cp . -d classes ir/Engine.java ir/HashedIndex.java ir/HITSRanker.java ir/Index.java ir/Indexer.java ir/KGramIndex.java ir/KGramPostingsEntry.java ir/NormalizationType.java ir/PersistentHashedIndex.java ir/PostingsEntry.java ir/PostingsList.java ir/Query.java ir/QueryType.java ir/RankingType.java ir/Searcher.java ir/SearchGUI.java ir/SpellChecker.java ir/SpellingOptionsDialog.java ir/Tokenizer.java ir/TokenTest.java ir/TopicPageRank.java ir/LinkGraph.java ir/ArrayLinkGraph.java ir/MappedLinkGraph.java ir/PatternSet.java ir/TermDictionary.java ir/SegmentedIndex.java ir/LiveIndexer.java ir/LatencyHistogram.java ir/SearchServer.java ir/QueryBudget.java ir/AdmissionController.java ir/BatchSearch.java ir/CorpusGenerator.java ir/IndexingMetricsMBean.java ir/IndexingMetrics.java ir/QueryTrace.java ir/QueryMetrics.java ir/SearchEvents.java ir/ResultCache.java ir/BiwordIndex.java ir/DeletionIndex.java 
@@ -0,0 +1,2 @@
+if not exist bench\classes mkdir bench\classes
+javac -cp . -d bench\classes ir\*.java bench\ir\Benchmarks.java
@@ -0,0 +1,6 @@
+#!/bin/sh
+if ! [ -d bench/classes ];
+then
+   mkdir bench/classes
+fi
+javac -cp . -d bench/classes ir/*.java bench/ir/Benchmarks.java
@@ -0,0 +1,146 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ *   Keeps the number of queries running at the same time bounded, so that
+ *   a burst of traffic or a few very expensive queries cannot make every
+ *   query slow.
+ *
+ *   At most maxConcurrent queries run at the same time. Others wait, but
+ *   at most maxQueued of them and not longer than the time budget; after
+ *   that, queries are shed (rejected at once). Queries whose estimated cost
+ *   is above expensiveCost also need one of a smaller number of permits for
+ *   expensive queries. If none is free, the query is degraded (HITS queries
+ *   are ranked by the precomputed scores of the whole graph) or shed.
+ *
+ *   Every admitted query gets a QueryBudget with the time and postings
+ *   budgets, which the Searcher checks while it runs.
+ */
+public class AdmissionController {
+
+    /** Default time budget of a query, in milliseconds. */
+    public final static long TIME_BUDGET = 2000;
+
+    /** Default cost above which a query counts as expensive (about the number of postings it touches). */
+    public final static long EXPENSIVE_COST = 1000000;
+
+    /** Max number of queries running at the same time. */
+    int maxConcurrent;
+
+    /** Max number of queries waiting to run. */
+    int maxQueued;
+
+    /** Time budget in ms, and max number of postings scanned, per query (0 for no limit). */
+    long timeBudget;
+    long postingsBudget;
+
+    /** Cost above which a query needs one of the permits for expensive queries. */
+    long expensiveCost = EXPENSIVE_COST;
+
+    Semaphore running;
+    Semaphore expensive;
+    AtomicInteger queued = new AtomicInteger();
+
+    /** What happened to the queries so far. */
+    LongAdder admitted = new LongAdder();
+    LongAdder shed = new LongAdder();
+    LongAdder degraded = new LongAdder();
+    LongAdder cancelled = new LongAdder();
+
+
+    /**
+     *  @param maxConcurrent   Max number of queries running at the same time
+     *  @param timeBudget      Time budget of a query in ms, or 0 for no limit
+     *  @param postingsBudget  Max number of postings a query may scan, or 0 for no limit
+     */
+    public AdmissionController( int maxConcurrent, long timeBudget, long postingsBudget ) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueued = 4 * maxConcurrent;
+        this.timeBudget = timeBudget;
+        this.postingsBudget = postingsBudget;
+        running = new Semaphore( maxConcurrent, true );
+        expensive = new Semaphore( Math.max( 1, maxConcurrent / 4 ));
+    }
+
+
+    /**
+     *  Waits until the query may run, and returns its budget. Returns null
+     *  if the query is shed because too many queries are running or waiting.
+     *  Every budget returned must be given back with {@link #release}.
+     */
+    public QueryBudget admit() {
+        if ( !running.tryAcquire() ) {
+            if ( queued.incrementAndGet() > maxQueued ) {
+                queued.decrementAndGet();
+                shed.increment();
+                return null;
+            }
+            try {
+                boolean acquired = timeBudget > 0 ? running.tryAcquire( timeBudget, TimeUnit.MILLISECONDS ) : acquire();
+                if ( !acquired ) {
+                    shed.increment();
+                    return null;
+                }
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                shed.increment();
+                return null;
+            } finally {
+                queued.decrementAndGet();
+            }
+        }
+        admitted.increment();
+        // The time spent waiting is not part of the budget
+        QueryBudget budget = new QueryBudget( timeBudget, postingsBudget );
+        budget.controller = this;
+        return budget;
+    }
+
+
+    private boolean acquire() throws InterruptedException {
+        running.acquire();
+        return true;
+    }
+
+
+    /**
+     *  Decides if an expensive query may run as asked (see QueryBudget.admit).
+     */
+    boolean admitExpensive( QueryBudget budget ) {
+        if ( budget.cost <= expensiveCost || budget.expensivePermit ) {
+            return true;
+        }
+        budget.expensivePermit = expensive.tryAcquire();
+        return budget.expensivePermit;
+    }
+
+
+    /** Gives back the permits of a query when it is done. */
+    public void release( QueryBudget budget ) {
+        if ( budget.expensivePermit ) {
+            expensive.release();
+        }
+        if ( budget.degraded ) {
+            degraded.increment();
+        }
+        running.release();
+    }
+
+
+    /** Statistics as JSON fields, for the server's /stats. */
+    public String statsJson() {
+        return String.format( "\"admitted\":%d,\"shed\":%d,\"degraded\":%d,\"cancelled\":%d,\"running\":%d,\"queued\":%d",
+                              admitted.sum(), shed.sum(), degraded.sum(), cancelled.sum(),
+                              maxConcurrent - running.availablePermits(), queued.get() );
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ *   A link graph read from the text links and titles files into
+ *   compressed sparse row (CSR) arrays on the heap.
+ *
+ *   Each line in the links file has the following format:
+ *    nodeID;outNodeID1,outNodeID2,...,outNodeIDK
+ *   Each line in the titles file has the following format:
+ *    nodeID;pageTitle
+ */
+public class ArrayLinkGraph extends LinkGraph {
+
+    /**
+     *   Maximal number of documents. We're assuming here that we
+     *   don't have more docs than we can keep in main memory.
+     */
+    final static int MAX_NUMBER_OF_DOCS = 2000000;
+
+    /** Mapping from the titles to dense node numbers */
+    HashMap<String,Integer> titleToNode = new HashMap<String,Integer>();
+
+    /** Mapping from dense node numbers to titles */
+    String[] nodeToTitle;
+
+    /** Mapping from dense node numbers back to the node ids of the links file */
+    int[] nodeToId;
+
+    /** Number of nodes in the graph */
+    int numberOfNodes = 0;
+
+    /** The largest in- or out-degree */
+    int maxDegree = 0;
+
+    /**
+     *  Edges of the graph. The out-links of node i are
+     *  outLinks[outStart[i]] ... outLinks[outStart[i+1]-1], and
+     *  the in-links are stored the same way in inStart/inLinks.
+     */
+    int[] outStart;
+    int[] outLinks;
+    int[] inStart;
+    int[] inLinks;
+
+
+    /**
+     *  Reads the graph from the given links and titles files.
+     */
+    public ArrayLinkGraph( String linksFilename, String titlesFilename ) {
+        int fileIndex = 0;
+        HashMap<Integer,Integer> idToNode = new HashMap<Integer,Integer>();
+        int[] ids = new int[1024];
+        ArrayList<String> titles = new ArrayList<String>();
+
+        try {
+            System.err.println("Reading title file... ");
+            BufferedReader in = new BufferedReader(new FileReader(titlesFilename));
+            String line;
+            while ((line = in.readLine()) != null) {
+                int index = line.indexOf(';');
+                int id = Integer.parseInt(line.substring(0, index));
+                ids = addNode(idToNode, ids, id);
+                int node = idToNode.get(id);
+                String title = line.substring(index + 1);
+                titleToNode.put(title, node);
+                while (titles.size() <= node) {
+                    titles.add(null);
+                }
+                titles.set(node, title);
+            }
+            System.err.println("Read " + titleToNode.size() + " number of titles");
+            in.close();
+        }
+        catch (FileNotFoundException e) {
+            System.err.println("File " + titlesFilename + " not found!");
+        }
+        catch (IOException e) {
+            System.err.println("Error reading file " + titlesFilename);
+        }
+
+        // The edges are first collected as two parallel arrays, and then
+        // sorted into the CSR arrays with a counting sort.
+        int numberOfLinks = 0;
+        int[] froms = new int[1024];
+        int[] tos = new int[1024];
+        try {
+            System.err.print( "Reading link file... " );
+            BufferedReader in = new BufferedReader( new FileReader( linksFilename ));
+            String line;
+            while ((line = in.readLine()) != null && fileIndex<MAX_NUMBER_OF_DOCS ) {
+                int index = line.indexOf( ";" );
+                int fromId = Integer.parseInt(line.substring( 0, index ));
+                ids = addNode(idToNode, ids, fromId);
+                int from = idToNode.get(fromId);
+                fileIndex++;
+                int start = index + 1;
+                while (start < line.length()) {
+                    int end = line.indexOf(',', start);
+                    if (end < 0) {
+                        end = line.length();
+                    }
+                    int toId = Integer.parseInt(line.substring(start, end));
+                    ids = addNode(idToNode, ids, toId);
+                    if (numberOfLinks == froms.length) {
+                        froms = Arrays.copyOf(froms, 2 * numberOfLinks);
+                        tos = Arrays.copyOf(tos, 2 * numberOfLinks);
+                    }
+                    froms[numberOfLinks] = from;
+                    tos[numberOfLinks] = idToNode.get(toId);
+                    numberOfLinks++;
+                    start = end + 1;
+                }
+            }
+            if ( fileIndex >= MAX_NUMBER_OF_DOCS ) {
+                System.err.print( "stopped reading since documents table is full. " );
+            }
+            else {
+                System.err.print( "done. " );
+            }
+            in.close();
+        }
+        catch ( FileNotFoundException e ) {
+            System.err.println( "File " + linksFilename + " not found!" );
+        }
+        catch ( IOException e ) {
+            System.err.println( "Error reading file " + linksFilename );
+        }
+        System.err.println( "Read " + fileIndex + " number of documents" );
+
+        numberOfNodes = idToNode.size();
+        nodeToId = Arrays.copyOf(ids, numberOfNodes);
+        nodeToTitle = new String[numberOfNodes];
+        for (int i = 0; i < titles.size(); i++) {
+            nodeToTitle[i] = titles.get(i);
+        }
+        outStart = new int[numberOfNodes + 1];
+        outLinks = new int[numberOfLinks];
+        inStart = new int[numberOfNodes + 1];
+        inLinks = new int[numberOfLinks];
+        buildCSR(froms, tos, numberOfLinks, outStart, outLinks);
+        buildCSR(tos, froms, numberOfLinks, inStart, inLinks);
+    }
+
+
+    /**
+     * Gives the node id <code>id</code> the next dense node number, unless it
+     * already has one. Returns the (possibly grown) node-to-id array.
+     */
+    private int[] addNode(HashMap<Integer,Integer> idToNode, int[] ids, int id) {
+        if (!idToNode.containsKey(id)) {
+            int node = idToNode.size();
+            if (node == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * node);
+            }
+            ids[node] = id;
+            idToNode.put(id, node);
+        }
+        return ids;
+    }
+
+
+    /**
+     * Sorts the edges (keys[i], values[i]) by key into the CSR arrays
+     * <code>start</code> and <code>links</code>, keeping the file order
+     * within each adjacency list.
+     */
+    private void buildCSR(int[] keys, int[] values, int numberOfLinks, int[] start, int[] links) {
+        for (int i = 0; i < numberOfLinks; i++) {
+            start[keys[i] + 1]++;
+        }
+        for (int i = 0; i < numberOfNodes; i++) {
+            maxDegree = Math.max(maxDegree, start[i + 1]);
+            start[i + 1] += start[i];
+        }
+        int[] next = Arrays.copyOf(start, numberOfNodes);
+        for (int i = 0; i < numberOfLinks; i++) {
+            links[next[keys[i]]++] = values[i];
+        }
+    }
+
+
+    public int numberOfNodes() {
+        return numberOfNodes;
+    }
+
+    public int maxDegree() {
+        return maxDegree;
+    }
+
+    public int nodeId( int node ) {
+        return nodeToId[node];
+    }
+
+    public int node( String title ) {
+        Integer node = titleToNode.get( title );
+        return node == null ? -1 : node;
+    }
+
+    public String title( int node ) {
+        return nodeToTitle[node];
+    }
+
+    public int outLinks( int node, int[] buf ) {
+        int degree = outStart[node + 1] - outStart[node];
+        System.arraycopy( outLinks, outStart[node], buf, 0, degree );
+        return degree;
+    }
+
+    public int inLinks( int node, int[] buf ) {
+        int degree = inStart[node + 1] - inStart[node];
+        System.arraycopy( inLinks, inStart[node], buf, 0, degree );
+        return degree;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ *   Runs a file of queries against the index on disk without the GUI, and
+ *   writes the results in TREC run format together with latency percentiles
+ *   and queries per second.
+ *
+ *   java ir.BatchSearch -q queries.txt [-o run.txt] [-t threads] [-k results]
+ *                       [-type ranked] [-ranking tf_idf] [-norm number_of_words]
+ *                       [-warmup rounds] [-tag name] [-hr n] [-hi n] [-hg] [-cache n]
+ *
+ *   The index is opened as with "-ni": the persistent index must already
+ *   have been written to disk by the engine.
+ *
+ *   Every non-empty line of the queries file that does not start with '#'
+ *   is one query: the query words, optionally followed by a tab and a
+ *   query type, and another tab and a ranking type (see SearchServer for
+ *   the names). Queries are numbered from 1 in the order of the file.
+ *   Words with a '*' are wildcards, which are expanded through a k-gram
+ *   index built from the words of the index, as in the engine.
+ *
+ *   Every result line is "qid Q0 document rank score tag", where document
+ *   is the file name of the document.
+ *
+ *   With -cache n, the results of up to n queries are cached as in the
+ *   server, so that repeated queries and warmup rounds measure the cache.
+ */
+public class BatchSearch {
+
+    /** Max number of results written for every query, if no -k is given. */
+    public final static int DEFAULT_RESULTS = 1000;
+
+    /** One query of the file. */
+    static class BatchQuery {
+        int id;
+        String text;
+        QueryType queryType;
+        RankingType rankingType;
+
+        /** The results of the last run, and how long it took. */
+        ResultCache.Results results;
+        long nanos;
+        boolean failed;
+    }
+
+    String queriesFile;
+    String runFile = null;
+    int threads = 1;
+    int maxResults = DEFAULT_RESULTS;
+    int warmupRounds = 0;
+    String tag = "ir";
+    QueryType queryType = QueryType.RANKED_QUERY;
+    RankingType rankingType = RankingType.TF_IDF;
+    NormalizationType normType = NormalizationType.NUMBER_OF_WORDS;
+    int hitsRootSetSize = HITSRanker.MAX_ROOT_SET_SIZE;
+    int hitsInLinks = HITSRanker.MAX_IN_LINKS_PER_NODE;
+    boolean hitsGlobal = false;
+    int cacheEntries = 0;
+
+    Searcher searcher;
+    ArrayList<BatchQuery> queries = new ArrayList<BatchQuery>();
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Reads the queries file. Returns false if it cannot be read.
+     */
+    boolean readQueries() {
+        try ( BufferedReader in = new BufferedReader( new FileReader( queriesFile, StandardCharsets.UTF_8 ))) {
+            String line;
+            while (( line = in.readLine() ) != null ) {
+                if ( line.isBlank() || line.startsWith( "#" )) {
+                    continue;
+                }
+                String[] fields = line.split( "\t" );
+                BatchQuery query = new BatchQuery();
+                query.id = queries.size() + 1;
+                query.text = fields[0].toLowerCase().trim();
+                query.queryType = SearchServer.parseEnum( QueryType.class, fields.length > 1 ? fields[1].trim() : null, queryType );
+                query.rankingType = SearchServer.parseEnum( RankingType.class, fields.length > 2 ? fields[2].trim() : null, rankingType );
+                queries.add( query );
+            }
+        } catch ( IOException | IllegalArgumentException e ) {
+            System.err.println( "Could not read the queries in " + queriesFile + ": " + e.getMessage() );
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     *  Opens the index on disk, and loads the ranking resources that the
+     *  queries need before any query is timed.
+     */
+    void openIndex() {
+        long startTime = System.currentTimeMillis();
+        Index index = new PersistentHashedIndex();
+        index.init();
+        searcher = new Searcher( index, hasWildcards() ? buildKGramIndex( index ) : null );
+        searcher.hitsRootSetSize = hitsRootSetSize;
+        searcher.hitsInLinks = hitsInLinks;
+        searcher.hitsGlobal = hitsGlobal;
+        searcher.biwords = BiwordIndex.read( PersistentHashedIndex.INDEXDIR );
+        if ( cacheEntries > 0 ) {
+            searcher.resultCache = new ResultCache( cacheEntries );
+        }
+        for ( BatchQuery query : queries ) {
+            if ( query.queryType == QueryType.RANKED_QUERY ) {
+                if ( query.rankingType == RankingType.PAGERANK || query.rankingType == RankingType.COMBINATION ) {
+                    searcher.pagerankTask.run();
+                } else if ( query.rankingType == RankingType.HITS ) {
+                    searcher.hitsTask.run();
+                }
+            }
+        }
+        System.err.println( String.format( "Opened the index of %d documents in %.1f seconds",
+                                           Index.docNames.size(), ( System.currentTimeMillis() - startTime ) / 1000.0 ));
+    }
+
+
+    /** True if one of the queries has a wildcard word. */
+    boolean hasWildcards() {
+        for ( BatchQuery query : queries ) {
+            if ( query.text.indexOf( KGramIndex.WILDCARD ) >= 0 ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /** Builds the k-gram index of the words of <code>index</code>, for the wildcard queries. */
+    static KGramIndex buildKGramIndex( Index index ) {
+        long startTime = System.currentTimeMillis();
+        KGramIndex kgIndex = new KGramIndex( KGramIndex.DEFAULT_K );
+        kgIndex.build( index.terms(), index.documentFrequencies() );
+        System.err.println( "Built the " + kgIndex.getK() + "-gram index of " + kgIndex.size() + " words in " +
+                            ( System.currentTimeMillis() - startTime ) + " ms" );
+        return kgIndex;
+    }
+
+
+    /**
+     *  Runs every query once on <code>threads</code> threads, and returns
+     *  the time it took in nanoseconds.
+     */
+    long runQueries() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool( threads );
+        AtomicInteger next = new AtomicInteger();
+        long startTime = System.nanoTime();
+        for ( int t=0; t<threads; t++ ) {
+            pool.execute( () -> {
+                int i;
+                while (( i = next.getAndIncrement() ) < queries.size() ) {
+                    runQuery( queries.get( i ));
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination( Long.MAX_VALUE, TimeUnit.NANOSECONDS );
+        return System.nanoTime() - startTime;
+    }
+
+
+    private void runQuery( BatchQuery query ) {
+        long start = System.nanoTime();
+        try {
+            query.results = searcher.searchTop( new Query( query.text ), query.queryType, query.rankingType, normType, null, maxResults );
+            query.failed = false;
+        } catch ( RuntimeException e ) {
+            System.err.println( "Query " + query.id + " (" + query.text + ") failed: " + e );
+            query.results = null;
+            query.failed = true;
+        }
+        query.nanos = System.nanoTime() - start;
+    }
+
+
+    /**
+     *  Writes the results of every query in TREC run format.
+     */
+    void writeRun( PrintWriter out ) {
+        for ( BatchQuery query : queries ) {
+            ResultCache.Results results = query.results;
+            int n = results == null ? 0 : Math.min( results.size(), maxResults );
+            for ( int i=0; i<n; i++ ) {
+                int docID = results.docIDs[i];
+                double score = results.scores[i];
+                String name = Index.docNames.get( docID );
+                out.println( query.id + " Q0 " + ( name == null ? docID : TopicPageRank.getFileName( name )) + " " +
+                             ( i + 1 ) + " " + ( Double.isFinite( score ) ? score : 0 ) + " " + tag );
+            }
+        }
+        out.flush();
+    }
+
+
+    /**
+     *  Writes the throughput and the exact latency percentiles of the last run.
+     */
+    void report( long elapsed ) {
+        long[] latencies = new long[queries.size()];
+        long total = 0;
+        int failed = 0;
+        for ( int i=0; i<latencies.length; i++ ) {
+            latencies[i] = queries.get( i ).nanos;
+            total += latencies[i];
+            if ( queries.get( i ).failed ) {
+                failed++;
+            }
+        }
+        Arrays.sort( latencies );
+        System.err.println( String.format( "Ran %d queries in %.2f s on %d threads: %.1f qps, %d failed",
+                                           latencies.length, elapsed / 1e9, threads, latencies.length / ( elapsed / 1e9 ), failed ));
+        System.err.println( String.format( "Latency mean=%.3f p50=%.3f p90=%.3f p95=%.3f p99=%.3f max=%.3f ms",
+                                           total / 1e6 / latencies.length, percentile( latencies, 50 ) / 1e6,
+                                           percentile( latencies, 90 ) / 1e6, percentile( latencies, 95 ) / 1e6,
+                                           percentile( latencies, 99 ) / 1e6, latencies[latencies.length - 1] / 1e6 ));
+        System.err.println( "Stages " + QueryMetrics.get().summary() );
+        if ( searcher.resultCache != null ) {
+            System.err.println( searcher.resultCache.summary() );
+        }
+    }
+
+
+    /** The nearest-rank percentile <code>p</code> of the sorted <code>values</code>. */
+    static long percentile( long[] values, double p ) {
+        int rank = (int) Math.ceil( values.length * p / 100 );
+        return values[Math.max( 0, rank - 1 )];
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Decodes the command line arguments. Returns false if they are wrong.
+     */
+    boolean decodeArgs( String[] args ) {
+        int i = 0;
+        try {
+            while ( i < args.length ) {
+                String option = args[i++];
+                if ( "-hg".equals( option )) {
+                    hitsGlobal = true;
+                    continue;
+                }
+                if ( i == args.length ) {
+                    System.err.println( "Missing value of " + option );
+                    return false;
+                }
+                String value = args[i++];
+                if ( "-q".equals( option )) {
+                    queriesFile = value;
+                } else if ( "-o".equals( option )) {
+                    runFile = value;
+                } else if ( "-t".equals( option )) {
+                    threads = Math.max( 1, Integer.parseInt( value ));
+                } else if ( "-k".equals( option )) {
+                    maxResults = Integer.parseInt( value );
+                } else if ( "-warmup".equals( option )) {
+                    warmupRounds = Integer.parseInt( value );
+                } else if ( "-tag".equals( option )) {
+                    tag = value;
+                } else if ( "-type".equals( option )) {
+                    queryType = SearchServer.parseEnum( QueryType.class, value, queryType );
+                } else if ( "-ranking".equals( option )) {
+                    rankingType = SearchServer.parseEnum( RankingType.class, value, rankingType );
+                } else if ( "-norm".equals( option )) {
+                    normType = SearchServer.parseEnum( NormalizationType.class, value, normType );
+                } else if ( "-hr".equals( option )) {
+                    hitsRootSetSize = Integer.parseInt( value );
+                } else if ( "-hi".equals( option )) {
+                    hitsInLinks = Integer.parseInt( value );
+                } else if ( "-cache".equals( option )) {
+                    cacheEntries = Integer.parseInt( value );
+                } else {
+                    System.err.println( "Unknown option: " + option );
+                    return false;
+                }
+            }
+        } catch ( IllegalArgumentException e ) {
+            System.err.println( e.getMessage() );
+            return false;
+        }
+        return queriesFile != null;
+    }
+
+
+    public static void main( String[] args ) throws IOException, InterruptedException {
+        BatchSearch batch = new BatchSearch();
+        if ( !batch.decodeArgs( args )) {
+            System.err.println( "Usage: java ir.BatchSearch -q queries.txt [-o run.txt] [-t threads] [-k results] " +
+                                "[-type ranked] [-ranking tf_idf] [-norm number_of_words] [-warmup rounds] [-tag name] " +
+                                "[-hr n] [-hi n] [-hg] [-cache n]" );
+            System.exit( 1 );
+        }
+        if ( !batch.readQueries() ) {
+            System.exit( 1 );
+        }
+        if ( batch.queries.isEmpty() ) {
+            System.err.println( "No queries in " + batch.queriesFile );
+            return;
+        }
+        batch.openIndex();
+        for ( int round=0; round<batch.warmupRounds; round++ ) {
+            batch.runQueries();
+        }
+        QueryMetrics.get().reset();
+        long elapsed = batch.runQueries();
+        if ( batch.runFile != null ) {
+            try ( PrintWriter out = new PrintWriter( batch.runFile, StandardCharsets.UTF_8 )) {
+                batch.writeRun( out );
+            }
+        } else {
+            batch.writeRun( new PrintWriter( System.out ));
+        }
+        batch.report( elapsed );
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+
+
+/**
+ *   Which pairs of consecutive words have their own postings in the index,
+ *   so that phrase queries do not have to match the positions of long
+ *   postings lists (see Searcher).
+ *
+ *   The postings of the pair "a b" are stored in the index like the
+ *   postings of a word, under the key a + SEPARATOR + b, with the positions
+ *   of "a" where it is followed by "b". Tokens never contain whitespace, so
+ *   a key cannot be a word, and the persistent index, which separates the
+ *   word from its postings with a space, stores the keys like any word.
+ *
+ *   With ALL, every pair is indexed, which makes the dictionary several
+ *   times larger (the hash table on disk grows with it).
+ *   With FREQUENT (a next-word index), only the pairs with one of
+ *   FREQUENT_WORDS are indexed. These are the words with the longest
+ *   postings lists, where phrase matching is slowest, and there are far
+ *   fewer such pairs.
+ *
+ *   The Searcher must know which pairs were indexed, since a missing pair
+ *   would otherwise look like a phrase that does not occur, so the mode is
+ *   saved in the index directory together with the index.
+ */
+public class BiwordIndex {
+
+    public enum Mode { ALL, FREQUENT }
+
+    /** Separates the two words of a key. */
+    public final static char SEPARATOR = '\t';
+
+    /** The file in the index directory that holds the mode. */
+    public final static String BIWORDS_FNAME = "biwords";
+
+    /** The words whose pairs are indexed with FREQUENT: the most common English words. */
+    final static String[] FREQUENT_WORDS = {
+        "the", "of", "and", "a", "to", "in", "is", "was", "for", "that", "on", "with", "as", "by", "at",
+        "from", "it", "be", "are", "an", "or", "this", "which", "not", "but", "have", "has", "had", "were", "their"
+    };
+
+    /** FREQUENT_WORDS by length, so that a token can be looked up without making a String of it. */
+    private final static String[][] FREQUENT_BY_LENGTH = byLength( FREQUENT_WORDS );
+
+    final Mode mode;
+
+
+    public BiwordIndex( Mode mode ) {
+        this.mode = mode;
+    }
+
+
+    /** True if the pair <code>first</code> <code>second</code> has its own postings. */
+    boolean indexes( CharSequence first, CharSequence second ) {
+        return mode == Mode.ALL || isFrequent( first ) || isFrequent( second );
+    }
+
+
+    /** True if <code>word</code> is one of FREQUENT_WORDS. */
+    static boolean isFrequent( CharSequence word ) {
+        if ( word.length() >= FREQUENT_BY_LENGTH.length ) {
+            return false;
+        }
+        for ( String frequent : FREQUENT_BY_LENGTH[word.length()] ) {
+            if ( frequent.contentEquals( word )) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private static String[][] byLength( String[] words ) {
+        ArrayList<ArrayList<String>> lists = new ArrayList<ArrayList<String>>();
+        for ( String word : words ) {
+            while ( lists.size() <= word.length() ) {
+                lists.add( new ArrayList<String>() );
+            }
+            lists.get( word.length() ).add( word );
+        }
+        String[][] result = new String[lists.size()][];
+        for ( int i=0; i<result.length; i++ ) {
+            result[i] = lists.get( i ).toArray( new String[0] );
+        }
+        return result;
+    }
+
+
+    /** The key of the postings of the pair <code>first</code> <code>second</code>. */
+    static String key( String first, String second ) {
+        return first + SEPARATOR + second;
+    }
+
+
+    /** True if <code>term</code> is the key of a pair rather than a word. */
+    static boolean isBiword( String term ) {
+        return term.indexOf( SEPARATOR ) >= 0;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Saves the mode of <code>biwords</code> in <code>dir</code>, or
+     *  removes it if the index was built without pairs.
+     */
+    static void save( BiwordIndex biwords, String dir ) {
+        File file = new File( dir, BIWORDS_FNAME );
+        if ( !file.getParentFile().isDirectory() ) {
+            // Not a persistent index
+            return;
+        }
+        if ( biwords == null ) {
+            file.delete();
+            return;
+        }
+        try ( Writer writer = new FileWriter( file )) {
+            writer.write( biwords.mode + "\n" );
+        } catch ( IOException e ) {
+            System.err.println( "Could not write " + file + ": " + e.getMessage() );
+        }
+    }
+
+
+    /** The pairs of the index in <code>dir</code>, or null if it has none. */
+    static BiwordIndex read( String dir ) {
+        File file = new File( dir, BIWORDS_FNAME );
+        if ( !file.exists() ) {
+            return null;
+        }
+        try ( BufferedReader reader = new BufferedReader( new FileReader( file ))) {
+            return new BiwordIndex( Mode.valueOf( reader.readLine().trim() ));
+        } catch ( IOException | RuntimeException e ) {
+            System.err.println( "Could not read " + file + ", phrase queries will not use biwords: " + e );
+            return null;
+        }
+    }
+}
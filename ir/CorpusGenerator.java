@@ -0,0 +1,385 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+
+/**
+ *   Generates a synthetic collection of any size, with its link graph and
+ *   PageRank scores, for testing how indexing and searching scale.
+ *
+ *   java ir.CorpusGenerator -n docs -o dir [-seed 42] [-vocabulary 100000]
+ *                           [-zipf 1.0] [-length 400] [-links 10]
+ *
+ *   The output directory is laid out as the engine expects to find it
+ *   when it is run from that directory:
+ *    dir/docs/0/, dir/docs/1/, ...  the documents, DOCS_PER_DIR per directory
+ *    dir/data/linksDavis.txt        nodeID;outNodeID1,outNodeID2,...,
+ *    dir/data/davisTitles.txt       nodeID;title
+ *    dir/data/pagerank.txt          title;score
+ *   where the title of a document is its file name.
+ *
+ *   The words of the documents are drawn from a Zipf distribution over a
+ *   vocabulary of pseudo-words, where the most frequent words are also the
+ *   shortest. Document lengths follow a log-normal distribution. About
+ *   PATTERN_RATE of the tokens are e-mail addresses, URLs, numbers and
+ *   other tokens matched by patterns.txt. Links point to documents drawn
+ *   from another Zipf distribution, so that a few documents have many
+ *   in-links, as in real collections.
+ *
+ *   Every document is generated from its own random generator, seeded from
+ *   the seed and its number, so the same seed always gives the same
+ *   collection, and the documents can be written in parallel.
+ */
+public class CorpusGenerator {
+
+    /** Number of documents in every directory of documents. */
+    public final static int DOCS_PER_DIR = 1000;
+
+    /** Fraction of the tokens that are matched by patterns.txt. */
+    public final static double PATTERN_RATE = 0.02;
+
+    /** Standard deviation of the logarithm of the document lengths. */
+    final static double LENGTH_SIGMA = 0.9;
+
+    /** The syllables of the pseudo-words. */
+    final static String[] SYLLABLES = {
+        "a", "e", "i", "o", "u", "ba", "be", "bi", "bo", "da", "de", "di", "do", "fa", "fe", "fi",
+        "ga", "go", "ha", "he", "hi", "ka", "ke", "ki", "ko", "la", "le", "li", "lo", "lu", "ma", "me",
+        "mi", "mo", "na", "ne", "ni", "no", "pa", "pe", "pi", "po", "ra", "re", "ri", "ro", "sa", "se",
+        "si", "so", "ta", "te", "ti", "to", "va", "ve", "vi", "ya", "za", "ze", "an", "en", "in", "on"
+    };
+
+    final static String[] DOMAINS = { "com", "org", "net", "se", "edu" };
+    final static String[] EXTENSIONS = { "pdf", "txt", "html", "jpg", "doc" };
+
+    /** Streams of random numbers: the text and the links of every document have their own. */
+    final static int TEXT = 0;
+    final static int LINKS = 1;
+
+    int numberOfDocs;
+    String outputDir;
+    long seed = 42;
+    int vocabularySize = 100000;
+    double zipfExponent = 1.0;
+    int meanLength = 400;
+    int meanLinks = 10;
+
+    /** The vocabulary, most frequent word first. */
+    String[] vocabulary;
+
+    /** Draws word ranks and link targets in constant time (Walker's alias method). */
+    AliasTable words;
+    AliasTable targets;
+
+    /** Link targets by rank: a random permutation, so popular documents are spread out. */
+    int[] targetByRank;
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *   Draws numbers 0..n-1 with given probabilities in constant time.
+     */
+    static class AliasTable {
+        double[] probability;
+        int[] alias;
+
+        /** A table for the Zipf distribution P(i) ~ 1/(i+1)^s. */
+        AliasTable( int n, double s ) {
+            double[] p = new double[n];
+            double sum = 0;
+            for ( int i=0; i<n; i++ ) {
+                p[i] = Math.pow( i + 1, -s );
+                sum += p[i];
+            }
+            probability = new double[n];
+            alias = new int[n];
+            int[] small = new int[n];
+            int[] large = new int[n];
+            int ns = 0, nl = 0;
+            for ( int i=0; i<n; i++ ) {
+                p[i] = p[i] * n / sum;
+                if ( p[i] < 1 ) {
+                    small[ns++] = i;
+                } else {
+                    large[nl++] = i;
+                }
+            }
+            while ( ns > 0 && nl > 0 ) {
+                int less = small[--ns];
+                int more = large[--nl];
+                probability[less] = p[less];
+                alias[less] = more;
+                p[more] = p[more] + p[less] - 1;
+                if ( p[more] < 1 ) {
+                    small[ns++] = more;
+                } else {
+                    large[nl++] = more;
+                }
+            }
+            while ( nl > 0 ) {
+                probability[large[--nl]] = 1;
+            }
+            while ( ns > 0 ) {
+                probability[small[--ns]] = 1;
+            }
+        }
+
+        int next( Random random ) {
+            int i = random.nextInt( probability.length );
+            return random.nextDouble() < probability[i] ? i : alias[i];
+        }
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /** The pseudo-word of rank <code>i</code>: the digits of i+1 in base SYLLABLES.length, as syllables. */
+    static String word( int i ) {
+        StringBuilder word = new StringBuilder();
+        for ( int n = i + 1; n > 0; n = ( n - 1 ) / SYLLABLES.length ) {
+            word.append( SYLLABLES[( n - 1 ) % SYLLABLES.length] );
+        }
+        return word.toString();
+    }
+
+
+    /** The title (file name) of document <code>docID</code>. */
+    String title( int docID ) {
+        return vocabulary[docID % Math.min( vocabulary.length, 1000 )] + "_" + docID + ".f";
+    }
+
+
+    /**
+     *  The random generator of <code>stream</code> of document
+     *  <code>docID</code>. The first numbers drawn by java.util.Random from
+     *  seeds that are close are almost the same, so the seed, the stream
+     *  and the docID are scrambled by mix() first.
+     */
+    Random random( int stream, int docID ) {
+        return new Random( mix( mix( mix( seed ) + stream ) + docID ));
+    }
+
+
+    /** The finalizer of SplitMix64: every bit of the result depends on every bit of <code>z</code>. */
+    static long mix( long z ) {
+        z = ( z ^ ( z >>> 30 )) * 0xBF58476D1CE4E5B9L;
+        z = ( z ^ ( z >>> 27 )) * 0x94D049BB133111EBL;
+        return z ^ ( z >>> 31 );
+    }
+
+
+    void init() {
+        vocabulary = new String[vocabularySize];
+        for ( int i=0; i<vocabularySize; i++ ) {
+            vocabulary[i] = word( i );
+        }
+        words = new AliasTable( vocabularySize, zipfExponent );
+        targets = new AliasTable( numberOfDocs, 1.0 );
+        targetByRank = new int[numberOfDocs];
+        for ( int i=0; i<numberOfDocs; i++ ) {
+            targetByRank[i] = i;
+        }
+        Random random = new Random( seed );
+        for ( int i=numberOfDocs-1; i>0; i-- ) {
+            int j = random.nextInt( i + 1 );
+            int tmp = targetByRank[i];
+            targetByRank[i] = targetByRank[j];
+            targetByRank[j] = tmp;
+        }
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /** A token matched by one of the patterns in patterns.txt. */
+    String patternToken( Random random ) {
+        String a = vocabulary[words.next( random )];
+        String b = vocabulary[words.next( random )];
+        switch ( random.nextInt( 10 )) {
+        case 0: return a + "." + b + "@" + vocabulary[random.nextInt( 100 )] + "." + DOMAINS[random.nextInt( DOMAINS.length )];
+        case 1: return "http://www." + b + "." + DOMAINS[random.nextInt( DOMAINS.length )] + "/" + a + "?id=" + random.nextInt( 1000 );
+        case 2: return random.nextInt( 100 ) + "," + String.format( Locale.ROOT, "%03d", random.nextInt( 1000 ));
+        case 3: return random.nextInt( 10 ) + "." + random.nextInt( 10 ) + "." + random.nextInt( 10 );
+        case 4: return "+46-" + random.nextInt( 100 ) + "-" + ( 100000 + random.nextInt( 900000 ));
+        case 5: return "$" + random.nextInt( 1000 ) + "." + String.format( Locale.ROOT, "%02d", random.nextInt( 100 ));
+        case 6: return random.nextInt( 24 ) + ":" + String.format( Locale.ROOT, "%02d", random.nextInt( 60 ));
+        case 7: return a + "-" + b;
+        case 8: return a + "'" + ( random.nextBoolean() ? "s" : "t" );
+        default: return a + "." + EXTENSIONS[random.nextInt( EXTENSIONS.length )];
+        }
+    }
+
+
+    /**
+     *  The text of document <code>docID</code>: sentences of Zipf-distributed
+     *  words and pattern tokens. Returns the number of tokens written.
+     */
+    int text( Random random, StringBuilder text ) {
+        double mu = Math.log( meanLength ) - LENGTH_SIGMA * LENGTH_SIGMA / 2;
+        int length = (int) Math.exp( mu + LENGTH_SIGMA * random.nextGaussian() );
+        length = Math.max( 5, Math.min( length, 50 * meanLength ));
+        int sentenceLeft = 0;
+        for ( int i=0; i<length; i++ ) {
+            boolean first = sentenceLeft == 0;
+            if ( first ) {
+                sentenceLeft = 4 + random.nextInt( 20 );
+            }
+            String token = random.nextDouble() < PATTERN_RATE ? patternToken( random ) : vocabulary[words.next( random )];
+            if ( first ) {
+                text.append( Character.toUpperCase( token.charAt( 0 ))).append( token, 1, token.length() );
+            } else {
+                text.append( token );
+            }
+            sentenceLeft--;
+            if ( sentenceLeft == 0 ) {
+                text.append( random.nextInt( 8 ) == 0 ? ".\n\n" : ". " );
+            } else if ( random.nextInt( 12 ) == 0 ) {
+                text.append( ", " );
+            } else {
+                text.append( ' ' );
+            }
+        }
+        text.append( '\n' );
+        return length;
+    }
+
+
+    /** The out-links of a document, as node IDs (docID + 1). */
+    void links( Random random, int docID, StringBuilder line ) {
+        line.append( docID + 1 ).append( ';' );
+        // Geometrically distributed out-degree with the given mean
+        int degree = (int) ( Math.log( 1 - random.nextDouble() ) / Math.log( meanLinks / ( meanLinks + 1.0 )));
+        for ( int i=0; i<degree; i++ ) {
+            int target = targetByRank[targets.next( random )];
+            if ( target != docID ) {
+                line.append( target + 1 ).append( ',' );
+            }
+        }
+        line.append( '\n' );
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Writes the documents, the link graph and the PageRank scores.
+     */
+    void generate() throws IOException {
+        long startTime = System.currentTimeMillis();
+        File docs = new File( outputDir, "docs" );
+        File data = new File( outputDir, "data" );
+        data.mkdirs();
+        for ( int dir=0; dir*DOCS_PER_DIR<numberOfDocs; dir++ ) {
+            new File( docs, String.valueOf( dir )).mkdirs();
+        }
+
+        AtomicLong bytes = new AtomicLong();
+        AtomicLong tokens = new AtomicLong();
+        IntStream.range( 0, numberOfDocs ).parallel().forEach( docID -> {
+            StringBuilder text = new StringBuilder();
+            tokens.addAndGet( text( random( TEXT, docID ), text ));
+            byte[] utf8 = text.toString().getBytes( StandardCharsets.UTF_8 );
+            File f = new File( new File( docs, String.valueOf( docID / DOCS_PER_DIR )), title( docID ));
+            try {
+                Files.write( f.toPath(), utf8 );
+            } catch ( IOException e ) {
+                System.err.println( "Could not write " + f + ": " + e.getMessage() );
+            }
+            bytes.addAndGet( utf8.length );
+        });
+        System.err.println( String.format( "Wrote %d documents (%d tokens, %.1f MB) in %.1f s", numberOfDocs, tokens.get(),
+                                           bytes.get() / 1e6, ( System.currentTimeMillis() - startTime ) / 1000.0 ));
+
+        String linksFile = new File( data, "linksDavis.txt" ).getPath();
+        String titlesFile = new File( data, "davisTitles.txt" ).getPath();
+        try ( Writer links = new BufferedWriter( new FileWriter( linksFile, StandardCharsets.UTF_8 ));
+              Writer titles = new BufferedWriter( new FileWriter( titlesFile, StandardCharsets.UTF_8 ))) {
+            StringBuilder line = new StringBuilder();
+            for ( int docID=0; docID<numberOfDocs; docID++ ) {
+                line.setLength( 0 );
+                links( random( LINKS, docID ), docID, line );
+                links.write( line.toString() );
+                titles.write( ( docID + 1 ) + ";" + title( docID ) + "\n" );
+            }
+        }
+
+        // PageRank is topic-sensitive PageRank with every page as a seed
+        TopicPageRank pageRank = new TopicPageRank( linksFile, titlesFile );
+        int[] seeds = IntStream.range( 0, pageRank.nodeToTitle.size() ).toArray();
+        double[] scores = pageRank.iterate( seeds );
+        try ( Writer out = new BufferedWriter( new FileWriter( new File( data, "pagerank.txt" ), StandardCharsets.UTF_8 ))) {
+            for ( int i=0; i<scores.length; i++ ) {
+                out.write( pageRank.nodeToTitle.get( i ) + ";" + String.format( Locale.ROOT, "%.7g", scores[i] ) + "\n" );
+            }
+        }
+        System.err.println( String.format( "Generated the collection in %s in %.1f s", outputDir,
+                                           ( System.currentTimeMillis() - startTime ) / 1000.0 ));
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Decodes the command line arguments. Returns false if they are wrong.
+     */
+    boolean decodeArgs( String[] args ) {
+        try {
+            for ( int i=0; i<args.length; i+=2 ) {
+                if ( i + 1 == args.length ) {
+                    System.err.println( "Missing value of " + args[i] );
+                    return false;
+                }
+                String value = args[i + 1];
+                switch ( args[i] ) {
+                case "-n": numberOfDocs = Integer.parseInt( value ); break;
+                case "-o": outputDir = value; break;
+                case "-seed": seed = Long.parseLong( value ); break;
+                case "-vocabulary": vocabularySize = Integer.parseInt( value ); break;
+                case "-zipf": zipfExponent = Double.parseDouble( value ); break;
+                case "-length": meanLength = Integer.parseInt( value ); break;
+                case "-links": meanLinks = Integer.parseInt( value ); break;
+                default:
+                    System.err.println( "Unknown option: " + args[i] );
+                    return false;
+                }
+            }
+        } catch ( NumberFormatException e ) {
+            System.err.println( "Not a number: " + e.getMessage() );
+            return false;
+        }
+        return numberOfDocs > 0 && outputDir != null && vocabularySize > 0 && meanLength > 0 && meanLinks > 0;
+    }
+
+
+    public static void main( String[] args ) throws IOException {
+        CorpusGenerator generator = new CorpusGenerator();
+        if ( !generator.decodeArgs( args )) {
+            System.err.println( "Usage: java ir.CorpusGenerator -n docs -o dir [-seed 42] [-vocabulary 100000] " +
+                                "[-zipf 1.0] [-length 400] [-links 10]" );
+            System.exit( 1 );
+        }
+        generator.init();
+        generator.generate();
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ *   Candidate spelling corrections from the deletions of the words of the
+ *   k-gram index, as in SymSpell: every word is stored under each string
+ *   that it becomes when at most MAX_DELETIONS of its letters are deleted.
+ *   Two words are within edit distance 2 (with substitutions costing 2) if
+ *   and only if deleting at most 2 letters from the two words together
+ *   gives the same string, so the candidates of a misspelled word are
+ *   found by looking up its own deletions: a few dozen binary searches
+ *   instead of scanning the k-gram postings of the word. The candidates
+ *   are then checked by the SpellChecker like those of the k-gram index.
+ *
+ *   The strings themselves are not stored, only their hashes, so the index
+ *   is one sorted array of (hash << 32 | word ID) entries. A hash collision
+ *   only gives a candidate too many. The price is memory: a word of n
+ *   letters has about n * n / 2 deletions, so the index has tens of
+ *   entries per word (run main to compare with the k-gram index).
+ *
+ *   The entries are written to DELETIONS_FNAME in the index directory and
+ *   memory-mapped, so they are only computed again when the words change.
+ *   File layout (big-endian):
+ *    int MAGIC, int VERSION
+ *    int maxDeletions, int numberOfWords, long wordsHash, long numberOfEntries
+ *    long[numberOfEntries] the sorted entries
+ */
+public class DeletionIndex {
+
+    /** Identifies a deletion index file ("DELS"). */
+    public static final int MAGIC = 0x44454C53;
+
+    /** Version of the file layout. */
+    public static final int VERSION = 1;
+
+    /** Size of the header in bytes. */
+    static final int HEADER_SIZE = 32;
+
+    /** The file in the index directory that holds the entries. */
+    public static final String DELETIONS_FNAME = "deletions";
+
+    /** Max number of letters deleted from a word (deletions() deletes up to 2). */
+    public static final int MAX_DELETIONS = 2;
+
+    /** The entries, sorted. Only absolute get methods are used, so it can be shared between threads. */
+    LongBuffer entries;
+
+    /** The words, by the same IDs as in the k-gram index. */
+    KGramIndex kgIndex;
+
+
+    private DeletionIndex( KGramIndex kgIndex, LongBuffer entries ) {
+        this.kgIndex = kgIndex;
+        this.entries = entries;
+    }
+
+
+    /**
+     *  Opens the deletion index of the words of <code>kgIndex</code> in
+     *  <code>dir</code>, or builds it and writes it there if it is missing
+     *  or was built from other words. If <code>dir</code> does not exist
+     *  (the index is not persistent), the index is only kept in memory.
+     */
+    public static DeletionIndex open( KGramIndex kgIndex, String dir ) {
+        long startTime = System.currentTimeMillis();
+        File file = new File( dir, DELETIONS_FNAME );
+        long wordsHash = wordsHash( kgIndex );
+        if ( file.exists() ) {
+            try {
+                LongBuffer entries = map( file, kgIndex.size(), wordsHash );
+                if ( entries != null ) {
+                    System.err.println( "Mapped " + entries.limit() + " deletions of " + kgIndex.size() + " words in " +
+                                        ( System.currentTimeMillis() - startTime ) + " ms" );
+                    return new DeletionIndex( kgIndex, entries );
+                }
+            } catch ( IOException e ) {
+                System.err.println( "Could not read " + file + ", building it again: " + e.getMessage() );
+            }
+        }
+        long[] entries = build( kgIndex );
+        DeletionIndex index = new DeletionIndex( kgIndex, LongBuffer.wrap( entries ));
+        if ( file.getParentFile().isDirectory() ) {
+            try {
+                write( file, entries, kgIndex.size(), wordsHash );
+                index.entries = map( file, kgIndex.size(), wordsHash );
+            } catch ( IOException e ) {
+                System.err.println( "Could not write " + file + ": " + e.getMessage() );
+            }
+        }
+        System.err.println( "Built " + entries.length + " deletions of " + kgIndex.size() + " words in " +
+                            ( System.currentTimeMillis() - startTime ) + " ms" );
+        return index;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  FNV-1a hash of <code>word</code> without the letters at positions
+     *  <code>skip1</code> and <code>skip2</code> (-1 to skip none). It is
+     *  part of the file format, so it must not depend on the JVM.
+     */
+    static int hash( String word, int skip1, int skip2 ) {
+        int h = 0x811c9dc5;
+        for ( int i=0; i<word.length(); i++ ) {
+            if ( i != skip1 && i != skip2 ) {
+                h ^= word.charAt( i );
+                h *= 0x01000193;
+            }
+        }
+        return h;
+    }
+
+
+    /** Adds the hashes of the deletions of <code>word</code> to <code>hashes</code>, and returns their number. */
+    private static int deletions( String word, int[] hashes ) {
+        int n = 0;
+        hashes[n++] = hash( word, -1, -1 );
+        for ( int i=0; i<word.length(); i++ ) {
+            hashes[n++] = hash( word, i, -1 );
+            for ( int j=i+1; j<word.length(); j++ ) {
+                hashes[n++] = hash( word, i, j );
+            }
+        }
+        return n;
+    }
+
+
+    /** Max number of deletions of a word of <code>length</code> letters. */
+    private static int numberOfDeletions( int length ) {
+        return 1 + length + length * ( length - 1 ) / 2;
+    }
+
+
+    private static long entry( int hash, int termID ) {
+        return ( (long) hash << 32 ) | termID;
+    }
+
+
+    /** The sorted entries of all deletions of all words, without duplicates. */
+    static long[] build( KGramIndex kgIndex ) {
+        long size = 0;
+        int longest = 0;
+        for ( int termID=0; termID<kgIndex.size(); termID++ ) {
+            int length = kgIndex.getTermByID( termID ).length();
+            size += numberOfDeletions( length );
+            longest = Math.max( longest, length );
+        }
+        if ( size > Integer.MAX_VALUE - 8 ) {
+            throw new IllegalStateException( "Too many deletions: " + size );
+        }
+        long[] entries = new long[(int) size];
+        int[] hashes = new int[numberOfDeletions( longest )];
+        int n = 0;
+        for ( int termID=0; termID<kgIndex.size(); termID++ ) {
+            int m = deletions( kgIndex.getTermByID( termID ), hashes );
+            for ( int i=0; i<m; i++ ) {
+                entries[n++] = entry( hashes[i], termID );
+            }
+        }
+        Arrays.sort( entries );
+        // Deleting different letters can give the same string, e.g. "ab" from "aab"
+        int unique = 0;
+        for ( int i=0; i<n; i++ ) {
+            if ( unique == 0 || entries[i] != entries[unique - 1] ) {
+                entries[unique++] = entries[i];
+            }
+        }
+        return Arrays.copyOf( entries, unique );
+    }
+
+
+    /** A hash of all words in order, so that a file built from other words is recognized. */
+    static long wordsHash( KGramIndex kgIndex ) {
+        long h = kgIndex.size();
+        for ( int termID=0; termID<kgIndex.size(); termID++ ) {
+            h = 31 * h + hash( kgIndex.getTermByID( termID ), -1, -1 );
+        }
+        return h;
+    }
+
+
+    private static void write( File file, long[] entries, int numberOfWords, long wordsHash ) throws IOException {
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ), 1 << 16 ))) {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( MAX_DELETIONS );
+            out.writeInt( numberOfWords );
+            out.writeLong( wordsHash );
+            out.writeLong( entries.length );
+            for ( long entry : entries ) {
+                out.writeLong( entry );
+            }
+        }
+    }
+
+
+    /** Maps the entries in <code>file</code>, or returns null if it was built from other words. */
+    private static LongBuffer map( File file, int numberOfWords, long wordsHash ) throws IOException {
+        ByteBuffer buf;
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "r" )) {
+            buf = raf.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, raf.length() );
+        }
+        if ( buf.getInt( 0 ) != MAGIC || buf.getInt( 4 ) != VERSION ) {
+            throw new IOException( file + " is not a deletion index of version " + VERSION );
+        }
+        if ( buf.getInt( 8 ) != MAX_DELETIONS || buf.getInt( 12 ) != numberOfWords || buf.getLong( 16 ) != wordsHash ) {
+            return null;
+        }
+        long numberOfEntries = buf.getLong( 24 );
+        if ( HEADER_SIZE + 8 * numberOfEntries != buf.capacity() ) {
+            throw new IOException( file + " is truncated" );
+        }
+        return buf.position( HEADER_SIZE ).slice().asLongBuffer();
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  The IDs of the words that have a deletion in common with
+     *  <code>word</code>, sorted. They include all words within edit
+     *  distance MAX_DELETIONS of it.
+     */
+    public int[] candidates( String word ) {
+        int[] hashes = new int[numberOfDeletions( word.length() )];
+        int m = deletions( word, hashes );
+        int[] result = new int[16];
+        int n = 0;
+        for ( int i=0; i<m; i++ ) {
+            for ( int e = lowerBound( entry( hashes[i], 0 )); e < entries.limit() && (int) ( entries.get( e ) >>> 32 ) == hashes[i]; e++ ) {
+                if ( n == result.length ) {
+                    result = Arrays.copyOf( result, 2 * n );
+                }
+                result[n++] = (int) entries.get( e );
+            }
+        }
+        // A word can share several deletions with the misspelled one
+        Arrays.sort( result, 0, n );
+        int unique = 0;
+        for ( int i=0; i<n; i++ ) {
+            if ( unique == 0 || result[i] != result[unique - 1] ) {
+                result[unique++] = result[i];
+            }
+        }
+        return Arrays.copyOf( result, unique );
+    }
+
+
+    /** The index of the first entry that is not smaller than <code>entry</code>. */
+    private int lowerBound( long entry ) {
+        int lo = 0, hi = entries.limit();
+        while ( lo < hi ) {
+            int mid = ( lo + hi ) >>> 1;
+            if ( entries.get( mid ) < entry ) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+
+    /** Number of entries. */
+    public int size() {
+        return entries.limit();
+    }
+
+
+    /** Bytes taken by the entries (on the heap or mapped). */
+    public long bytes() {
+        return 8L * entries.limit();
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Compares the memory and the latency of spelling correction with the
+     *  k-gram index and with the deletion index, on the words of the index
+     *  in INDEXDIR. The corrected words are made by one random insertion,
+     *  deletion or substitution in words of the index.
+     *
+     *    java ir.DeletionIndex [-k 2] [-n 1000]
+     */
+    public static void main( String[] args ) {
+        int k = KGramIndex.DEFAULT_K;
+        int n = 1000;
+        for ( int i=0; i+1<args.length; i+=2 ) {
+            if ( "-k".equals( args[i] )) {
+                k = Integer.parseInt( args[i+1] );
+            } else if ( "-n".equals( args[i] )) {
+                n = Integer.parseInt( args[i+1] );
+            } else {
+                System.err.println( "Unknown option: " + args[i] );
+                return;
+            }
+        }
+        Index index = new PersistentHashedIndex();
+        long startTime = System.currentTimeMillis();
+        KGramIndex kgIndex = new KGramIndex( k );
+        kgIndex.build( index.terms(), index.documentFrequencies() );
+        long kgramBuild = System.currentTimeMillis() - startTime;
+        DeletionIndex deletions = DeletionIndex.open( kgIndex, PersistentHashedIndex.INDEXDIR );
+        if ( kgIndex.size() == 0 ) {
+            System.err.println( "No words in " + PersistentHashedIndex.INDEXDIR );
+            return;
+        }
+
+        // Misspellings of words that are long enough to have corrections
+        Random random = new Random( 1 );
+        String letters = "abcdefghijklmnopqrstuvwxyz";
+        ArrayList<Query> queries = new ArrayList<Query>();
+        while ( queries.size() < n ) {
+            String word = kgIndex.getTermByID( random.nextInt( kgIndex.size() ));
+            if ( word.length() < 4 ) {
+                continue;
+            }
+            int p = random.nextInt( word.length() );
+            char c = letters.charAt( random.nextInt( letters.length() ));
+            switch ( random.nextInt( 3 )) {
+            case 0: word = word.substring( 0, p ) + c + word.substring( p ); break;
+            case 1: word = word.substring( 0, p ) + word.substring( p + 1 ); break;
+            default: word = word.substring( 0, p ) + c + word.substring( p + 1 );
+            }
+            queries.add( new Query( word ));
+        }
+
+        SpellChecker kgramSpeller = new SpellChecker( index, kgIndex );
+        SpellChecker deletionSpeller = new SpellChecker( index, kgIndex );
+        deletionSpeller.deletions = deletions;
+        String[][] kgramResults = new String[n][], deletionResults = new String[n][];
+        LatencyHistogram kgramLatencies = new LatencyHistogram(), deletionLatencies = new LatencyHistogram();
+        for ( int round=0; round<2; round++ ) {
+            // The first round warms up the JIT compiler and the mapped pages
+            kgramLatencies.reset();
+            deletionLatencies.reset();
+            for ( int i=0; i<n; i++ ) {
+                long t = System.nanoTime();
+                kgramResults[i] = kgramSpeller.check( queries.get( i ), 10 );
+                kgramLatencies.record( System.nanoTime() - t );
+                t = System.nanoTime();
+                deletionResults[i] = deletionSpeller.check( queries.get( i ), 10 );
+                deletionLatencies.record( System.nanoTime() - t );
+            }
+        }
+        int same = 0;
+        for ( int i=0; i<n; i++ ) {
+            if ( Arrays.equals( kgramResults[i], deletionResults[i] )) {
+                same++;
+            }
+        }
+        System.out.println( String.format( "%d words, %d misspelled words, same suggestions for %d", kgIndex.size(), n, same ));
+        System.out.println( String.format( "%-10s %12s %10s %10s %10s", "", "memory (MB)", "mean (ms)", "p99 (ms)", "max (ms)" ));
+        System.out.println( String.format( "%-10s %12.1f %10.3f %10.3f %10.3f  (built in %d ms)", "k-grams", kgIndex.bytes() / 1e6,
+                                           kgramLatencies.mean() / 1e6, kgramLatencies.percentile( 99 ) / 1e6, kgramLatencies.max() / 1e6, kgramBuild ));
+        System.out.println( String.format( "%-10s %12.1f %10.3f %10.3f %10.3f  (%d entries)", "deletions", deletions.bytes() / 1e6,
+                                           deletionLatencies.mean() / 1e6, deletionLatencies.percentile( 99 ) / 1e6, deletionLatencies.max() / 1e6, deletions.size() ));
+    }
+}
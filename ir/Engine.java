@@ -8,6 +8,7 @@
 package ir;
 
 import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.io.File;
 
 /**
@@ -26,25 +27,52 @@ public class Engine {
     /** The searcher used to search the index. */
     Searcher searcher;
 
-    /** K-gram index */
+    /** K-gram index, built from the words of the index (null if kgram_k is 0) */
     KGramIndex kgIndex = null;
-    // Assignment 3: Comment the line above and uncomment the next line
-    // KgramIndex kgIndex = new KGramIndex(2);
 
-    /** Spell checker */
+    /** The k of the k-gram index (-kgram k), or 0 for no k-gram index. */
+    int kgram_k = KGramIndex.DEFAULT_K;
+
+    /** Spell checker, if there is a k-gram index */
     SpellChecker speller;
-    // Assignment 3: Comment the line above and uncomment the next line
-    // SpellChecker = new SpellChecker( index, kgIndex );
+
+    /** Take spelling candidates from a deletion index instead of the k-gram index (-speller deletions). */
+    boolean deletion_speller = false;
     
     /** The engine GUI. */
     SearchGUI gui;
 
+    /** Serves searches over HTTP instead of the GUI, if server_port is set. */
+    SearchServer server;
+
+    /** Port of the HTTP server, or -1 to show the GUI. */
+    int server_port = -1;
+
+    /** Max number of queries the server runs at the same time. */
+    int max_concurrent_queries = 2 * Runtime.getRuntime().availableProcessors();
+
+    /** Time budget of a server query in ms, and max number of postings it may scan (0 for no limit). */
+    long query_time_budget = AdmissionController.TIME_BUDGET;
+    long query_postings_budget = 0;
+
+    /** Number of queries whose results are cached (0 for no cache). */
+    int result_cache_entries = ResultCache.DEFAULT_ENTRIES;
+
+    /** Queries slower than this many ms are written to the slow-query log (0 for none). */
+    long slow_query_millis = QueryMetrics.SLOW_QUERY_MILLIS;
+
     /** Directories that should be indexed. */
     ArrayList<String> dirNames = new ArrayList<String>();
 
-    /** Lock to prevent simultaneous access to the index. */
+    /**
+     *  Lock to prevent simultaneous changes to the index. Searches do not
+     *  take it, since they run against a snapshot of the index.
+     */
     Object indexLock = new Object();
 
+    /** Counted down when the index has been built or loaded. Searches wait for it. */
+    CountDownLatch indexReady = new CountDownLatch( 1 );
+
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
     String patterns_file = null;
 
@@ -57,6 +85,28 @@ public class Engine {
     /** For persistent indexes, we might not need to do any indexing. */
     boolean is_indexing = true;
 
+    /** Max size of the HITS root set, and max number of in-links per root document. */
+    int hits_root_set_size = HITSRanker.MAX_ROOT_SET_SIZE;
+    int hits_in_links = HITSRanker.MAX_IN_LINKS_PER_NODE;
+
+    /** Rank HITS queries by the precomputed scores of the whole graph. */
+    boolean hits_global = false;
+
+    /** Load the ranking resources on first use instead of in the background. */
+    boolean lazy_ranking = false;
+
+    /** Keep indexing new and changed files in the indexed directories. */
+    boolean live_indexing = false;
+
+    /** Index pairs of consecutive words for phrase queries (-biwords all|frequent), or null. */
+    BiwordIndex.Mode biword_mode = null;
+
+    /** Time between two refreshes of the live index, in milliseconds. */
+    long refresh_interval = LiveIndexer.REFRESH_INTERVAL;
+
+    /** Indexes the documents added while the engine is running, if live_indexing is set. */
+    LiveIndexer liveIndexer;
+
 
     /* ----------------------------------------------- */
 
@@ -66,34 +116,110 @@ public class Engine {
      *   Indexes all chosen directories and files
      */
     public Engine( String[] args ) {
+        long engineStartTime = System.currentTimeMillis();
         decodeArgs( args );
+        QueryMetrics.get().slowQueryMillis = slow_query_millis;
+        QueryMetrics.get().register();
+        if ( live_indexing ) {
+            index = new SegmentedIndex( index );
+        }
+        BiwordIndex biwords = biword_mode == null ? null : new BiwordIndex( biword_mode );
+        if ( kgram_k > 0 ) {
+            kgIndex = new KGramIndex( kgram_k );
+            speller = new SpellChecker( index, kgIndex );
+        }
         indexer = new Indexer( index, kgIndex, patterns_file );
+        indexer.biwords = biwords;
         searcher = new Searcher( index, kgIndex );
-        gui = new SearchGUI( this );
-        gui.init();
+        searcher.hitsRootSetSize = hits_root_set_size;
+        searcher.hitsInLinks = hits_in_links;
+        searcher.hitsGlobal = hits_global;
+        if ( result_cache_entries > 0 ) {
+            searcher.resultCache = new ResultCache( result_cache_entries );
+        }
+        if ( !lazy_ranking ) {
+            // Load pagerank and the link graph while the index is being opened
+            searcher.warmup();
+        }
+        if ( server_port < 0 ) {
+            gui = new SearchGUI( this );
+            gui.init();
+        }
         /* 
          *   Calls the indexer to index the chosen directory structure.
-         *   Access to the index is synchronized since we don't want to 
-         *   search at the same time we're indexing new files (this might 
-         *   corrupt the index).
+         *   Searches wait for indexReady, since we don't want to search
+         *   an index that is only half built.
          */
         if (is_indexing) {
             synchronized ( indexLock ) {
-                gui.displayInfoText( "Indexing, please wait..." );
+                displayInfoText( "Indexing, please wait..." );
+                IndexingMetrics.get().start( index );
                 long startTime = System.currentTimeMillis();
                 for ( int i=0; i<dirNames.size(); i++ ) {
                     File dokDir = new File( dirNames.get( i ));
                     indexer.processFiles( dokDir, is_indexing );
                 }
                 long elapsedTime = System.currentTimeMillis() - startTime;
-                gui.displayInfoText( String.format( "Indexing done in %.1f seconds.", elapsedTime/1000.0 ));
+                displayInfoText( String.format( "Indexing done in %.1f seconds.", elapsedTime/1000.0 ));
                 index.cleanup();
+                BiwordIndex.save( biwords, PersistentHashedIndex.INDEXDIR );
+                IndexingMetrics.get().stop();
             }
         } else {
             synchronized ( indexLock ) {
                 index.init();
             }
-            gui.displayInfoText( "Index is loaded from disk" );
+            // Phrase queries can only use the pairs the index was built with
+            biwords = BiwordIndex.read( PersistentHashedIndex.INDEXDIR );
+            if ( biword_mode != null && ( biwords == null || biwords.mode != biword_mode )) {
+                System.err.println( "The index was built with biwords " + ( biwords == null ? "off" : biwords.mode ) + ", using that" );
+            }
+            displayInfoText( "Index is loaded from disk" );
+        }
+        indexer.buildKGramIndex();
+        if ( speller != null && deletion_speller ) {
+            speller.deletions = DeletionIndex.open( kgIndex, PersistentHashedIndex.INDEXDIR );
+        }
+        searcher.biwords = biwords;
+        indexReady.countDown();
+        if ( live_indexing ) {
+            liveIndexer = new LiveIndexer( (SegmentedIndex) index, indexLock, patterns_file, refresh_interval );
+            liveIndexer.biwords = biwords;
+            liveIndexer.start( dirNames );
+        }
+        System.err.println( String.format( "Ready for intersection and phrase queries %.1f seconds after startup",
+                                           (System.currentTimeMillis() - engineStartTime)/1000.0 ));
+        if ( server_port >= 0 ) {
+            try {
+                server = new SearchServer( this, server_port );
+                server.start();
+            } catch ( java.io.IOException e ) {
+                System.err.println( "Could not start the server on port " + server_port + ": " + e.getMessage() );
+            }
+        }
+    }
+
+
+    /**
+     *   Shows a message in the GUI, or on stderr when there is no GUI.
+     */
+    void displayInfoText( String info ) {
+        if ( gui != null ) {
+            gui.displayInfoText( info );
+        } else {
+            System.err.println( info );
+        }
+    }
+
+
+    /**
+     *   Waits until the index has been built or loaded.
+     */
+    void awaitIndex() {
+        try {
+            indexReady.await();
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -129,6 +255,75 @@ public class Engine {
             } else if ( "-ni".equals( args[i] )) {
                 i++;
                 is_indexing = false;
+            } else if ( "-biwords".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    biword_mode = BiwordIndex.Mode.valueOf( args[i++].toUpperCase() );
+                }
+            } else if ( "-kgram".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    kgram_k = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-speller".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    deletion_speller = "deletions".equals( args[i++] );
+                }
+            } else if ( "-hr".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    hits_root_set_size = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-hi".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    hits_in_links = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-hg".equals( args[i] )) {
+                i++;
+                hits_global = true;
+            } else if ( "-lazy".equals( args[i] )) {
+                i++;
+                lazy_ranking = true;
+            } else if ( "-live".equals( args[i] )) {
+                i++;
+                live_indexing = true;
+            } else if ( "-server".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    server_port = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-refresh".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    refresh_interval = Long.parseLong( args[i++] );
+                }
+            } else if ( "-max-concurrent".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    max_concurrent_queries = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-budget".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    query_time_budget = Long.parseLong( args[i++] );
+                }
+            } else if ( "-budget-postings".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    query_postings_budget = Long.parseLong( args[i++] );
+                }
+            } else if ( "-cache".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    result_cache_entries = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-slow".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    slow_query_millis = Long.parseLong( args[i++] );
+                }
             } else {
                 System.err.println( "Unknown option: " + args[i] );
                 break;
@@ -8,6 +8,7 @@
 package ir;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.io.*;
 
 
@@ -25,43 +26,122 @@ public class HITSRanker {
     final static double EPSILON = 0.001;
 
     /**
-     *   The inverted index
+     *   Base sets with at least this many documents are iterated in parallel
      */
-    Index index;
+    final static int PARALLEL_THRESHOLD = 5000;
+
+    /**
+     *   Default caps on the size of the root set and on the number of
+     *   in-links that are followed from every root document
+     *   (t = 200 and d = 50 in Kleinberg's original paper).
+     */
+    final static int MAX_ROOT_SET_SIZE = 200;
+    final static int MAX_IN_LINKS_PER_NODE = 50;
+
+    /**
+     *   Estimated work of ranking one node of the base set (about the
+     *   number of links followed over all iterations), see estimateCost
+     */
+    final static int HITS_COST_PER_NODE = 100;
+
+    /**
+     *   The file where the hub and authority scores of the whole graph are stored
+     */
+    public static final String GLOBAL_SCORES_FNAME = "data/hits_scores.txt";
+
+    /**
+     *   At most this many of the highest scored documents of a query form the root set
+     */
+    int maxRootSetSize = MAX_ROOT_SET_SIZE;
+
+    /**
+     *   At most this many in-links of every root document are added to the base set
+     */
+    int maxInLinksPerNode = MAX_IN_LINKS_PER_NODE;
+
+    /**
+     *   If true, queries are ranked by the precomputed scores of the whole
+     *   graph instead of by iterating over a query-specific base set
+     */
+    boolean useGlobalScores = false;
+
+    /**
+     *   Precomputed hub + authority scores of the whole graph, by title
+     *   (null until they are first needed)
+     */
+    HashMap<String,Double> globalScores;
 
     /**
-     *   Mapping from the titles to internal document ids used in the links file
+     *   The global scores aligned by docID, for one generation of the index
      */
-    HashMap<String,Integer> titleToId = new HashMap<String,Integer>();
+    static class AlignedScores {
+        final long generation;
+        final double[] byDoc;
+
+        AlignedScores(long generation, double[] byDoc) {
+            this.generation = generation;
+            this.byDoc = byDoc;
+        }
+    }
 
     /**
-     *   Sparse vector containing hub scores
+     *   The global scores aligned for the newest generation of the index
+     *   seen so far (null until they are first needed)
      */
-    HashMap<Integer,Double> hubs;
+    volatile AlignedScores alignedScores;
 
     /**
-     *   Sparse vector containing authority scores
+     *   The inverted index
      */
-    HashMap<Integer,Double> authorities;
+    Index index;
 
     /**
-     *  Edges of the graph
+     *   The link graph. Node ids from the links file are renumbered
+     *   0..numberOfNodes-1 when the graph is read.
      */
-    HashMap<Integer, ArrayList<Integer>> linksTo = new HashMap<Integer, ArrayList<Integer>>();
-    HashMap<Integer, ArrayList<Integer>> linksFrom = new HashMap<Integer, ArrayList<Integer>>();
+    LinkGraph graph;
 
     /**
-     *  The set of documents that we base our ranking on
+     *   The base sets that are not in use. A query takes one (or creates a
+     *   new one) and gives it back when it is ranked, so that queries can
+     *   be ranked in parallel without allocating the per-node arrays each time.
      */
-    Set<Integer> baseSet;
+    ConcurrentLinkedQueue<BaseSet> freeBaseSets = new ConcurrentLinkedQueue<BaseSet>();
+
 
-    /**  
-     *   Maximal number of documents. We're assuming here that we
-     *   don't have more docs than we can keep in main memory.
+    /**
+     *   The base set of one HITS iteration, and the buffers used to build it.
      */
-    final static int MAX_NUMBER_OF_DOCS = 2000000;
+    class BaseSet {
+
+        /**
+         *  The base set as a list of node numbers.
+         *  Local index i in the base set corresponds to node nodes[i].
+         */
+        int[] nodes = new int[0];
+
+        /**
+         *  Local index of every node in the base set, or -1
+         */
+        int[] localIndex = new int[graph.numberOfNodes()];
+
+        /**
+         *   Buffer for reading one adjacency list of the graph
+         */
+        int[] linkBuffer = new int[graph.maxDegree()];
+
+        /**
+         *   Hub and authority scores of the base set, by local index
+         */
+        double[] hubs = new double[0];
+        double[] authorities = new double[0];
+
+        BaseSet() {
+            Arrays.fill(localIndex, -1);
+        }
+    }
+
 
-    
     /* --------------------------------------------- */
 
     /**
@@ -81,6 +161,9 @@ public class HITSRanker {
      * NOTE: nodeIDs are consistent between these two files, but they are NOT the same
      *       as docIDs used by search engine's Indexer
      *
+     * If the links file has been converted with MappedLinkGraph, the binary
+     * file is memory-mapped instead of parsing the text files.
+     *
      * @param      linksFilename   File containing the links of the graph
      * @param      titlesFilename  File containing the mapping between nodeIDs and pages titles
      * @param      index           The inverted index
@@ -119,211 +202,402 @@ public class HITSRanker {
      * @param      titlesFilename  File containing the mapping between nodeIDs and pages titles
      */
     void readDocs( String linksFilename, String titlesFilename ) {
-        //
-        // YOUR CODE HERE
-        //
-        int fileIndex = 0;
-        
-        try {
-            System.err.println("Reading title file... ");
-            BufferedReader in = new BufferedReader(new FileReader(titlesFilename));
-            String line;
-            while ((line = in.readLine()) != null) {
-                String[] s = line.split(";");
-                int id = Integer.parseInt(s[0]);
-                titleToId.put(s[1], id);
-            }
-            System.err.println("Read " + titleToId.size() + " number of titles");
-            in.close();
-        }
-        catch (FileNotFoundException e) {
-            System.err.println("File " + titlesFilename + " not found!");
-        }
-        catch (IOException e) {
-            System.err.println("Error reading file " + titlesFilename);
-        }
-
-        try {
-            System.err.print( "Reading link file... " );
-            BufferedReader in = new BufferedReader( new FileReader( linksFilename ));
-            String line;
-            while ((line = in.readLine()) != null && fileIndex<MAX_NUMBER_OF_DOCS ) {
-                int index = line.indexOf( ";" );
-                int fromId = Integer.parseInt(line.substring( 0, index ));
-                if (index == line.length() - 1) {
-                    continue;
-                }
-                String[] tos = line.substring( index+1, line.length() ).split(",");
-                for (String to: tos) {
-                    int toId = Integer.parseInt(to);
-                    if (!linksTo.containsKey(fromId)) {
-                        linksTo.put(fromId, new ArrayList<Integer>());
-                    }
-                    linksTo.get(fromId).add(toId);
-
-                    if (!linksFrom.containsKey(toId)) {
-                        linksFrom.put(toId, new ArrayList<Integer>());
-                    }
-                    linksFrom.get(toId).add(fromId);
-                }
-            }
-            if ( fileIndex >= MAX_NUMBER_OF_DOCS ) {
-                System.err.print( "stopped reading since documents table is full. " );
-            }
-            else {
-                System.err.print( "done. " );
-            }
-            in.close();
-        }
-        catch ( FileNotFoundException e ) {
-            System.err.println( "File " + linksFilename + " not found!" );
-        }
-        catch ( IOException e ) {
-            System.err.println( "Error reading file " + linksFilename );
-        }
-        System.err.println( "Read " + fileIndex + " number of documents" );
-
+        graph = LinkGraph.open( linksFilename, titlesFilename );
     }
 
+
     /**
      * Perform HITS iterations until convergence
      *
-     * @param      titles  The titles of the documents in the root set
+     * @param      titles      The titles of the documents in the root set
+     * @param      maxInLinks  At most this many in-links of every root document are
+     *                         added to the base set
+     * @param      b           Where the base set and its scores are stored
+     * @param      budget      Checked once for every root document and every step, or null
      */
-    private void iterate(String[] titles) {
-        //
-        // YOUR CODE HERE
-        //
-        hubs = new HashMap<Integer,Double>();
-        authorities = new HashMap<Integer,Double>();
+    void iterate(String[] titles, int maxInLinks, BaseSet b, QueryBudget budget) {
+        SearchEvents.RankingEvent event = new SearchEvents.RankingEvent();
+        event.begin();
+
+        // Forget the previous base set
+        for (int node: b.nodes) {
+            b.localIndex[node] = -1;
+        }
 
-        Set<Integer> baseSet = new HashSet<Integer>();
+        // Collect the base set and renumber it densely
+        int n = 0;
+        int[] links = b.linkBuffer;
         for (String title: titles) {
-            Integer id = titleToId.get(title);
-            if (id != null) {
-                baseSet.add(id);
-                if (linksTo.containsKey(id)) {
-                    for (int to: linksTo.get(id)) {
-                        baseSet.add(to);
-                    }
+            if (budget != null) {
+                budget.check();
+            }
+            int node = graph.node(title);
+            if (node >= 0) {
+                n = addToBaseSet(b, node, n);
+                int outDegree = graph.outLinks(node, links);
+                for (int j = 0; j < outDegree; j++) {
+                    n = addToBaseSet(b, links[j], n);
                 }
-                if (linksFrom.containsKey(id)) {
-                    for (int from: linksFrom.get(id)) {
-                        baseSet.add(from);
-                    }
+                // If there are too many in-links, take an evenly spread sample
+                int inDegree = graph.inLinks(node, links);
+                int sampleSize = Math.min(inDegree, maxInLinks);
+                for (int j = 0; j < sampleSize; j++) {
+                    n = addToBaseSet(b, links[(int) ((long) j * inDegree / sampleSize)], n);
                 }
             }
         }
-
-        for (int id: baseSet) {
-            hubs.put(id, 1.0);
-            authorities.put(id, 1.0);
-        }
+        b.nodes = Arrays.copyOf(b.nodes, n);
+
+        // The subgraph induced by the base set, in local numbering
+        int[] subOutStart = new int[n + 1];
+        int[] subInStart = new int[n + 1];
+        int[] subOutLinks = localLinks(b, true, subOutStart);
+        int[] subInLinks = localLinks(b, false, subInStart);
+
+        double[] hub = new double[n];
+        double[] authority = new double[n];
+        double[] newHub = new double[n];
+        double[] newAuthority = new double[n];
+        Arrays.fill(hub, 1.0);
+        Arrays.fill(authority, 1.0);
+        boolean parallel = n >= PARALLEL_THRESHOLD;
+        int steps = 0;
+        boolean converged = false;
 
         for (int step = 0; step < MAX_NUMBER_OF_STEPS; step++) {
-            HashMap<Integer, Double> newHubs = new HashMap<Integer,Double>();
-            HashMap<Integer, Double> newAuthorities = new HashMap<Integer,Double>();
-            for (int id: baseSet) {
-                double hub = 0;
-                double authority = 0;
-                if (linksFrom.containsKey(id)) {
-                    for (int from: linksFrom.get(id)) {
-                        if (authorities.containsKey(from)) {
-                            authority += hubs.get(from);
-                        }
-                    }
+            if (budget != null) {
+                budget.check();
+            }
+            final double[] h = hub, a = authority, nh = newHub, na = newAuthority;
+            java.util.function.IntConsumer update = i -> {
+                double sum = 0;
+                for (int j = subInStart[i]; j < subInStart[i + 1]; j++) {
+                    sum += h[subInLinks[j]];
+                }
+                na[i] = sum;
+                sum = 0;
+                for (int j = subOutStart[i]; j < subOutStart[i + 1]; j++) {
+                    sum += a[subOutLinks[j]];
                 }
-                if (linksTo.containsKey(id)) {
-                    for (int to: linksTo.get(id)) {
-                        if (hubs.containsKey(to)) {
-                            hub += authorities.get(to);
-                        }
-                    }
+                nh[i] = sum;
+            };
+            if (parallel) {
+                java.util.stream.IntStream.range(0, n).parallel().forEach(update);
+            }
+            else {
+                for (int i = 0; i < n; i++) {
+                    update.accept(i);
                 }
-                newHubs.put(id, hub);
-                newAuthorities.put(id, authority);
             }
 
             double hubSum = 0;
             double authoritySum = 0;
-            for (int id: baseSet) {
-                hubSum += newHubs.get(id) * newHubs.get(id);
-                authoritySum += newAuthorities.get(id) * newAuthorities.get(id);
+            for (int i = 0; i < n; i++) {
+                hubSum += newHub[i] * newHub[i];
+                authoritySum += newAuthority[i] * newAuthority[i];
             }
-            hubSum = Math.sqrt(hubSum);
-            authoritySum = Math.sqrt(authoritySum);
+            hubSum = hubSum > 0 ? Math.sqrt(hubSum) : 1;
+            authoritySum = authoritySum > 0 ? Math.sqrt(authoritySum) : 1;
 
             double hubsDiff = 0;
             double authoritiesDiff = 0;
-            for (int id: baseSet) {
-                double hub = newHubs.get(id) / hubSum;
-                double authority = newAuthorities.get(id) / authoritySum;
-                hubsDiff += Math.abs(hubs.get(id) - hub);
-                authoritiesDiff += Math.abs(authorities.get(id) - authority);
-                hubs.put(id, hub);
-                authorities.put(id, authority);
+            for (int i = 0; i < n; i++) {
+                newHub[i] /= hubSum;
+                newAuthority[i] /= authoritySum;
+                hubsDiff += Math.abs(hub[i] - newHub[i]);
+                authoritiesDiff += Math.abs(authority[i] - newAuthority[i]);
             }
 
+            // Swap the buffers instead of allocating new vectors
+            double[] tmp = hub;
+            hub = newHub;
+            newHub = tmp;
+            tmp = authority;
+            authority = newAuthority;
+            newAuthority = tmp;
+
+            steps++;
             if (hubsDiff < EPSILON && authoritiesDiff < EPSILON) {
+                converged = true;
                 break;
             }
         }
+        b.hubs = hub;
+        b.authorities = authority;
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.algorithm = "HITS";
+            event.nodes = n;
+            event.iterations = steps;
+            event.converged = converged;
+            event.commit();
+        }
+    }
+
+
+    /**
+     * Adds <code>node</code> to the base set as local index <code>n</code>,
+     * unless it is already there. Returns the new size of the base set.
+     */
+    private int addToBaseSet(BaseSet b, int node, int n) {
+        if (b.localIndex[node] >= 0) {
+            return n;
+        }
+        if (n == b.nodes.length) {
+            b.nodes = Arrays.copyOf(b.nodes, Math.max(16, 2 * n));
+        }
+        b.nodes[n] = node;
+        b.localIndex[node] = n;
+        return n + 1;
+    }
+
+
+    /**
+     * Restricts the out-links (or in-links) of the base set to the base set
+     * itself and renumbers them locally. Fills in <code>subStart</code> and
+     * returns the local adjacency array.
+     */
+    private int[] localLinks(BaseSet b, boolean out, int[] subStart) {
+        int n = b.nodes.length;
+        int[] links = b.linkBuffer;
+        int[] subLinks = new int[Math.max(16, n)];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            int degree = out ? graph.outLinks(b.nodes[i], links) : graph.inLinks(b.nodes[i], links);
+            if (k + degree > subLinks.length) {
+                subLinks = Arrays.copyOf(subLinks, Math.max(2 * subLinks.length, k + degree));
+            }
+            for (int j = 0; j < degree; j++) {
+                int local = b.localIndex[links[j]];
+                if (local >= 0) subLinks[k++] = local;
+            }
+            subStart[i + 1] = k;
+        }
+        return subLinks;
     }
 
 
     /**
      * Rank the documents in the subgraph induced by the documents present
-     * in the postings list `post`.
+     * in the postings list `post`. Several queries can be ranked at the same time.
      *
-     * @param      post  The list of postings fulfilling a certain information need
+     * @param      post    The list of postings fulfilling a certain information need
+     * @param      budget  Checked while the scores are computed, or null
      *
      * @return     A list of postings ranked according to the hub and authority scores.
      */
-    PostingsList rank(PostingsList post) {
-        //
-        // YOUR CODE HERE
-        //
+    PostingsList rank(PostingsList post, QueryBudget budget) {
+        if (useGlobalScores) {
+            return rankByGlobalScores(post);
+        }
         int n = post.size();
         String[] titles = new String[n];
         for (int i = 0; i < n; i++) {
-            titles[i] = getFileName(Index.docNames.get(post.get(i).docID));
+            // The document may have been deleted after the query started
+            String name = Index.docNames.get(post.get(i).docID);
+            titles[i] = name == null ? "" : getFileName(name);
+        }
+        BaseSet b = freeBaseSets.poll();
+        if (b == null) {
+            b = new BaseSet();
         }
-        iterate(titles);
         PostingsList result = new PostingsList();
-        for (int i = 0; i < n; i++) {
-            PostingsEntry entry = post.get(i);
-            int id = titleToId.get(getFileName(Index.docNames.get(entry.docID)));
-            result.insert(entry.docID, 0, hubs.get(id) + authorities.get(id));
+        try {
+            iterate(rootSet(post, titles), maxInLinksPerNode, b, budget);
+            for (int i = 0; i < n; i++) {
+                PostingsEntry entry = post.get(i);
+                int node = graph.node(titles[i]);
+                double score = 0;
+                if (node >= 0 && b.localIndex[node] >= 0) {
+                    int local = b.localIndex[node];
+                    score = b.hubs[local] + b.authorities[local];
+                }
+                result.insert(entry.docID, 0, score);
+            }
+        }
+        finally {
+            // A cancelled iteration leaves the base set in a state the next one can clean up
+            freeBaseSets.offer(b);
         }
         return result;
     }
 
 
     /**
-     * Sort a hash map by values in the descending order
+     * Estimates the work of ranking <code>resultSize</code> documents: the
+     * largest possible base set (every root document with its out-links and
+     * sampled in-links) times the work of one step per node.
+     */
+    long estimateCost(int resultSize) {
+        if (useGlobalScores) {
+            return resultSize;
+        }
+        long rootSize = Math.min(resultSize, maxRootSetSize);
+        long baseSetSize = Math.min(graph.numberOfNodes(), rootSize * (1 + Math.min(graph.maxDegree(), 2L * maxInLinksPerNode)));
+        return baseSetSize * HITS_COST_PER_NODE;
+    }
+
+
+    /**
+     * True if queries can be ranked by the global scores without computing them first.
+     */
+    boolean hasGlobalScores() {
+        return globalScores != null || new File(GLOBAL_SCORES_FNAME).exists();
+    }
+
+
+    /**
+     * Picks the root set: the at most <code>maxRootSetSize</code> documents of
+     * <code>post</code> with the highest scores (e.g. tf-idf). Documents
+     * outside the root set are only ranked if they end up in the base set.
+     *
+     * @param      post    The list of postings fulfilling a certain information need
+     * @param      titles  The titles of the documents in <code>post</code>
+     *
+     * @return     The titles of the documents in the root set
+     */
+    private String[] rootSet(PostingsList post, String[] titles) {
+        int n = post.size();
+        if (n <= maxRootSetSize) {
+            return titles;
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i1, i2) -> Double.compare(post.get(i2).score, post.get(i1).score));
+        String[] root = new String[maxRootSetSize];
+        for (int i = 0; i < maxRootSetSize; i++) {
+            root[i] = titles[order[i]];
+        }
+        return root;
+    }
+
+
+    /**
+     * Ranks the documents in <code>post</code> by the hub and authority scores
+     * of the whole graph, which are read from (or, the first time, computed
+     * and written to) GLOBAL_SCORES_FNAME. Each document costs one array read.
      *
-     * @param      map    A hash map to sorted
+     * @param      post  The list of postings fulfilling a certain information need
      *
-     * @return     A hash map sorted by values
-     */
-    private HashMap<Integer,Double> sortHashMapByValue(HashMap<Integer,Double> map) {
-        if (map == null) {
-            return null;
-        } else {
-            List<Map.Entry<Integer,Double> > list = new ArrayList<Map.Entry<Integer,Double> >(map.entrySet());
-      
-            Collections.sort(list, new Comparator<Map.Entry<Integer,Double>>() {
-                public int compare(Map.Entry<Integer,Double> o1, Map.Entry<Integer,Double> o2) { 
-                    return (o2.getValue()).compareTo(o1.getValue()); 
-                } 
-            }); 
-              
-            HashMap<Integer,Double> res = new LinkedHashMap<Integer,Double>(); 
-            for (Map.Entry<Integer,Double> el : list) { 
-                res.put(el.getKey(), el.getValue()); 
+     * @return     A list of postings ranked according to the global scores.
+     */
+    PostingsList rankByGlobalScores(PostingsList post) {
+        double[] globalScoresByDoc = alignGlobalScores();
+        PostingsList result = new PostingsList();
+        for (int i = 0; i < post.size(); i++) {
+            int docID = post.get(i).docID;
+            result.insert(docID, 0, docID < globalScoresByDoc.length ? globalScoresByDoc[docID] : 0);
+        }
+        return result;
+    }
+
+
+    /**
+     * Returns the global scores aligned by docID, building them again when
+     * the index has changed since (documents added by the LiveIndexer get
+     * new docIDs, even when as many others are deleted). The lock is only
+     * taken to build them.
+     */
+    private double[] alignGlobalScores() {
+        // The generation is read before the document names, so that new
+        // documents are at worst aligned once more
+        long generation = index == null ? 0 : index.generation();
+        AlignedScores aligned = alignedScores;
+        if (aligned != null && aligned.generation >= generation) {
+            return aligned.byDoc;
+        }
+        synchronized (this) {
+            aligned = alignedScores;
+            if (aligned != null && aligned.generation >= generation) {
+                return aligned.byDoc;
+            }
+            if (globalScores == null) {
+                globalScores = readGlobalScores();
             }
-            return res;
+            int maxDocID = -1;
+            for (int docID: Index.docNames.keySet()) {
+                maxDocID = Math.max(maxDocID, docID);
+            }
+            double[] byDoc = new double[maxDocID + 1];
+            for (Map.Entry<Integer,String> e: Index.docNames.entrySet()) {
+                Double score = globalScores.get(getFileName(e.getValue()));
+                if (score != null && e.getKey() <= maxDocID) {
+                    byDoc[e.getKey()] = score;
+                }
+            }
+            alignedScores = new AlignedScores(generation, byDoc);
+            return byDoc;
         }
+    }
+
+
+    /**
+     * Reads the global scores as a map from titles to hub + authority scores.
+     * If the file does not exist, the scores are computed and written first.
+     */
+    private HashMap<String,Double> readGlobalScores() {
+        if (!new File(GLOBAL_SCORES_FNAME).exists()) {
+            System.err.println("Computing HITS scores for the whole graph...");
+            BaseSet b = new BaseSet();
+            iterate(allTitles(), Integer.MAX_VALUE, b, null);
+            writeGlobalScores(b, GLOBAL_SCORES_FNAME);
+        }
+        HashMap<String,Double> scores = new HashMap<String,Double>();
+        try (BufferedReader in = new BufferedReader(new FileReader(GLOBAL_SCORES_FNAME))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] parts = line.split(";");
+                scores.put(parts[0], Double.parseDouble(parts[1]) + Double.parseDouble(parts[2]));
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Error reading file " + GLOBAL_SCORES_FNAME);
+        }
+        return scores;
+    }
+
+
+    /**
+     * Writes the hub and authority scores of every titled document in the
+     * base set <code>b</code> to <code>fname</code>, one "title;hub;authority" per line.
+     */
+    void writeGlobalScores(BaseSet b, String fname) {
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fname))) {
+            for (int local = 0; local < b.nodes.length; local++) {
+                String title = graph.title(b.nodes[local]);
+                if (title != null) {
+                    writer.write(title + ";" + b.hubs[local] + ";" + b.authorities[local] + "\n");
+                }
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Error writing file " + fname);
+        }
+    }
+
+
+    /**
+     * Sort the base set <code>b</code> by the given scores in the descending order
+     *
+     * @param      b       The base set
+     * @param      scores  Scores of the base set, by local index
+     *
+     * @return     A map from node ids to scores, sorted by scores
+     */
+    private HashMap<Integer,Double> sortByValue(BaseSet b, double[] scores) {
+        Integer[] order = new Integer[scores.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i1, i2) -> Double.compare(scores[i2], scores[i1]));
+        HashMap<Integer,Double> res = new LinkedHashMap<Integer,Double>(); 
+        for (int i: order) { 
+            res.put(graph.nodeId(b.nodes[i]), scores[i]); 
+        }
+        return res;
     } 
 
 
@@ -352,14 +626,33 @@ public class HITSRanker {
 
 
     /**
-     * Rank all the documents in the links file. Produces two files:
+     * Returns the titles of all the documents in the graph.
+     */
+    private String[] allTitles() {
+        ArrayList<String> titles = new ArrayList<String>();
+        for (int node = 0; node < graph.numberOfNodes(); node++) {
+            String title = graph.title(node);
+            if (title != null) {
+                titles.add(title);
+            }
+        }
+        return titles.toArray(new String[0]);
+    }
+
+
+    /**
+     * Rank all the documents in the links file. Produces three files:
      *  hubs_top_30.txt with documents containing top 30 hub scores
      *  authorities_top_30.txt with documents containing top 30 authority scores
+     *  GLOBAL_SCORES_FNAME with the scores of all documents, used when
+     *  ranking queries with useGlobalScores
      */
     void rank() {
-        iterate(titleToId.keySet().toArray(new String[0]));
-        HashMap<Integer,Double> sortedHubs = sortHashMapByValue(hubs);
-        HashMap<Integer,Double> sortedAuthorities = sortHashMapByValue(authorities);
+        BaseSet b = new BaseSet();
+        iterate(allTitles(), Integer.MAX_VALUE, b, null);
+        writeGlobalScores(b, GLOBAL_SCORES_FNAME);
+        HashMap<Integer,Double> sortedHubs = sortByValue(b, b.hubs);
+        HashMap<Integer,Double> sortedAuthorities = sortByValue(b, b.authorities);
         writeToFile(sortedHubs, "hubs_top_30.txt", 30);
         writeToFile(sortedAuthorities, "authorities_top_30.txt", 30);
     }
@@ -8,33 +8,105 @@
 
 package ir;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
 
 
 /**
  *   Implements an inverted index as a Hashtable from words to PostingsLists.
+ *
+ *   Every word is numbered once by a TermDictionary, and the PostingsLists
+ *   are kept in an array indexed by these numbers.
  */
 public class HashedIndex implements Index {
 
 
-    /** The index as a hashtable. */
-    private HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
+    /** The words of the index, numbered 0, 1, 2, ... */
+    TermDictionary dictionary = new TermDictionary();
+
+    /** The PostingsList of every word, indexed by its number in the dictionary. */
+    private PostingsList[] index = new PostingsList[1024];
+
+    /** Number of postings entries in the index, for the IndexingMetrics. */
+    long postingsEntries = 0;
 
 
     /**
      *  Inserts this token in the hashtable.
      */
-    public void insert( String token, int docID, int offset ) {
+    public void insert( CharSequence token, int docID, int offset ) {
         //
         // YOUR CODE HERE
         //
-        PostingsList postingList = index.get(token);
+        if (postingsFor(token).insert(docID, offset)) {
+            postingsEntries++;
+        }
+    }
+
+
+    /**
+     *  Returns the PostingsList of this token, creating it if the token is new.
+     */
+    private PostingsList postingsFor( CharSequence token ) {
+        int termID = dictionary.add(token);
+        if (termID == index.length) {
+            index = Arrays.copyOf(index, 2 * termID);
+        }
+        PostingsList postingList = index[termID];
         if (postingList == null) {
             postingList = new PostingsList();
-            index.put(token, postingList);
+            index[termID] = postingList;
+        }
+        return postingList;
+    }
+
+
+    /** Number of distinct words in the index. */
+    int size() {
+        return dictionary.size();
+    }
+
+
+    /** The word with number <code>termID</code> in the dictionary. */
+    String term( int termID ) {
+        return dictionary.term(termID);
+    }
+
+
+    /** The postings of the word with number <code>termID</code>. */
+    PostingsList getPostings( int termID ) {
+        return index[termID];
+    }
+
+
+    /**
+     *  Appends the postings of <code>other</code> to this index, except
+     *  those of the documents in <code>deleted</code>, which are added to
+     *  <code>dropped</code>. All docIDs in <code>other</code> must be larger
+     *  than the ones in this index, so that the postings lists stay sorted.
+     */
+    void append( HashedIndex other, Set<Integer> deleted, Set<Integer> dropped ) {
+        for (int termID = 0; termID < other.size(); termID++) {
+            PostingsList postingList = null;
+            PostingsList otherList = other.getPostings(termID);
+            for (int i = 0; i < otherList.size(); i++) {
+                PostingsEntry entry = otherList.get(i);
+                if (deleted.contains(entry.docID)) {
+                    dropped.add(entry.docID);
+                    continue;
+                }
+                if (postingList == null) {
+                    // Words that only occur in deleted documents are left out
+                    postingList = postingsFor(other.term(termID));
+                }
+                for (int pos: entry.positions) {
+                    if (postingList.insert(entry.docID, pos)) {
+                        postingsEntries++;
+                    }
+                }
+            }
         }
-        postingList.insert(docID, offset);
     }
 
 
@@ -46,7 +118,23 @@ public class HashedIndex implements Index {
         //
         // REPLACE THE STATEMENT BELOW WITH YOUR CODE
         //
-        return index.get(token);
+        SearchEvents.PostingsReadEvent event = new SearchEvents.PostingsReadEvent();
+        event.begin();
+        QueryTrace trace = QueryTrace.current();
+        long time = trace == null ? 0 : System.nanoTime();
+        int termID = dictionary.get(token);
+        if (trace != null) {
+            trace.lap(QueryTrace.Stage.LOOKUP, time);
+        }
+        PostingsList postings = termID < 0 ? null : index[termID];
+        event.end();
+        if (event.shouldCommit()) {
+            event.term = token;
+            event.entries = postings == null ? 0 : postings.size();
+            event.cacheHit = true;
+            event.commit();
+        }
+        return postings;
     }
 
 
@@ -58,4 +146,32 @@ public class HashedIndex implements Index {
 
     public void init() {
     }
+
+    /**
+     *  A HashedIndex is not changed once it is searched (it is either built
+     *  before the first query, or is a published segment of a SegmentedIndex),
+     *  so it is its own snapshot.
+     */
+    public Index snapshot() {
+        return this;
+    }
+
+
+    public long generation() {
+        return 0;
+    }
+
+
+    public List<String> terms() {
+        return dictionary.terms();
+    }
+
+
+    public int[] documentFrequencies() {
+        int[] dfs = new int[dictionary.size()];
+        for (int termID = 0; termID < dfs.length; termID++) {
+            dfs[termID] = index[termID].size();
+        }
+        return dfs;
+    }
 }
@@ -9,6 +9,8 @@ package ir;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *  Defines some common data structures and methods that all types of
@@ -16,14 +18,20 @@ import java.util.Iterator;
  */
 public interface Index {
 
-    /** Mapping from document identifiers to document names. */
-    public HashMap<Integer,String> docNames = new HashMap<Integer,String>();
+    /**
+     *  Mapping from document identifiers to document names. The document
+     *  maps can be read while documents are being added (see LiveIndexer).
+     */
+    public ConcurrentHashMap<Integer,String> docNames = new ConcurrentHashMap<Integer,String>();
     
     /** Mapping from document identifier to document length. */
-    public HashMap<Integer,Integer> docLengths = new HashMap<Integer,Integer>();
+    public ConcurrentHashMap<Integer,Integer> docLengths = new ConcurrentHashMap<Integer,Integer>();
 
-    /** Inserts a token into the index. */
-    public void insert( String token, int docID, int offset );
+    /**
+     *  Inserts a token into the index. The token may be a view that the
+     *  caller reuses for the next token, so it must be copied if it is kept.
+     */
+    public void insert( CharSequence token, int docID, int offset );
 
     /** Returns the postings for a given term. */
     public PostingsList getPostings( String token );
@@ -31,9 +39,34 @@ public interface Index {
     /** This method is called on exit. */
     public void cleanup();
 
-    public HashMap<Integer, Double> docSqrEuclLengths = new HashMap<Integer, Double>();
+    public ConcurrentHashMap<Integer, Double> docSqrEuclLengths = new ConcurrentHashMap<Integer, Double>();
 
     public void init();
 
+    /**
+     *  Returns a view of the index as it is now, which does not change when
+     *  documents are added later. Any number of threads can search a snapshot.
+     */
+    public Index snapshot();
+
+    /**
+     *  Returns a number that grows every time documents are added to or
+     *  removed from what searches see, so that results computed on an
+     *  older snapshot can be recognized (see ResultCache).
+     */
+    public long generation();
+
+    /**
+     *  Returns the distinct words of the index, e.g. to build the k-gram
+     *  index from (see KGramIndex.build).
+     */
+    public List<String> terms();
+
+    /**
+     *  Returns the number of documents every word of terms() occurs in, in
+     *  the same order.
+     */
+    public int[] documentFrequencies();
+
 }
 
@@ -10,6 +10,9 @@ package ir;
 import java.io.*;
 import java.util.*;
 import java.nio.charset.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 
 /**
@@ -20,15 +23,22 @@ public class Indexer {
     /** The index to be built up by this Indexer. */
     Index index;
 
-    /** K-gram index to be built up by this Indexer */
+    /** K-gram index to be built up by this Indexer, once all documents are indexed */
     KGramIndex kgIndex;
 
+    /** The pairs of consecutive words that are indexed, or null for none. */
+    BiwordIndex biwords;
+
     /** The next docID to be generated. */
     private int lastDocID = 0;
 
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
     String patterns_file;
 
+    /** One Tokenizer per thread, reset and reused for every file. */
+    private final ThreadLocal<Tokenizer> tokenizers =
+        ThreadLocal.withInitial( () -> new Tokenizer( true, false, true, patterns_file ));
+
 
     /* ----------------------------------------------- */
 
@@ -68,19 +78,10 @@ public class Indexer {
                     // First register the document and get a docID
                     int docID = generateDocID();
                     if ( docID%1000 == 0 ) System.err.println( "Indexed " + docID + " files" );
-                    try {
-                        Reader reader = new InputStreamReader( new FileInputStream(f), StandardCharsets.UTF_8 );
-                        Tokenizer tok = new Tokenizer( reader, true, false, true, patterns_file );
-                        int offset = 0;
-                        while ( tok.hasMoreTokens() ) {
-                            String token = tok.nextToken();
-                            insertIntoIndex( docID, token, offset++ );
-                        }
+                    int length = indexFile( f, docID );
+                    if ( length >= 0 ) {
                         index.docNames.put( docID, f.getPath() );
-                        index.docLengths.put( docID, offset );
-                        reader.close();
-                    } catch ( IOException e ) {
-                        System.err.println( "Warning: IOException during indexing." );
+                        index.docLengths.put( docID, length );
                     }
                 }
             }
@@ -88,16 +89,100 @@ public class Indexer {
     }
 
 
+    /**
+     *  Tokenizes and indexes the (non-directory) file <code>f</code> as
+     *  document <code>docID</code>, without registering its name and length.
+     *
+     *  @return The number of tokens in the file, or -1 if it could not be read.
+     */
+    public int indexFile( File f, int docID ) {
+        // The file is memory-mapped and its UTF-8 bytes are decoded
+        // directly into the tokenizer's buffer.
+        long startTime = System.nanoTime();
+        try ( FileChannel channel = FileChannel.open( f.toPath(), StandardOpenOption.READ )) {
+            Tokenizer tok = tokenizers.get();
+            MappedByteBuffer bytes = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            // Fault the pages in now, so that the time of reading the file is not counted as tokenization
+            bytes.load();
+            long readTime = System.nanoTime();
+            tok.reset( bytes );
+            // Insertion is only timed for every INSERT_SAMPLE:th token
+            long[] insertTime = new long[1];
+            int tokens = tok.tokenize( new Tokenizer.TokenSink() {
+                int offset = 0;
+                // The previous token and the key of a pair, reused for every token
+                StringBuilder previous = new StringBuilder();
+                StringBuilder key = new StringBuilder();
+                public void token( CharSequence token ) {
+                    if (( offset & ( IndexingMetrics.INSERT_SAMPLE - 1 )) == 0 ) {
+                        long t = System.nanoTime();
+                        insert( token );
+                        insertTime[0] += System.nanoTime() - t;
+                    } else {
+                        insert( token );
+                    }
+                }
+                private void insert( CharSequence token ) {
+                    insertIntoIndex( docID, token, offset );
+                    if ( biwords != null ) {
+                        insertBiword( docID, previous, key, token, offset );
+                    }
+                    offset++;
+                }
+            });
+            long sampled = ( tokens + IndexingMetrics.INSERT_SAMPLE - 1 ) / IndexingMetrics.INSERT_SAMPLE;
+            IndexingMetrics.get().document( channel.size(), tokens, readTime - startTime, System.nanoTime() - readTime,
+                                            sampled == 0 ? 0 : insertTime[0] * tokens / sampled );
+            return tokens;
+        } catch ( IOException e ) {
+            System.err.println( "Warning: IOException during indexing." );
+            return -1;
+        }
+    }
+
+
     /* ----------------------------------------------- */
 
 
     /**
-     *  Indexes one token.
+     *  Indexes one token. The token may be the tokenizer's reusable view.
      */
-    public void insertIntoIndex( int docID, String token, int offset ) {
+    public void insertIntoIndex( int docID, CharSequence token, int offset ) {
         index.insert( token, docID, offset );
-        if (kgIndex != null)
-            kgIndex.insert(token);
+    }
+
+
+    /**
+     *  Builds the k-gram index from the distinct words of the index, which
+     *  is much faster than adding the k-grams of every token. Must be called
+     *  when the index has been built or loaded.
+     */
+    public void buildKGramIndex() {
+        if ( kgIndex == null ) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        kgIndex.build( index.terms(), index.documentFrequencies() );
+        System.err.println( "Built the " + kgIndex.getK() + "-gram index of " + kgIndex.size() + " words in " +
+                            ( System.currentTimeMillis() - startTime ) + " ms" );
+    }
+
+
+    /**
+     *  Indexes the pair of <code>previous</code> (empty before the first
+     *  token) and <code>token</code> at the offset of <code>previous</code>,
+     *  if it is one of the indexed pairs, and copies the token to
+     *  <code>previous</code> for the next one. <code>key</code> is reused for
+     *  the key of the pair, so nothing is allocated for the token.
+     */
+    void insertBiword( int docID, StringBuilder previous, StringBuilder key, CharSequence token, int offset ) {
+        if ( previous.length() > 0 && biwords.indexes( previous, token )) {
+            key.setLength( 0 );
+            key.append( previous ).append( BiwordIndex.SEPARATOR ).append( token );
+            index.insert( key, docID, offset - 1 );
+        }
+        previous.setLength( 0 );
+        previous.append( token );
     }
 }
 
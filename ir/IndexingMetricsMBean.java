@@ -0,0 +1,43 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+
+/**
+ *   The indexing metrics that are shown over JMX (e.g. in JConsole or
+ *   VisualVM, under ir:type=IndexingMetrics). See IndexingMetrics.
+ */
+public interface IndexingMetricsMBean {
+
+    /** Number of documents, bytes and tokens indexed. */
+    long getDocuments();
+    long getBytes();
+    long getTokens();
+
+    /** Throughput since indexing started. */
+    double getDocumentsPerSecond();
+    double getBytesPerSecond();
+    double getTokensPerSecond();
+
+    /** Time spent reading files, tokenizing, inserting into the index and writing the index to disk. */
+    long getReadMillis();
+    long getTokenizeMillis();
+    long getInsertMillis();
+    long getWriteMillis();
+
+    /** Seconds since indexing started, or that it took if it is done. */
+    double getElapsedSeconds();
+
+    /** Estimated heap used by the postings lists and the dictionary, and the heap used by the JVM. */
+    long getEstimatedPostingsBytes();
+    long getHeapUsedBytes();
+
+    /** Number of terms, and the number of hash table slots probed per lookup while indexing. */
+    int getDictionarySize();
+    long getDictionaryLookups();
+    double getDictionaryProbesPerLookup();
+    int getDictionaryMaxProbes();
+}
@@ -12,19 +12,47 @@ import java.util.*;
 import java.nio.charset.StandardCharsets;
 
 
+/**
+ *   An index from k-grams to the words that contain them, for wildcard
+ *   queries and spelling correction.
+ *
+ *   The index is built once from the distinct words of the index (see
+ *   {@link #build}), not from every token. The words are sorted, and a
+ *   word's ID is its number in that order. The k-grams of a word include
+ *   its start and end, marked with START and END, so "cat" has the 2-grams
+ *   "^c", "ca", "at" and "t$". The postings of a k-gram are a sorted int
+ *   array of the IDs of the words that contain it, and intersections gallop
+ *   through the longer array. The number of distinct k-grams of every word
+ *   is kept for the Jaccard coefficient.
+ */
 public class KGramIndex {
 
-    /** Mapping from term ids to actual term strings */
-    HashMap<Integer,String> id2term = new HashMap<Integer,String>();
+    /** Marks the start and the end of a word. */
+    public final static char START = '^';
+    public final static char END = '$';
+
+    /** The k of the index built by the Engine. */
+    public final static int DEFAULT_K = 2;
+
+    /** Matches any number of letters in a wildcard term. */
+    public final static char WILDCARD = '*';
+
+    /** Max number of words a wildcard term is expanded into. */
+    public final static int MAX_EXPANSION = 1000;
+
+    private final static int[] EMPTY = new int[0];
+
+    /** The words, sorted. The ID of a word is its index in this array. */
+    String[] terms = new String[0];
 
-    /** Mapping from term strings to term ids */
-    HashMap<String,Integer> term2id = new HashMap<String,Integer>();
+    /** Number of distinct k-grams of every word, by ID. */
+    int[] numKGrams = EMPTY;
 
-    /** Index from k-grams to list of term ids that contain the k-gram */
-    HashMap<String,List<KGramPostingsEntry>> index = new HashMap<String,List<KGramPostingsEntry>>();
+    /** Number of documents every word occurs in, by ID. */
+    int[] dfs = EMPTY;
 
-    /** The ID of the last processed term */
-    int lastTermID = -1;
+    /** The IDs of the words that contain each k-gram, sorted. */
+    HashMap<String,int[]> index = new HashMap<String,int[]>();
 
     /** Number of symbols to form a K-gram */
     int K = 3;
@@ -37,50 +65,319 @@ public class KGramIndex {
         }
     }
 
-    /** Generate the ID for an unknown term */
-    private int generateTermID() {
-        return ++lastTermID;
-    }
-
     public int getK() {
         return K;
     }
 
+    /** Number of words in the index. */
+    public int size() {
+        return terms.length;
+    }
+
 
     /**
-     *  Get intersection of two postings lists
+     *  Builds the index from <code>words</code>, which must be distinct,
+     *  without document frequencies.
      */
-    private List<KGramPostingsEntry> intersect(List<KGramPostingsEntry> p1, List<KGramPostingsEntry> p2) {
-        // 
-        // YOUR CODE HERE
-        //
-        return null;
+    public void build(Collection<String> words) {
+        build(new ArrayList<String>(words), new int[words.size()]);
+    }
+
+
+    /**
+     *  Builds the index from <code>words</code>, which must be distinct, and
+     *  the number of documents they occur in (as given by Index.terms() and
+     *  Index.documentFrequencies()). The keys of pairs of words (see
+     *  BiwordIndex) are left out.
+     */
+    public void build(List<String> words, int[] documentFrequencies) {
+        String[] all = words.toArray(new String[0]);
+        ArrayList<Integer> order = new ArrayList<Integer>(all.length);
+        for (int i = 0; i < all.length; i++) {
+            if (!BiwordIndex.isBiword(all[i])) {
+                order.add(i);
+            }
+        }
+        order.sort((i, j) -> all[i].compareTo(all[j]));
+        terms = new String[order.size()];
+        dfs = new int[order.size()];
+        for (int i = 0; i < terms.length; i++) {
+            terms[i] = all[order.get(i)];
+            dfs[i] = documentFrequencies[order.get(i)];
+        }
+        numKGrams = new int[terms.length];
+
+        // The IDs are added in increasing order, so every array stays sorted
+        HashMap<String,IDs> postings = new HashMap<String,IDs>();
+        for (int termID = 0; termID < terms.length; termID++) {
+            for (String kgram : kgrams(terms[termID])) {
+                IDs ids = postings.get(kgram);
+                if (ids == null) {
+                    ids = new IDs();
+                    postings.put(kgram, ids);
+                } else if (ids.ids[ids.size - 1] == termID) {
+                    // The k-gram occurs more than once in the word
+                    continue;
+                }
+                ids.add(termID);
+                numKGrams[termID]++;
+            }
+        }
+        index = new HashMap<String,int[]>(2 * postings.size());
+        for (Map.Entry<String,IDs> entry : postings.entrySet()) {
+            IDs ids = entry.getValue();
+            index.put(entry.getKey(), Arrays.copyOf(ids.ids, ids.size));
+        }
     }
 
 
-    /** Inserts all k-grams from a token into the index. */
-    public void insert( String token ) {
-        //
-        // YOUR CODE HERE
-        //
+    /** A growing array of IDs, while the index is built. */
+    private static class IDs {
+        int[] ids = new int[4];
+        int size = 0;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+            }
+            ids[size++] = id;
+        }
+    }
+
+
+    /**
+     *  The k-grams of <code>word</code> with its start and end marked, in
+     *  order and with repetitions. A word of at most k - 2 letters has one
+     *  k-gram, the whole marked word.
+     */
+    public List<String> kgrams(String word) {
+        String marked = START + word + END;
+        if (marked.length() <= K) {
+            return Collections.singletonList(marked);
+        }
+        ArrayList<String> kgrams = new ArrayList<String>(marked.length() - K + 1);
+        for (int i = 0; i + K <= marked.length(); i++) {
+            kgrams.add(marked.substring(i, i + K));
+        }
+        return kgrams;
+    }
+
+
+    /** The sorted IDs of the words that contain <code>kgram</code>. */
+    public int[] getTermIDs(String kgram) {
+        int[] ids = index.get(kgram);
+        return ids == null ? EMPTY : ids;
+    }
+
+
+    /**
+     *  Get intersection of two sorted arrays of IDs. Every ID of the shorter
+     *  array is looked for in the longer one by galloping: doubling the step
+     *  from the last match until it is passed, and then a binary search. This
+     *  takes time proportional to the length of the shorter array times the
+     *  log of the distance between its IDs in the longer one.
+     */
+    public static int[] intersect(int[] p1, int[] p2) {
+        if (p1.length > p2.length) {
+            int[] tmp = p1;
+            p1 = p2;
+            p2 = tmp;
+        }
+        int[] result = new int[p1.length];
+        int n = 0;
+        int lo = 0;
+        for (int i = 0; i < p1.length && lo < p2.length; i++) {
+            int id = p1[i];
+            int step = 1;
+            int hi = lo;
+            while (hi < p2.length && p2[hi] < id) {
+                lo = hi + 1;
+                hi += step;
+                step *= 2;
+            }
+            int found = Arrays.binarySearch(p2, lo, Math.min(hi + 1, p2.length), id);
+            if (found >= 0) {
+                result[n++] = id;
+                lo = found + 1;
+            } else {
+                lo = -found - 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+
+    /**
+     *  Get intersection of two postings lists
+     */
+    private List<KGramPostingsEntry> intersect(List<KGramPostingsEntry> p1, List<KGramPostingsEntry> p2) {
+        return toPostings(intersect(toIDs(p1), toIDs(p2)));
     }
 
+
     /** Get postings for the given k-gram */
     public List<KGramPostingsEntry> getPostings(String kgram) {
-        //
-        // YOUR CODE HERE
-        //
-        return null;
+        int[] ids = index.get(kgram);
+        return ids == null ? null : toPostings(ids);
+    }
+
+
+    private static List<KGramPostingsEntry> toPostings(int[] ids) {
+        ArrayList<KGramPostingsEntry> postings = new ArrayList<KGramPostingsEntry>(ids.length);
+        for (int id : ids) {
+            postings.add(new KGramPostingsEntry(id));
+        }
+        return postings;
+    }
+
+
+    private static int[] toIDs(List<KGramPostingsEntry> postings) {
+        int[] ids = new int[postings.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = postings.get(i).tokenID;
+        }
+        return ids;
+    }
+
+
+    /**
+     *  The IDs of the words that match <code>pattern</code>, in which
+     *  WILDCARD matches any number of letters, e.g. "univ*" or "c*nia".
+     *  At most <code>max</code> IDs are returned, the first ones in sorted
+     *  order.
+     *
+     *  The words that start with the part of the pattern before the first
+     *  WILDCARD are a range of IDs, since the words are sorted. The words
+     *  in that range that have all the k-grams of the rest of the pattern
+     *  (with its end marked) are the candidates, which are then matched
+     *  against the whole pattern, since the k-grams may be in another
+     *  order or overlap a WILDCARD.
+     */
+    public int[] expand(String pattern, int max) {
+        int star = pattern.indexOf(WILDCARD);
+        if (star < 0) {
+            Integer id = getIDByTerm(pattern);
+            return id == null ? EMPTY : new int[] { id };
+        }
+        String prefix = pattern.substring(0, star);
+        int from = lowerBound(prefix);
+        int to = lowerBound(prefix + Character.MAX_VALUE);
+
+        // The k-grams of the parts after the first wildcard, rarest first
+        ArrayList<int[]> postings = new ArrayList<int[]>();
+        String[] parts = (pattern.substring(star + 1) + END).split("\\" + WILDCARD);
+        for (String part : parts) {
+            for (int i = 0; i + K <= part.length(); i++) {
+                postings.add(getTermIDs(part.substring(i, i + K)));
+            }
+        }
+        postings.sort((p1, p2) -> Integer.compare(p1.length, p2.length));
+
+        int[] result = new int[Math.min(max, to - from)];
+        int n = 0;
+        if (postings.isEmpty()) {
+            for (int id = from; id < to && n < result.length; id++) {
+                if (matches(pattern, terms[id])) {
+                    result[n++] = id;
+                }
+            }
+        } else {
+            int[] candidates = postings.get(0);
+            for (int i = 1; i < postings.size() && candidates.length > 0; i++) {
+                candidates = intersect(candidates, postings.get(i));
+            }
+            int i = lowerBound(candidates, from);
+            for (; i < candidates.length && candidates[i] < to && n < result.length; i++) {
+                if (matches(pattern, terms[candidates[i]])) {
+                    result[n++] = candidates[i];
+                }
+            }
+        }
+        return Arrays.copyOf(result, n);
     }
 
-    /** Get id of a term */
+
+    /** The ID of the first word that is not smaller than <code>word</code>. */
+    private int lowerBound(String word) {
+        int i = Arrays.binarySearch(terms, word);
+        return i >= 0 ? i : -i - 1;
+    }
+
+
+    /** The index of the first ID in <code>ids</code> that is not smaller than <code>id</code>. */
+    private static int lowerBound(int[] ids, int id) {
+        int i = Arrays.binarySearch(ids, id);
+        return i >= 0 ? i : -i - 1;
+    }
+
+
+    /**
+     *  True if <code>word</code> matches <code>pattern</code>, in which
+     *  WILDCARD matches any number of letters. When a letter does not match,
+     *  only the last WILDCARD is made to match one more letter, which takes
+     *  time proportional to the length of the word times the number of
+     *  WILDCARDs at most.
+     */
+    static boolean matches(String pattern, String word) {
+        int p = 0, w = 0;
+        int star = -1, starW = 0;
+        while (w < word.length()) {
+            if (p < pattern.length() && pattern.charAt(p) == WILDCARD) {
+                star = p++;
+                starW = w;
+            } else if (p < pattern.length() && pattern.charAt(p) == word.charAt(w)) {
+                p++;
+                w++;
+            } else if (star >= 0) {
+                p = star + 1;
+                w = ++starW;
+            } else {
+                return false;
+            }
+        }
+        while (p < pattern.length() && pattern.charAt(p) == WILDCARD) {
+            p++;
+        }
+        return p == pattern.length();
+    }
+
+
+    /**
+     *  Estimated bytes taken by the postings, the k-grams and the counts of
+     *  the words (not by the words themselves): an array header of 16 bytes
+     *  per postings list, and about 80 bytes per k-gram for its String and
+     *  its entry in the HashMap.
+     */
+    public long bytes() {
+        long bytes = 8L * terms.length;
+        for (int[] ids : index.values()) {
+            bytes += 16 + 4L * ids.length + 80;
+        }
+        return bytes;
+    }
+
+
+    /** Number of documents the word with ID <code>termID</code> occurs in. */
+    public int df(int termID) {
+        return dfs[termID];
+    }
+
+
+    /** Number of distinct k-grams of the word with ID <code>termID</code>. */
+    public int numKGrams(int termID) {
+        return numKGrams[termID];
+    }
+
+
+    /** Get id of a term, or null if it is not in the index */
     public Integer getIDByTerm(String term) {
-        return term2id.get(term);
+        int id = Arrays.binarySearch(terms, term);
+        return id < 0 ? null : id;
     }
 
     /** Get a term by the given id */
     public String getTermByID(Integer id) {
-        return id2term.get(id);
+        return terms[id];
     }
 
     private static HashMap<String,String> decodeArgs( String[] args ) {
@@ -124,10 +421,11 @@ public class KGramIndex {
         File f = new File(args.get("file"));
         Reader reader = new InputStreamReader( new FileInputStream(f), StandardCharsets.UTF_8 );
         Tokenizer tok = new Tokenizer( reader, true, false, true, args.get("patterns_file") );
+        HashSet<String> words = new HashSet<String>();
         while ( tok.hasMoreTokens() ) {
-            String token = tok.nextToken();
-            kgIndex.insert(token);
+            words.add(tok.nextToken());
         }
+        kgIndex.build(words);
 
         String[] kgrams = args.get("kgram").split(" ");
         List<KGramPostingsEntry> postings = null;
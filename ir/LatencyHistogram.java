@@ -0,0 +1,124 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ *   A histogram of latencies in nanoseconds that any number of threads can
+ *   record into without locking.
+ *
+ *   Every power of two is split into SUB_BUCKETS buckets, so a percentile
+ *   is reported as the upper bound of its bucket, which is at most 1/8
+ *   (12.5%) larger than the true value.
+ */
+public class LatencyHistogram {
+
+    /** log2 of the number of buckets per power of two. */
+    final static int SUB_BITS = 3;
+    final static int SUB_BUCKETS = 1 << SUB_BITS;
+
+    AtomicLongArray counts = new AtomicLongArray( 64 * SUB_BUCKETS );
+    LongAdder count = new LongAdder();
+    LongAdder total = new LongAdder();
+    AtomicLong max = new AtomicLong();
+
+
+    /** Records one latency of <code>nanos</code> nanoseconds. */
+    public void record( long nanos ) {
+        nanos = Math.max( 0, nanos );
+        counts.incrementAndGet( bucket( nanos ));
+        count.increment();
+        total.add( nanos );
+        max.accumulateAndGet( nanos, Math::max );
+    }
+
+
+    /** The bucket of a latency. */
+    static int bucket( long nanos ) {
+        if ( nanos < SUB_BUCKETS ) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros( nanos );
+        int sub = (int) ( nanos >>> ( exponent - SUB_BITS )) & ( SUB_BUCKETS - 1 );
+        return ( exponent - SUB_BITS + 1 ) * SUB_BUCKETS + sub;
+    }
+
+
+    /** The largest latency that falls into <code>bucket</code>. */
+    static long upperBound( int bucket ) {
+        if ( bucket < SUB_BUCKETS ) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return (( (long) SUB_BUCKETS + sub + 1 ) << ( exponent - SUB_BITS )) - 1;
+    }
+
+
+    /** Number of recorded latencies. */
+    public long count() {
+        return count.sum();
+    }
+
+
+    /** Mean latency in nanoseconds, or 0 if nothing has been recorded. */
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) total.sum() / n;
+    }
+
+
+    /** The largest recorded latency in nanoseconds. */
+    public long max() {
+        return max.get();
+    }
+
+
+    /**
+     *  The latency in nanoseconds that <code>p</code> percent of the
+     *  recorded latencies do not exceed (approximately, see above).
+     */
+    public long percentile( double p ) {
+        long n = 0;
+        for ( int i=0; i<counts.length(); i++ ) {
+            n += counts.get( i );
+        }
+        long rank = (long) Math.ceil( n * p / 100 );
+        long seen = 0;
+        for ( int i=0; i<counts.length(); i++ ) {
+            seen += counts.get( i );
+            if ( seen >= rank && seen > 0 ) {
+                return Math.min( upperBound( i ), max() );
+            }
+        }
+        return 0;
+    }
+
+
+    /** Forgets all recorded latencies. */
+    public void reset() {
+        for ( int i=0; i<counts.length(); i++ ) {
+            counts.set( i, 0 );
+        }
+        count.reset();
+        total.reset();
+        max.set( 0 );
+    }
+
+
+    /**
+     *  A one-line summary in milliseconds, e.g.
+     *  "n=120 mean=1.2 p50=0.9 p95=3.1 p99=7.0 max=9.4".
+     */
+    public String summary() {
+        return String.format( "n=%d mean=%.2f p50=%.2f p95=%.2f p99=%.2f max=%.2f ms", count(), mean() / 1e6,
+                              percentile( 50 ) / 1e6, percentile( 95 ) / 1e6, percentile( 99 ) / 1e6, max() / 1e6 );
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.File;
+
+
+/**
+ *   A directed link graph between pages, as used by the HITSRanker.
+ *
+ *   The node ids of the links file are renumbered densely, so that the
+ *   nodes of the graph are 0..numberOfNodes()-1. Adjacency lists are read
+ *   into a caller-supplied buffer that must have room for maxDegree() links.
+ */
+public abstract class LinkGraph {
+
+    /** Number of nodes in the graph. */
+    public abstract int numberOfNodes();
+
+    /** The largest number of in-links or out-links of any node. */
+    public abstract int maxDegree();
+
+    /** The node id used in the links file for <code>node</code>. */
+    public abstract int nodeId( int node );
+
+    /** The node with the given page title, or -1 if there is none. */
+    public abstract int node( String title );
+
+    /** The page title of <code>node</code>, or null if it has none. */
+    public abstract String title( int node );
+
+    /** Copies the out-links of <code>node</code> into <code>buf</code> and returns how many there are. */
+    public abstract int outLinks( int node, int[] buf );
+
+    /** Copies the in-links of <code>node</code> into <code>buf</code> and returns how many there are. */
+    public abstract int inLinks( int node, int[] buf );
+
+
+    /**
+     *  Opens the graph described by the given links and titles files.
+     *  If a binary graph file (see MappedLinkGraph) that is newer than both
+     *  text files exists next to the links file, it is memory-mapped instead
+     *  of parsing the text files.
+     */
+    public static LinkGraph open( String linksFilename, String titlesFilename ) {
+        File links = new File( linksFilename );
+        File titles = new File( titlesFilename );
+        File binary = new File( MappedLinkGraph.binaryFileName( linksFilename ));
+        if ( binary.exists() && binary.lastModified() >= links.lastModified() && binary.lastModified() >= titles.lastModified() ) {
+            try {
+                return new MappedLinkGraph( binary.getPath() );
+            } catch ( Exception e ) {
+                System.err.println( "Could not map " + binary.getPath() + ", reading the text files instead" );
+            }
+        }
+        return new ArrayLinkGraph( linksFilename, titlesFilename );
+    }
+}
@@ -0,0 +1,344 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ *   Indexes documents that are added, changed or deleted while the engine
+ *   is running.
+ *
+ *   Files are reported either by a WatchService on the indexed directories
+ *   or by calling {@link #add} and {@link #remove}. They are collected, and
+ *   once every refresh interval the collected files are indexed into a new
+ *   in-memory segment of the SegmentedIndex. The segment is built without
+ *   holding any lock that queries need; queries search a snapshot of the
+ *   index and only see the new segment once it has been published. The
+ *   index lock is only held by writers.
+ *
+ *   A changed file gets a new docID, and its old docID is deleted from the
+ *   index. The Euclidean lengths of new documents are computed with the
+ *   document frequencies of their own segment, so they are approximate
+ *   until the index is rebuilt. The k-gram index is not updated.
+ */
+public class LiveIndexer {
+
+    /** Default time between two refreshes, in milliseconds. */
+    public final static long REFRESH_INTERVAL = 1000;
+
+    /** Number of in-memory segments of about the same size that are merged into one. */
+    public final static int MERGE_FACTOR = 4;
+
+    /** The index that new documents are added to. */
+    SegmentedIndex index;
+
+    /** Held by every writer of the index while it registers new documents. */
+    Object indexLock;
+
+    /** The patterns matching non-standard words (e-mail addresses, etc.) */
+    String patterns_file;
+
+    /** Time between two refreshes, in milliseconds. */
+    long refreshInterval;
+
+    /** The docID of every indexed file, by path. Only used by the refresh thread. */
+    HashMap<String,Integer> docIDs = new HashMap<String,Integer>();
+
+    /** The next docID to be generated. */
+    int nextDocID = 0;
+
+    /** Files that have been added, changed or deleted since the last refresh. */
+    private final LinkedHashSet<File> pending = new LinkedHashSet<File>();
+
+    /** When the last refresh started, for rescanning after lost watch events. */
+    private volatile long lastRefresh = System.currentTimeMillis();
+
+    /** The watched directories. */
+    WatchService watcher;
+    HashMap<WatchKey,Path> watchedDirs = new HashMap<WatchKey,Path>();
+
+    /**
+     *  The deleted documents that were dropped from the segments at the last
+     *  refresh. Their lengths are removed at the next one.
+     */
+    private HashSet<Integer> dropped = new HashSet<Integer>();
+
+    /** The pairs of consecutive words that are indexed, as in the base index. */
+    BiwordIndex biwords;
+
+    /** Runs refresh() once every refresh interval. */
+    ScheduledExecutorService scheduler;
+
+
+    /* ----------------------------------------------- */
+
+
+    public LiveIndexer( SegmentedIndex index, Object indexLock, String patterns_file, long refreshInterval ) {
+        this.index = index;
+        this.indexLock = indexLock;
+        this.patterns_file = patterns_file;
+        this.refreshInterval = refreshInterval;
+    }
+
+
+    /**
+     *  Starts watching the given directories and refreshing the index.
+     *  Must be called when the documents that are already indexed have
+     *  been registered in Index.docNames.
+     */
+    public void start( ArrayList<String> dirNames ) {
+        synchronized ( indexLock ) {
+            for ( Map.Entry<Integer,String> entry : Index.docNames.entrySet() ) {
+                docIDs.put( entry.getValue(), entry.getKey() );
+                nextDocID = Math.max( nextDocID, entry.getKey() + 1 );
+            }
+        }
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            for ( String dirName : dirNames ) {
+                register( Paths.get( dirName ), false );
+            }
+            Thread thread = new Thread( this::watch, "live-watcher" );
+            thread.setDaemon( true );
+            thread.start();
+        } catch ( IOException e ) {
+            System.err.println( "Could not watch the indexed directories, new files must be added explicitly" );
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread thread = new Thread( r, "live-refresh" );
+            thread.setDaemon( true );
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay( this::refresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS );
+        System.err.println( "Watching " + watchedDirs.size() + " directories, refreshing every " + refreshInterval + " ms" );
+    }
+
+
+    /**
+     *  Adds the file (or all files in the directory) <code>f</code> to the
+     *  index, or updates it if it is already indexed. It becomes searchable
+     *  at the next refresh.
+     */
+    public void add( File f ) {
+        if ( f.isDirectory() ) {
+            File[] files = f.listFiles();
+            if ( files != null ) {
+                for ( File file : files ) {
+                    add( file );
+                }
+            }
+        } else {
+            synchronized ( pending ) {
+                pending.add( f );
+            }
+        }
+    }
+
+
+    /**
+     *  Removes the file <code>f</code> from the index at the next refresh,
+     *  if it no longer exists.
+     */
+    public void remove( File f ) {
+        synchronized ( pending ) {
+            pending.add( f );
+        }
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Watches <code>dir</code> and all directories below it. If
+     *  <code>addFiles</code> is true, the files found are also added.
+     */
+    private void register( Path dir, boolean addFiles ) throws IOException {
+        Files.walkFileTree( dir, new SimpleFileVisitor<Path>() {
+            public FileVisitResult preVisitDirectory( Path d, BasicFileAttributes attrs ) throws IOException {
+                WatchKey key = d.register( watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                                           StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE );
+                watchedDirs.put( key, d );
+                return FileVisitResult.CONTINUE;
+            }
+            public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) {
+                if ( addFiles ) {
+                    add( file.toFile() );
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+
+    /**
+     *  Collects the files reported by the WatchService, until the engine exits.
+     */
+    private void watch() {
+        while ( true ) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch ( InterruptedException e ) {
+                return;
+            }
+            Path dir = watchedDirs.get( key );
+            for ( WatchEvent<?> event : key.pollEvents() ) {
+                if ( event.kind() == StandardWatchEventKinds.OVERFLOW ) {
+                    // Events were lost: look for everything changed since the last refresh
+                    for ( Path d : watchedDirs.values() ) {
+                        addChangedSince( d.toFile(), lastRefresh );
+                    }
+                    continue;
+                }
+                Path path = dir.resolve( (Path) event.context() );
+                if ( event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory( path )) {
+                    try {
+                        register( path, true );
+                    } catch ( IOException e ) {
+                        System.err.println( "Could not watch " + path );
+                    }
+                } else if ( !Files.isDirectory( path )) {
+                    add( path.toFile() );
+                }
+            }
+            if ( !key.reset() ) {
+                watchedDirs.remove( key );
+            }
+        }
+    }
+
+
+    /** Adds the files directly in <code>dir</code> that have been changed after <code>time</code>. */
+    private void addChangedSince( File dir, long time ) {
+        File[] files = dir.listFiles();
+        if ( files != null ) {
+            for ( File file : files ) {
+                if ( file.isFile() && file.lastModified() >= time ) {
+                    add( file );
+                }
+            }
+        }
+    }
+
+
+    /**
+     *  Indexes the files collected since the last refresh into a new segment
+     *  and makes it searchable.
+     */
+    void refresh() {
+        ArrayList<File> files;
+        synchronized ( pending ) {
+            if ( pending.isEmpty() ) {
+                return;
+            }
+            files = new ArrayList<File>( pending );
+            pending.clear();
+        }
+        SearchEvents.IndexCommitEvent event = new SearchEvents.IndexCommitEvent();
+        event.begin();
+        long startTime = System.currentTimeMillis();
+        lastRefresh = startTime;
+
+        // Build the segment while queries keep running against the old ones
+        HashedIndex segment = new HashedIndex();
+        Indexer indexer = new Indexer( segment, null, patterns_file );
+        indexer.biwords = biwords;
+        HashMap<Integer,String> newNames = new HashMap<Integer,String>();
+        HashMap<Integer,Integer> newLengths = new HashMap<Integer,Integer>();
+        ArrayList<Integer> deletedDocs = new ArrayList<Integer>();
+        for ( File f : files ) {
+            String path = f.getPath();
+            Integer oldDocID = docIDs.remove( path );
+            if ( oldDocID != null ) {
+                deletedDocs.add( oldDocID );
+            }
+            if ( f.isFile() && f.canRead() ) {
+                int docID = nextDocID++;
+                int length = indexer.indexFile( f, docID );
+                if ( length >= 0 ) {
+                    newNames.put( docID, path );
+                    newLengths.put( docID, length );
+                    docIDs.put( path, docID );
+                }
+            }
+        }
+        HashMap<Integer,Double> newEuclLengths = euclideanLengths( segment, newNames.size() );
+        HashSet<Integer> newDropped = new HashSet<Integer>();
+        ArrayList<HashedIndex> segments = index.segmentsWith( segment, MERGE_FACTOR, newDropped );
+
+        // The new documents are registered before they can be found, and the
+        // names of deleted documents are removed once they can no longer be
+        // found. Their lengths are kept until the refresh after the one that
+        // dropped their postings from the segments, since queries that
+        // started before that may still score them.
+        synchronized ( indexLock ) {
+            Index.docLengths.putAll( newLengths );
+            Index.docSqrEuclLengths.putAll( newEuclLengths );
+            Index.docNames.putAll( newNames );
+            index.publish( segments, deletedDocs, newDropped );
+            for ( int docID : deletedDocs ) {
+                Index.docNames.remove( docID );
+            }
+            for ( int docID : dropped ) {
+                Index.docLengths.remove( docID );
+                Index.docSqrEuclLengths.remove( docID );
+            }
+        }
+        dropped = newDropped;
+        System.err.println( "Refreshed the index with " + newNames.size() + " new and " + deletedDocs.size() +
+                            " deleted documents in " + ( System.currentTimeMillis() - startTime ) + " ms (" +
+                            segments.size() + " segments)" );
+        event.end();
+        if ( event.shouldCommit() ) {
+            event.kind = "refresh";
+            event.documents = newNames.size();
+            event.deleted = deletedDocs.size();
+            event.terms = segment.size();
+            event.segments = segments.size();
+            event.commit();
+        }
+    }
+
+
+    /**
+     *  The squared Euclidean lengths of the documents in <code>segment</code>,
+     *  computed as in PersistentHashedIndex but with the document frequencies
+     *  of the segment.
+     */
+    private HashMap<Integer,Double> euclideanLengths( HashedIndex segment, int newDocs ) {
+        HashMap<Integer,Double> lengths = new HashMap<Integer,Double>();
+        int numberOfDocs;
+        synchronized ( indexLock ) {
+            numberOfDocs = Index.docNames.size() + newDocs;
+        }
+        for ( int termID = 0; termID < segment.size(); termID++ ) {
+            if ( BiwordIndex.isBiword( segment.term( termID ))) {
+                continue;
+            }
+            PostingsList list = segment.getPostings( termID );
+            double idf = Math.log10( (double) numberOfDocs / list.size() );
+            for ( int i = 0; i < list.size(); i++ ) {
+                PostingsEntry entry = list.get( i );
+                double w = entry.positions.size() * idf;
+                lengths.merge( entry.docID, w * w, Double::sum );
+            }
+        }
+        return lengths;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+
+/**
+ *   A link graph stored in a compact binary file that is memory-mapped,
+ *   so that opening it costs (almost) nothing and the graph does not have
+ *   to fit on the heap.
+ *
+ *   Adjacency lists are sorted and gap-encoded (WebGraph-style): the first
+ *   link is stored as is, the following ones as the difference to the
+ *   previous link, all as variable-length integers with 7 bits per byte.
+ *   Titles are kept in an open-addressing hash table inside the file.
+ *
+ *   File layout (all ints are big-endian):
+ *    int MAGIC, int VERSION
+ *    int numberOfNodes, int numberOfLinks, int maxDegree, int tableSize
+ *    int[numberOfNodes]   node ids of the links file
+ *    int[numberOfNodes+1] byte offsets of the out-link lists
+ *    int[numberOfNodes+1] byte offsets of the in-link lists
+ *    int[numberOfNodes+1] byte offsets of the titles
+ *    int[tableSize]       title hash table (node+1, or 0 if the slot is empty)
+ *    out-link lists, in-link lists, UTF-8 encoded titles
+ *
+ *   Run as a program to convert the text files:
+ *    java ir.MappedLinkGraph linksFile titlesFile [binaryFile]
+ */
+public class MappedLinkGraph extends LinkGraph {
+
+    /** Identifies a binary graph file ("LNKG"). */
+    public static final int MAGIC = 0x4C4E4B47;
+
+    /** Version of the file layout. */
+    public static final int VERSION = 1;
+
+    /** Size of the header in bytes. */
+    static final int HEADER_SIZE = 24;
+
+    /** The mapped file. Only absolute get methods are used, so it can be shared between threads. */
+    MappedByteBuffer buf;
+
+    int numberOfNodes;
+    int numberOfLinks;
+    int maxDegree;
+    int tableSize;
+
+    /** Start of each section in the file */
+    int nodeIdsPos, outOffsetsPos, inOffsetsPos, titleOffsetsPos, tablePos;
+    int outListsPos, inListsPos, titlesPos;
+
+
+    /**
+     *  Maps the given binary graph file.
+     */
+    public MappedLinkGraph( String fileName ) throws IOException {
+        long startTime = System.currentTimeMillis();
+        try ( RandomAccessFile file = new RandomAccessFile( fileName, "r" )) {
+            buf = file.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, file.length() );
+        }
+        if ( buf.getInt( 0 ) != MAGIC || buf.getInt( 4 ) != VERSION ) {
+            throw new IOException( fileName + " is not a binary graph file of version " + VERSION );
+        }
+        numberOfNodes = buf.getInt( 8 );
+        numberOfLinks = buf.getInt( 12 );
+        maxDegree = buf.getInt( 16 );
+        tableSize = buf.getInt( 20 );
+        nodeIdsPos = HEADER_SIZE;
+        outOffsetsPos = nodeIdsPos + 4 * numberOfNodes;
+        inOffsetsPos = outOffsetsPos + 4 * ( numberOfNodes + 1 );
+        titleOffsetsPos = inOffsetsPos + 4 * ( numberOfNodes + 1 );
+        tablePos = titleOffsetsPos + 4 * ( numberOfNodes + 1 );
+        outListsPos = tablePos + 4 * tableSize;
+        inListsPos = outListsPos + buf.getInt( outOffsetsPos + 4 * numberOfNodes );
+        titlesPos = inListsPos + buf.getInt( inOffsetsPos + 4 * numberOfNodes );
+        System.err.println( "Mapped " + numberOfNodes + " nodes and " + numberOfLinks + " links from " + fileName +
+                            " in " + ( System.currentTimeMillis() - startTime ) + " ms" );
+    }
+
+
+    /**
+     *  The name of the binary file belonging to a links file,
+     *  e.g. "data/linksDavis.txt" -> "data/linksDavis.graph".
+     */
+    public static String binaryFileName( String linksFilename ) {
+        int dot = linksFilename.lastIndexOf( '.' );
+        int slash = Math.max( linksFilename.lastIndexOf( '/' ), linksFilename.lastIndexOf( '\\' ));
+        if ( dot > slash ) {
+            linksFilename = linksFilename.substring( 0, dot );
+        }
+        return linksFilename + ".graph";
+    }
+
+
+    /**
+     *  FNV-1a hash of a UTF-8 encoded title. It is part of the file format,
+     *  so it must not depend on the JVM.
+     */
+    static int hash( byte[] bytes ) {
+        int h = 0x811c9dc5;
+        for ( byte b : bytes ) {
+            h ^= ( b & 0xff );
+            h *= 0x01000193;
+        }
+        return h & 0x7fffffff;
+    }
+
+
+    public int numberOfNodes() {
+        return numberOfNodes;
+    }
+
+    public int maxDegree() {
+        return maxDegree;
+    }
+
+    public int nodeId( int node ) {
+        return buf.getInt( nodeIdsPos + 4 * node );
+    }
+
+    public int node( String title ) {
+        byte[] bytes = title.getBytes( StandardCharsets.UTF_8 );
+        int slot = hash( bytes ) & ( tableSize - 1 );
+        while ( true ) {
+            int node = buf.getInt( tablePos + 4 * slot ) - 1;
+            if ( node < 0 ) {
+                return -1;
+            }
+            if ( titleEquals( node, bytes )) {
+                return node;
+            }
+            slot = ( slot + 1 ) & ( tableSize - 1 );
+        }
+    }
+
+    private boolean titleEquals( int node, byte[] bytes ) {
+        int start = buf.getInt( titleOffsetsPos + 4 * node );
+        int end = buf.getInt( titleOffsetsPos + 4 * ( node + 1 ));
+        if ( end - start != bytes.length ) {
+            return false;
+        }
+        for ( int i = 0; i < bytes.length; i++ ) {
+            if ( buf.get( titlesPos + start + i ) != bytes[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String title( int node ) {
+        int start = buf.getInt( titleOffsetsPos + 4 * node );
+        int end = buf.getInt( titleOffsetsPos + 4 * ( node + 1 ));
+        if ( start == end ) {
+            return null;
+        }
+        byte[] bytes = new byte[end - start];
+        buf.get( titlesPos + start, bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    public int outLinks( int node, int[] links ) {
+        return decode( outListsPos + buf.getInt( outOffsetsPos + 4 * node ),
+                       outListsPos + buf.getInt( outOffsetsPos + 4 * ( node + 1 )), links );
+    }
+
+    public int inLinks( int node, int[] links ) {
+        return decode( inListsPos + buf.getInt( inOffsetsPos + 4 * node ),
+                       inListsPos + buf.getInt( inOffsetsPos + 4 * ( node + 1 )), links );
+    }
+
+
+    /**
+     *  Decodes the gap-encoded list stored in bytes [pos, end) into <code>links</code>.
+     */
+    private int decode( int pos, int end, int[] links ) {
+        int n = 0;
+        int last = 0;
+        while ( pos < end ) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf.get( pos++ );
+                value |= ( b & 0x7f ) << shift;
+                shift += 7;
+            } while ( b < 0 );
+            last += value;
+            links[n++] = last;
+        }
+        return n;
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Writes <code>graph</code> in the binary format to <code>fileName</code>.
+     */
+    public static void write( LinkGraph graph, String fileName ) throws IOException {
+        int n = graph.numberOfNodes();
+        int[] links = new int[Math.max( 1, graph.maxDegree() )];
+        ByteArrayOutputStream outLists = new ByteArrayOutputStream();
+        ByteArrayOutputStream inLists = new ByteArrayOutputStream();
+        ByteArrayOutputStream titles = new ByteArrayOutputStream();
+        int[] outOffsets = new int[n + 1];
+        int[] inOffsets = new int[n + 1];
+        int[] titleOffsets = new int[n + 1];
+        int numberOfTitles = 0;
+        int numberOfLinks = 0;
+        for ( int i = 0; i < n; i++ ) {
+            int degree = graph.outLinks( i, links );
+            numberOfLinks += degree;
+            encode( links, degree, outLists );
+            outOffsets[i + 1] = outLists.size();
+            degree = graph.inLinks( i, links );
+            encode( links, degree, inLists );
+            inOffsets[i + 1] = inLists.size();
+            String title = graph.title( i );
+            if ( title != null ) {
+                titles.write( title.getBytes( StandardCharsets.UTF_8 ));
+                numberOfTitles++;
+            }
+            titleOffsets[i + 1] = titles.size();
+        }
+
+        // Open addressing with linear probing, at most half full
+        int tableSize = Integer.highestOneBit( Math.max( 1, 2 * numberOfTitles - 1 )) << 1;
+        int[] table = new int[tableSize];
+        for ( int i = 0; i < n; i++ ) {
+            String title = graph.title( i );
+            if ( title != null ) {
+                int slot = hash( title.getBytes( StandardCharsets.UTF_8 )) & ( tableSize - 1 );
+                while ( table[slot] != 0 ) {
+                    slot = ( slot + 1 ) & ( tableSize - 1 );
+                }
+                table[slot] = i + 1;
+            }
+        }
+
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( fileName )))) {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( n );
+            out.writeInt( numberOfLinks );
+            out.writeInt( graph.maxDegree() );
+            out.writeInt( tableSize );
+            for ( int i = 0; i < n; i++ ) {
+                out.writeInt( graph.nodeId( i ));
+            }
+            for ( int[] array : new int[][] { outOffsets, inOffsets, titleOffsets, table } ) {
+                for ( int value : array ) {
+                    out.writeInt( value );
+                }
+            }
+            outLists.writeTo( out );
+            inLists.writeTo( out );
+            titles.writeTo( out );
+        }
+    }
+
+
+    /**
+     *  Sorts the first <code>n</code> links and writes them gap-encoded.
+     */
+    private static void encode( int[] links, int n, ByteArrayOutputStream out ) {
+        Arrays.sort( links, 0, n );
+        int last = 0;
+        for ( int i = 0; i < n; i++ ) {
+            int gap = links[i] - last;
+            last = links[i];
+            while (( gap & ~0x7f ) != 0 ) {
+                out.write(( gap & 0x7f ) | 0x80 );
+                gap >>>= 7;
+            }
+            out.write( gap );
+        }
+    }
+
+
+    public static void main( String[] args ) throws IOException {
+        if ( args.length < 2 ) {
+            System.err.println( "Please give the names of the link and title files (and optionally of the binary file)" );
+            return;
+        }
+        String fileName = args.length > 2 ? args[2] : binaryFileName( args[0] );
+        long startTime = System.currentTimeMillis();
+        write( new ArrayLinkGraph( args[0], args[1] ), fileName );
+        System.err.println( "Wrote " + fileName + " (" + new File( fileName ).length() + " bytes) in " +
+                            ( System.currentTimeMillis() - startTime ) + " ms" );
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+
+/**
+ *   The regular expressions for non-standard words, compiled together
+ *   with a cheap prefilter.
+ *
+ *   For every pattern, the regular expression is analyzed to find
+ *   character sets that any match must contain at least one character
+ *   from (e.g. '@' for e-mail addresses, or one of '.' and ',' for numbers
+ *   with punctuation). A token is scanned once to find out which ASCII
+ *   characters it contains, and only the patterns whose requirements are
+ *   all met are tried with the regular expression engine. Since plain
+ *   words contain no punctuation, most tokens skip all the patterns.
+ *
+ *   The patterns are still tried in file order, so the first pattern that
+ *   matches is the same one as without the prefilter.
+ */
+public class PatternSet {
+
+    /** The compiled patterns, in file order. */
+    final Pattern[] patterns;
+
+    /**
+     *  The requirements of every pattern, as pairs of 64-bit masks over the
+     *  ASCII characters (low = 0..63, high = 64..127). Pattern i can only
+     *  match a token containing at least one character of every set
+     *  requiredLow[i][j] / requiredHigh[i][j].
+     */
+    final long[][] requiredLow;
+    final long[][] requiredHigh;
+
+    /** The pattern sets read so far, so that every file is only compiled once per process. */
+    private static final HashMap<String,PatternSet> cache = new HashMap<String,PatternSet>();
+
+
+    public PatternSet( ArrayList<Pattern> patternList ) {
+        int n = patternList.size();
+        patterns = patternList.toArray( new Pattern[n] );
+        requiredLow = new long[n][];
+        requiredHigh = new long[n][];
+        for ( int i=0; i<n; i++ ) {
+            ArrayList<long[]> sets = new ArrayList<long[]>();
+            if ( patterns[i].flags() == 0 ) {
+                analyze( patterns[i].pattern(), sets );
+            }
+            requiredLow[i] = new long[sets.size()];
+            requiredHigh[i] = new long[sets.size()];
+            for ( int j=0; j<sets.size(); j++ ) {
+                requiredLow[i][j] = sets.get( j )[0];
+                requiredHigh[i][j] = sets.get( j )[1];
+            }
+        }
+    }
+
+
+    /**
+     *  Returns the patterns in <code>filename</code>. The file is read and
+     *  compiled the first time it is asked for, and shared after that.
+     *  PatternSets are immutable, so they can be shared between threads
+     *  (but each thread needs its own Matchers).
+     */
+    public static synchronized PatternSet forFile( String filename ) {
+        PatternSet set = cache.get( filename );
+        if ( set == null ) {
+            set = new PatternSet( readPatterns( filename ));
+            cache.put( filename, set );
+        }
+        return set;
+    }
+
+
+    /**
+     *  Read the patterns that match non-standard words
+     */
+    static ArrayList<Pattern> readPatterns( String filename ) {
+        ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+        String line = null;
+        try ( BufferedReader in = new BufferedReader( new FileReader( filename ))) {
+            while (( line = in.readLine()) != null ) {
+                line = line.trim();
+                if ( !line.startsWith( "//" ) && line.length() > 0 ) {
+                    patterns.add( Pattern.compile( line ));
+                }
+            }
+        }
+        catch ( IOException e ) {
+            System.err.println( "Warning: IOException reading the regular expressions from file" );
+        }
+        catch ( PatternSyntaxException e ) {
+            System.err.println( "ERROR: Malformed regular expression: " + line );
+        }
+        return patterns;
+    }
+
+
+    /** Number of patterns. */
+    public int size() {
+        return patterns.length;
+    }
+
+
+    /**
+     *  Computes the set of ASCII characters in buf[start..end) as two masks,
+     *  stored in mask[0] and mask[1].
+     */
+    static void characterMask( char[] buf, int start, int end, long[] mask ) {
+        long low = 0, high = 0;
+        for ( int i=start; i<end; i++ ) {
+            char c = buf[i];
+            if ( c < 64 ) {
+                low |= 1L << c;
+            } else if ( c < 128 ) {
+                high |= 1L << ( c - 64 );
+            }
+        }
+        mask[0] = low;
+        mask[1] = high;
+    }
+
+
+    /**
+     *  Returns false if pattern <code>i</code> cannot match a token whose
+     *  characters are given by the masks <code>low</code> and <code>high</code>.
+     */
+    boolean mayMatch( int i, long low, long high ) {
+        long[] rl = requiredLow[i], rh = requiredHigh[i];
+        for ( int j=0; j<rl.length; j++ ) {
+            if (( rl[j] & low ) == 0 && ( rh[j] & high ) == 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    /**
+     *  Collects the character sets that every match of <code>regex</code>
+     *  must contain a character from. The analysis is conservative: whatever
+     *  it does not understand (alternatives, negated classes, non-ASCII
+     *  characters, optional parts, ...) is simply not required.
+     */
+    static void analyze( String regex, ArrayList<long[]> required ) {
+        // The sets of every open group, and whether the group contains an alternative
+        ArrayList<ArrayList<long[]>> groups = new ArrayList<ArrayList<long[]>>();
+        ArrayList<Boolean> alternatives = new ArrayList<Boolean>();
+        groups.add( new ArrayList<long[]>() );
+        alternatives.add( false );
+        // The sets of the last atom, which a following quantifier applies to
+        ArrayList<long[]> last = null;
+        int i = 0;
+        int n = regex.length();
+        while ( i < n ) {
+            char c = regex.charAt( i );
+            ArrayList<long[]> atom = new ArrayList<long[]>();
+            ArrayList<long[]> current = groups.get( groups.size() - 1 );
+            if ( c == '(' ) {
+                boolean negative = regex.startsWith( "(?!", i ) || regex.startsWith( "(?<!", i );
+                if ( regex.startsWith( "(?<=", i ) || regex.startsWith( "(?<!", i )) {
+                    i += 4;
+                } else if ( regex.startsWith( "(?=", i ) || regex.startsWith( "(?!", i ) || regex.startsWith( "(?:", i )) {
+                    i += 3;
+                } else if ( regex.startsWith( "(?", i )) {
+                    // Flags or named groups: give up on the whole pattern
+                    required.clear();
+                    return;
+                } else {
+                    i++;
+                }
+                groups.add( new ArrayList<long[]>() );
+                alternatives.add( negative );
+                last = null;
+                continue;
+            } else if ( c == ')' ) {
+                if ( groups.size() == 1 ) {
+                    required.clear();
+                    return;
+                }
+                ArrayList<long[]> group = groups.remove( groups.size() - 1 );
+                if ( !alternatives.remove( alternatives.size() - 1 )) {
+                    atom = group;
+                }
+                i++;
+            } else if ( c == '|' ) {
+                alternatives.set( alternatives.size() - 1, true );
+                last = null;
+                i++;
+                continue;
+            } else if ( c == '[' ) {
+                int end = classEnd( regex, i );
+                if ( end < 0 ) {
+                    required.clear();
+                    return;
+                }
+                long[] set = classSet( regex, i + 1, end );
+                if ( set != null ) {
+                    atom.add( set );
+                }
+                i = end + 1;
+            } else if ( c == '\\' && i + 1 < n ) {
+                if ( "0123456789xuUpPcNkQ".indexOf( regex.charAt( i + 1 )) >= 0 ) {
+                    // Escapes longer than two characters: give up on the whole pattern
+                    required.clear();
+                    return;
+                }
+                long[] set = escapeSet( regex.charAt( i + 1 ));
+                if ( set != null ) {
+                    atom.add( set );
+                }
+                i += 2;
+            } else if ( c == '?' || c == '*' ) {
+                // The previous atom is optional
+                if ( last != null ) {
+                    current.subList( current.size() - last.size(), current.size() ).clear();
+                }
+                last = null;
+                i++;
+                if ( i < n && ( regex.charAt( i ) == '?' || regex.charAt( i ) == '+' )) i++;
+                continue;
+            } else if ( c == '+' ) {
+                last = null;
+                i++;
+                if ( i < n && ( regex.charAt( i ) == '?' || regex.charAt( i ) == '+' )) i++;
+                continue;
+            } else if ( c == '{' ) {
+                int end = regex.indexOf( '}', i );
+                if ( end < 0 ) {
+                    required.clear();
+                    return;
+                }
+                if ( last != null && regex.charAt( i + 1 ) == '0' ) {
+                    current.subList( current.size() - last.size(), current.size() ).clear();
+                }
+                last = null;
+                i = end + 1;
+                continue;
+            } else if ( c == '.' || c == '^' || c == '$' ) {
+                i++;
+            } else {
+                long[] set = charSet( c );
+                if ( set != null ) {
+                    atom.add( set );
+                }
+                i++;
+            }
+            groups.get( groups.size() - 1 ).addAll( atom );
+            last = atom;
+        }
+        if ( groups.size() != 1 || alternatives.get( 0 )) {
+            required.clear();
+            return;
+        }
+        required.addAll( groups.get( 0 ));
+    }
+
+
+    /** The set containing only <code>c</code>, or null if it is not ASCII. */
+    private static long[] charSet( char c ) {
+        if ( c >= 128 ) {
+            return null;
+        }
+        long[] set = new long[2];
+        addRange( set, c, c );
+        return set;
+    }
+
+
+    private static void addRange( long[] set, char from, char to ) {
+        for ( char c=from; c<=to; c++ ) {
+            if ( c < 64 ) {
+                set[0] |= 1L << c;
+            } else {
+                set[1] |= 1L << ( c - 64 );
+            }
+        }
+    }
+
+
+    /** The set matched by an escape sequence, or null if it is not a known ASCII set. */
+    private static long[] escapeSet( char c ) {
+        long[] set = new long[2];
+        switch ( c ) {
+        case 'd':
+            addRange( set, '0', '9' );
+            return set;
+        case 'w':
+            addRange( set, '0', '9' );
+            addRange( set, 'a', 'z' );
+            addRange( set, 'A', 'Z' );
+            addRange( set, '_', '_' );
+            return set;
+        default:
+            if ( !Character.isLetterOrDigit( c ) && c < 128 ) {
+                // An escaped literal, like \. or \$
+                return charSet( c );
+            }
+            // \b, \s, \S, \D, \W, back references, ...
+            return null;
+        }
+    }
+
+
+    /** The index of the ']' closing the class starting at <code>start</code>, or -1. */
+    private static int classEnd( String regex, int start ) {
+        int i = start + 1;
+        if ( i < regex.length() && regex.charAt( i ) == '^' ) i++;
+        if ( i < regex.length() && regex.charAt( i ) == ']' ) i++;
+        while ( i < regex.length() ) {
+            char c = regex.charAt( i );
+            if ( c == '\\' ) {
+                i += 2;
+            } else if ( c == '[' ) {
+                // Nested classes (unions, intersections) are not analyzed
+                return -1;
+            } else if ( c == ']' ) {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     *  The set of characters in the class regex[start..end), or null if it
+     *  is negated or may match non-ASCII characters.
+     */
+    private static long[] classSet( String regex, int start, int end ) {
+        if ( regex.charAt( start ) == '^' || regex.indexOf( "&&", start ) >= 0 && regex.indexOf( "&&", start ) < end ) {
+            return null;
+        }
+        long[] set = new long[2];
+        int i = start;
+        while ( i < end ) {
+            char c = regex.charAt( i );
+            if ( c == '\\' ) {
+                long[] escaped = escapeSet( regex.charAt( i + 1 ));
+                if ( escaped == null ) {
+                    return null;
+                }
+                set[0] |= escaped[0];
+                set[1] |= escaped[1];
+                i += 2;
+                continue;
+            }
+            if ( c >= 128 ) {
+                return null;
+            }
+            if ( i + 2 < end && regex.charAt( i + 1 ) == '-' && regex.charAt( i + 2 ) != '\\' ) {
+                char to = regex.charAt( i + 2 );
+                if ( to >= 128 || to < c ) {
+                    return null;
+                }
+                addRange( set, c, to );
+                i += 3;
+            } else {
+                addRange( set, c, c );
+                i++;
+            }
+        }
+        return set;
+    }
+}
@@ -9,6 +9,9 @@ package ir;
 
 import java.io.*;
 import java.util.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.*;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
@@ -21,9 +24,15 @@ import java.text.NumberFormat;
  *   stored in RandomAccessFiles that permit fast (almost constant-time)
  *   disk seeks. 
  *
- *   When words are read and indexed, they are first put in an ordinary,
- *   main-memory HashMap. When all words are read, the index is committed
- *   to disk.
+ *   When words are read and indexed, they are first numbered by a
+ *   TermDictionary, and their postings are kept in main memory in an array
+ *   indexed by these numbers. When all words are read, the index is
+ *   committed to disk, which is the only time the words are turned into
+ *   Strings.
+ *
+ *   The index is read with positional reads on the FileChannels of the
+ *   files, which do not use the shared file pointer, so any number of
+ *   threads can call getPostings at the same time.
  */
 public class PersistentHashedIndex implements Index {
 
@@ -42,55 +51,100 @@ public class PersistentHashedIndex implements Index {
     /** The doc info file name */
     public static final String DOCINFO_FNAME = "docInfo";
 
-    /** The dictionary hash table on disk can fit this many entries. */
+    /**
+     *  The dictionary hash table on disk has at least this many entries, and
+     *  more (about twice the number of words) when there are many words. Its
+     *  size is saved in a header entry at the start of the dictionary file.
+     *  Files without the header have exactly TABLESIZE entries.
+     */
     public static final long TABLESIZE = 611953L;
 
+    /** Marks the header entry of the dictionary file. */
+    public static final int DICT_MAGIC = 0x44494354;
+
+    /** Number of entries of the dictionary hash table. */
+    long tableSize = TABLESIZE;
+
+    /** Where the first entry of the dictionary hash table is in the file (after the header, if any). */
+    long tableStart = 0;
+
     /** The dictionary hash table is stored in this file. */
     RandomAccessFile dictionaryFile;
 
     /** The data (the PostingsLists) are stored in this file. */
     RandomAccessFile dataFile;
 
+    /** The channels of the two files, used for reading. */
+    FileChannel dictionaryChannel;
+    FileChannel dataChannel;
+
     /** Pointer to the first free memory cell in the data file. */
     long free = 0L;
 
-    /** The cache as a main-memory hash map. */
-    HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
+    /** The words read so far, numbered 0, 1, 2, ... */
+    TermDictionary dictionary = new TermDictionary();
+
+    /** The cache: the PostingsList of every word, indexed by its number in the dictionary. */
+    PostingsList[] index = new PostingsList[1024];
+
+    /** Number of postings entries in the cache, for the IndexingMetrics. */
+    long postingsEntries = 0;
+
+    /** Number of bytes of a data file entry read to compare its token. */
+    public static final int PROBE_SIZE = 256;
 
     /** size of an entry in the dictionary file */
     public static final int DICT_ENTRY_SIZE = 12;
     /** size of an entry in a posting list in the data file */
     // public static final int DATA_ENTRY_SIZE = 8;
 
-    String[] hashStrings = new String[(int) TABLESIZE];
+    /** The words in the slots of the hash table, while it is written. */
+    String[] hashStrings;
+
+    public int hash(String token) {
+        return (int) ((token.hashCode() % tableSize + tableSize) % tableSize);
+    }
 
     public int newHashKey(String token) {
-        int hash_val = (int) ((token.hashCode() % TABLESIZE + TABLESIZE) % TABLESIZE);
+        int hash_val = hash(token);
         while (hashStrings[hash_val] != null) {
-            hash_val = (int) ((hash_val + 1) % TABLESIZE);
+            hash_val = (int) ((hash_val + 1) % tableSize);
         }
         hashStrings[hash_val] = token;
         return hash_val;
     }
 
     public int getHashKey(String token) {
-        int hash_val = (int) ((token.hashCode() % TABLESIZE + TABLESIZE) % TABLESIZE);
+        int hash_val = hash(token);
         while (hashStrings[hash_val] != token) {
-            hash_val = (int) ((hash_val + 1) % TABLESIZE);
+            hash_val = (int) ((hash_val + 1) % tableSize);
         }
         return hash_val;
     }
 
     public int getCollisions(String token) {
-        int hash_val = (int) ((token.hashCode() % TABLESIZE + TABLESIZE) % TABLESIZE);
+        int hash_val = hash(token);
         int result = 0;
-        while (hashStrings[hash_val] != token && result < TABLESIZE) {
-            hash_val = (int) ((hash_val + 1) % TABLESIZE);
+        while (hashStrings[hash_val] != token && result < tableSize) {
+            hash_val = (int) ((hash_val + 1) % tableSize);
             result++;
         }
         return result;
     }
 
+    /**
+     *  The size of the hash table for <code>numberOfWords</code> words: the
+     *  smallest prime that is at least TABLESIZE and twice the number of
+     *  words, so that the table is at most half full.
+     */
+    static long tableSizeFor(int numberOfWords) {
+        long size = Math.max(TABLESIZE, 2L * numberOfWords + 1);
+        while (!BigInteger.valueOf(size).isProbablePrime(30)) {
+            size++;
+        }
+        return size;
+    }
+
     // ===================================================================
 
     /**
@@ -160,10 +214,13 @@ public class PersistentHashedIndex implements Index {
         try {
             dictionaryFile = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME, "rw" );
             dataFile = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME, "rw" );
+            dictionaryChannel = dictionaryFile.getChannel();
+            dataChannel = dataFile.getChannel();
         } catch ( IOException e ) {
             e.printStackTrace();
         }
 
+        readDictionaryHeader();
         try {
             readDocInfo();
         } catch ( FileNotFoundException e ) {
@@ -191,34 +248,30 @@ public class PersistentHashedIndex implements Index {
 
 
     /**
-     *  Reads data from the data file
+     *  Reads the entry of <code>size</code> bytes at <code>ptr</code> in the
+     *  data file: the token, a space and the postings.
      */ 
-    String readData( long ptr, int size ) {
+    byte[] readData( long ptr, int size ) {
         try {
-            String token = readToken(ptr);
-            byte[] data = new byte[size - token.length() - 1];
-            dataFile.readFully( data );
-            return new String(data);
+            ByteBuffer buf = ByteBuffer.allocate( size );
+            readFully( dataChannel, buf, ptr );
+            return buf.array();
         } catch ( IOException e ) {
             e.printStackTrace();
             return null;
         }
     }
 
-    /** Reads only the token from the data file */
-    String readToken(long ptr) {
-        try {
-            StringBuffer str = new StringBuffer();
-            dataFile.seek(ptr);
-            char ch = (char) dataFile.readByte();
-            while (ch != ' ') {
-                str.append(ch);
-                ch = (char) dataFile.readByte();
+
+    /**
+     *  Fills <code>buf</code> with the bytes at <code>ptr</code> in the file
+     *  of <code>channel</code>, without moving the file pointer.
+     */
+    static void readFully( FileChannel channel, ByteBuffer buf, long ptr ) throws IOException {
+        while ( buf.hasRemaining() ) {
+            if ( channel.read( buf, ptr + buf.position() ) < 0 ) {
+                throw new EOFException();
             }
-            return str.toString();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return null;
         }
     }
 
@@ -248,6 +301,26 @@ public class PersistentHashedIndex implements Index {
         }
     }
 
+    /**
+     *  Reads the size of the hash table from the header entry of the
+     *  dictionary file, if it has one.
+     */
+    private void readDictionaryHeader() {
+        try {
+            if ( dictionaryChannel == null || dictionaryChannel.size() < DICT_ENTRY_SIZE ) {
+                return;
+            }
+            ByteBuffer buf = ByteBuffer.allocate( DICT_ENTRY_SIZE );
+            readFully( dictionaryChannel, buf, 0 );
+            if ( buf.getInt( 8 ) == DICT_MAGIC ) {
+                tableSize = buf.getLong( 0 );
+                tableStart = DICT_ENTRY_SIZE;
+            }
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      *  Reads an entry from the dictionary file.
      *
@@ -258,12 +331,12 @@ public class PersistentHashedIndex implements Index {
         //  REPLACE THE STATEMENT BELOW WITH YOUR CODE 
         //
         try {
-            dictionaryFile.seek( ptr );
-            byte[] pos_byte = new byte[8];
-            byte[] size_byte = new byte[4];
-            dictionaryFile.readFully( pos_byte );
-            dictionaryFile.readFully( size_byte );
-            return new Entry(bytesToLong(pos_byte), bytesToInt(size_byte));
+            ByteBuffer buf = ByteBuffer.allocate( DICT_ENTRY_SIZE );
+            readFully( dictionaryChannel, buf, ptr );
+            return new Entry(buf.getLong(0), buf.getInt(8));
+        } catch ( EOFException e ) {
+            // Slots after the last one written are empty
+            return new Entry(0, 0);
         } catch ( IOException e ) {
             e.printStackTrace();
             return null;
@@ -310,6 +383,44 @@ public class PersistentHashedIndex implements Index {
     }
 
 
+    /**
+     *  Writes the words of the dictionary and their document frequencies to
+     *  the terms file, one word per line, so that they can be listed without
+     *  reading the whole data file.
+     */
+    private void writeTerms() throws IOException {
+        try ( Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( INDEXDIR + "/" + TERMS_FNAME ), StandardCharsets.UTF_8 ))) {
+            for ( int termID = 0; termID < dictionary.size(); termID++ ) {
+                writer.write( dictionary.term( termID ) + ' ' + index[termID].size() + '\n' );
+            }
+        }
+    }
+
+
+    /**
+     *  Reads column <code>column</code> (0 for the words, 1 for the document
+     *  frequencies) of the terms file. Files without document frequencies
+     *  give 0.
+     */
+    private ArrayList<String> readTerms( int column ) {
+        ArrayList<String> values = new ArrayList<String>();
+        try ( BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( INDEXDIR + "/" + TERMS_FNAME ), StandardCharsets.UTF_8 ))) {
+            String line;
+            while (( line = reader.readLine() ) != null ) {
+                int space = line.indexOf( ' ' );
+                if ( space < 0 ) {
+                    values.add( column == 0 ? line : "0" );
+                } else {
+                    values.add( column == 0 ? line.substring( 0, space ) : line.substring( space + 1 ));
+                }
+            }
+        } catch ( IOException e ) {
+            System.err.println( "Could not read the terms of the index, rebuild it to list them: " + e.getMessage() );
+        }
+        return values;
+    }
+
+
     /**
      *  Write the index to files.
      */
@@ -318,16 +429,25 @@ public class PersistentHashedIndex implements Index {
         try {
             // Write the 'docNames' and 'docLengths' hash maps to a file
             writeDocInfo();
-            for (Map.Entry<String, PostingsList> e: index.entrySet()) {
-                String token = e.getKey();
-                PostingsList postingsList = e.getValue();
+            writeTerms();
+
+            // The old table may be larger, and its entries must not be found
+            tableSize = tableSizeFor(dictionary.size());
+            tableStart = DICT_ENTRY_SIZE;
+            hashStrings = new String[(int) tableSize];
+            dictionaryFile.setLength(0);
+            dictionaryFile.writeLong(tableSize);
+            dictionaryFile.writeInt(DICT_MAGIC);
+            for (int termID = 0; termID < dictionary.size(); termID++) {
+                String token = dictionary.term(termID);
+                PostingsList postingsList = index[termID];
 
                 int hash_val = newHashKey(token);
                 collisions += getCollisions(token);
 
                 String str = token + ' ' + postingsList.toString();
                 
-                writeEntry(new Entry(free, str.length()), hash_val * DICT_ENTRY_SIZE);
+                writeEntry(new Entry(free, str.length()), tableStart + (long) hash_val * DICT_ENTRY_SIZE);
                 writeData(str, free);
 
                 free += str.length();
@@ -338,7 +458,8 @@ public class PersistentHashedIndex implements Index {
         } catch ( IOException e ) {
             e.printStackTrace();
         }
-        System.err.println( collisions + " collisions." );
+        hashStrings = null;
+        System.err.println( collisions + " collisions in a table of " + tableSize + " entries." );
     }
 
 
@@ -354,22 +475,59 @@ public class PersistentHashedIndex implements Index {
         //  REPLACE THE STATEMENT BELOW WITH YOUR CODE
         //
         PostingsList postingsList = new PostingsList();
+        // The time spent on the dictionary, reading and decoding goes to the
+        // trace of the query being searched, if any (see QueryMetrics)
+        QueryTrace trace = QueryTrace.current();
+        SearchEvents.PostingsReadEvent event = new SearchEvents.PostingsReadEvent();
+        event.begin();
+        long lookup = 0, read = 0, bytes = 0;
+        long time = System.nanoTime();
 
         try {
-            int hash_val = (int) ((token.hashCode() % TABLESIZE + TABLESIZE) % TABLESIZE);
+            int hash_val = hash(token);
+            int probes = 0;
+            // Only the first PROBE_SIZE bytes of an entry are read to compare
+            // its token, so that probing past a frequent word does not read
+            // its postings
+            byte[] key = (token + ' ').getBytes();
             Entry entry;
-            
+            byte[] data;
+
             while (true) {
-                entry = readEntry(hash_val * DICT_ENTRY_SIZE);
-                if (entry.size == 0) {
+                entry = readEntry(tableStart + (long) hash_val * DICT_ENTRY_SIZE);
+                if (entry.size == 0 || ++probes > tableSize) {
+                    bytes += DICT_ENTRY_SIZE;
+                    if (trace != null) {
+                        trace.add(QueryTrace.Stage.LOOKUP, lookup + System.nanoTime() - time);
+                        trace.add(QueryTrace.Stage.READ, read);
+                    }
+                    commit(event, token, bytes, postingsList);
                     return postingsList;
                 }
-                if (readToken(entry.pos).equals(token)) {
+                int prefix = Math.min(entry.size, Math.max(PROBE_SIZE, key.length));
+                bytes += DICT_ENTRY_SIZE + prefix;
+                long now = System.nanoTime();
+                lookup += now - time;
+                data = readData(entry.pos, prefix);
+                time = System.nanoTime();
+                read += time - now;
+                if (prefix >= key.length && Arrays.equals(data, 0, key.length, key, 0, key.length)) {
                     break;
                 }
-                hash_val++;
+                hash_val = (int) ((hash_val + 1) % tableSize);
+            }
+            if (data.length < entry.size) {
+                byte[] rest = readData(entry.pos + data.length, entry.size - data.length);
+                bytes += rest.length;
+                data = Arrays.copyOf(data, entry.size);
+                System.arraycopy(rest, 0, data, data.length - rest.length, rest.length);
+            }
+            if (trace != null) {
+                time = trace.lap(QueryTrace.Stage.READ, time);
+                trace.add(QueryTrace.Stage.READ, read);
+                trace.add(QueryTrace.Stage.LOOKUP, lookup);
             }
-            String str = readData(entry.pos, entry.size);
+            String str = new String(data, key.length, data.length - key.length);
 
             String[] docs = str.split(";");
             for (String str_doc: docs) {
@@ -382,30 +540,50 @@ public class PersistentHashedIndex implements Index {
                     postingsList.insert(docID, pos);
                 }
             }
+            if (trace != null) {
+                trace.lap(QueryTrace.Stage.DECODE, time);
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
+        commit(event, token, bytes, postingsList);
         
         return postingsList;
     }
 
 
+    /** Records a read of the postings of <code>token</code> in the flight recorder, if enabled. */
+    private static void commit(SearchEvents.PostingsReadEvent event, String token, long bytes, PostingsList postingsList) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.term = token;
+            event.bytes = bytes;
+            event.entries = postingsList.size();
+            event.cacheHit = false;
+            event.commit();
+        }
+    }
+
+
     /**
      *  Inserts this token in the main-memory hashtable.
      */
-    public void insert( String token, int docID, int offset ) {
+    public void insert( CharSequence token, int docID, int offset ) {
         //
         //  YOUR CODE HERE
         //
-        PostingsList postingList = index.get(token);
+        int termID = dictionary.add(token);
+        if (termID == index.length) {
+            index = Arrays.copyOf(index, 2 * termID);
+        }
+        PostingsList postingList = index[termID];
         
         if (postingList == null) {
             postingList = new PostingsList();
-            postingList.insert(docID, offset);
-            index.put(token, postingList);
+            index[termID] = postingList;
         }
-        else {
-            postingList.insert(docID, offset);
+        if (postingList.insert(docID, offset)) {
+            postingsEntries++;
         }
     }
 
@@ -414,10 +592,22 @@ public class PersistentHashedIndex implements Index {
      *  Write index to file after indexing is done.
      */
     public void cleanup() {
-        System.err.println( index.keySet().size() + " unique words" );
+        System.err.println( dictionary.size() + " unique words" );
         System.err.print( "Writing index to disk..." );
+        SearchEvents.IndexCommitEvent event = new SearchEvents.IndexCommitEvent();
+        event.begin();
+        long startTime = System.nanoTime();
         writeIndex();
         writeEuclideanLengths();
+        IndexingMetrics.get().write( System.nanoTime() - startTime );
+        event.end();
+        if ( event.shouldCommit() ) {
+            event.kind = "write";
+            event.documents = docNames.size();
+            event.terms = dictionary.size();
+            event.segments = 1;
+            event.commit();
+        }
         System.err.println( "done!" );
     }
 
@@ -425,11 +615,55 @@ public class PersistentHashedIndex implements Index {
         readEuclideanLengths();
     }
 
+    /**
+     *  The index on disk does not change while it is searched, so it is its own snapshot.
+     */
+    public Index snapshot() {
+        return this;
+    }
+
+    public long generation() {
+        return 0;
+    }
+
+
+    /**
+     *  The words of the index: those in memory while indexing, or else the
+     *  words in the terms file.
+     */
+    public List<String> terms() {
+        if ( dictionary.size() > 0 ) {
+            return dictionary.terms();
+        }
+        return readTerms( 0 );
+    }
+
+
+    public int[] documentFrequencies() {
+        if ( dictionary.size() > 0 ) {
+            int[] dfs = new int[dictionary.size()];
+            for ( int termID = 0; termID < dfs.length; termID++ ) {
+                dfs[termID] = index[termID].size();
+            }
+            return dfs;
+        }
+        ArrayList<String> dfs = readTerms( 1 );
+        int[] result = new int[dfs.size()];
+        for ( int i=0; i<result.length; i++ ) {
+            result[i] = Integer.parseInt( dfs.get( i ));
+        }
+        return result;
+    }
+
     /**
      * Write the euclidean lengths of the documents to file.
      */
     private void writeEuclideanLengths() {
-        for (PostingsList list: index.values()) {
+        for (int termID = 0; termID < dictionary.size(); termID++) {
+            if (BiwordIndex.isBiword(dictionary.term(termID))) {
+                continue;
+            }
+            PostingsList list = index[termID];
             double idf = Math.log10((double) docNames.size() / list.size());
             for (int i = 0; i < list.size(); i++) {
                 PostingsEntry entry = list.get(i);
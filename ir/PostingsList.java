@@ -8,6 +8,8 @@
 package ir;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class PostingsList {
     
@@ -29,18 +31,40 @@ public class PostingsList {
     //  YOUR CODE HERE
     //
 
-    /** Append with a docID and the position */
-    public void insert(int docID, int pos) {
+    /** Append with a docID and the position. Returns true if a new entry was added for the docID */
+    public boolean insert(int docID, int pos) {
         if (!list.isEmpty() && list.getLast().docID == docID) {
             list.getLast().addPosition(pos);
+            return false;
         }
         else {
             PostingsEntry entry = new PostingsEntry(docID);
             entry.addPosition(pos);
             list.add(entry);
+            return true;
         }
     }
 
+    /**
+     * Copy the list with new entries, so that their scores can be set without
+     * changing the entries of the index. The positions are shared.
+     */
+    public PostingsList copy() {
+        PostingsList result = new PostingsList();
+        for (PostingsEntry e: list) {
+            PostingsEntry entry = new PostingsEntry(e.docID);
+            entry.positions = e.positions;
+            entry.score = e.score;
+            result.list.add(entry);
+        }
+        return result;
+    }
+
+    /** Append an entry, whose docID must be larger than the ones in the list */
+    public void add(PostingsEntry entry) {
+        list.add(entry);
+    }
+
     public void insert(int docID, int pos, double score) {
         if (!list.isEmpty() && list.getLast().docID == docID) {
             list.getLast().addPosition(pos);
@@ -120,6 +144,83 @@ public class PostingsList {
         return result;
     }
 
+    /**
+     *  The union of any number of lists in one pass, e.g. of the words
+     *  matched by a wildcard term. A heap of the lists, ordered by their
+     *  next docID, is used, so every posting is merged in time proportional
+     *  to the log of the number of lists. The positions of a document that
+     *  is in several lists are merged; entries in only one list are shared.
+     */
+    public static PostingsList union(List<PostingsList> lists) {
+        PostingsList result = new PostingsList();
+        int[] heap = new int[lists.size()];
+        int[] next = new int[lists.size()];
+        int n = 0;
+        for (int i = 0; i < lists.size(); i++) {
+            if (lists.get(i).size() > 0) {
+                heap[n++] = i;
+            }
+        }
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            siftDown(lists, heap, next, n, i);
+        }
+        // True if the last entry of the result was made by merging entries
+        boolean merged = false;
+        while (n > 0) {
+            int first = heap[0];
+            PostingsEntry entry = lists.get(first).get(next[first]);
+            PostingsEntry last = result.list.isEmpty() ? null : result.list.getLast();
+            if (last != null && last.docID == entry.docID) {
+                if (!merged) {
+                    // The entries of the index are not changed
+                    PostingsEntry copy = new PostingsEntry(last.docID);
+                    copy.positions = new ArrayList<Integer>(last.positions);
+                    result.list.set(result.list.size() - 1, copy);
+                    last = copy;
+                    merged = true;
+                }
+                last.positions.addAll(entry.positions);
+            } else {
+                if (merged) {
+                    Collections.sort(last.positions);
+                    merged = false;
+                }
+                result.list.add(entry);
+            }
+            if (++next[first] == lists.get(first).size()) {
+                heap[0] = heap[--n];
+            }
+            siftDown(lists, heap, next, n, 0);
+        }
+        if (merged) {
+            Collections.sort(result.list.getLast().positions);
+        }
+        return result;
+    }
+
+    /** Moves list heap[i] down the heap until no list below it has a smaller next docID. */
+    private static void siftDown(List<PostingsList> lists, int[] heap, int[] next, int n, int i) {
+        while (true) {
+            int smallest = i;
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < n; child++) {
+                if (docID(lists, heap, next, child) < docID(lists, heap, next, smallest)) {
+                    smallest = child;
+                }
+            }
+            if (smallest == i) {
+                return;
+            }
+            int tmp = heap[i];
+            heap[i] = heap[smallest];
+            heap[smallest] = tmp;
+            i = smallest;
+        }
+    }
+
+    private static int docID(List<PostingsList> lists, int[] heap, int[] next, int i) {
+        return lists.get(heap[i]).get(next[heap[i]]).docID;
+    }
+
     /** Return a string representation of the posting list */
     public String toString() {
         StringBuffer str = new StringBuffer();
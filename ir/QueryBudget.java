@@ -0,0 +1,103 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.concurrent.CancellationException;
+
+
+/**
+ *   The resources one query may use: a deadline and a maximal number of
+ *   postings to scan. The Searcher checks the budget between the steps of
+ *   a query (cooperative cancellation) and gives up with a
+ *   CancellationException when it is exceeded. A query that is given up
+ *   because other expensive queries are running gets a Shed instead, so
+ *   that overload can be told apart from queries over their own budget.
+ *
+ *   A budget is only used by the thread running the query.
+ */
+public class QueryBudget {
+
+    /** System.nanoTime() when the query must be done. */
+    long deadline = Long.MAX_VALUE;
+
+    /** Max number of postings the query may scan. */
+    long maxPostings = Long.MAX_VALUE;
+
+    /** Number of postings scanned so far. */
+    long postings = 0;
+
+    /** The estimated cost of the query, once the Searcher has estimated it. */
+    long cost = -1;
+
+    /** The admission controller that gave out this budget, or null. */
+    AdmissionController controller;
+
+    /** True if the query holds one of the permits for expensive queries. */
+    boolean expensivePermit = false;
+
+    /** True if the query was answered in a cheaper way than asked for. */
+    boolean degraded = false;
+
+
+    /** Thrown when a query is shed because too many expensive queries are running. */
+    public static class Shed extends CancellationException {
+        private static final long serialVersionUID = 1L;
+
+        public Shed( String message ) {
+            super( message );
+        }
+    }
+
+
+    /**
+     *  A budget of <code>timeMillis</code> ms (0 for no limit) and
+     *  <code>maxPostings</code> postings (0 for no limit).
+     */
+    public QueryBudget( long timeMillis, long maxPostings ) {
+        if ( timeMillis > 0 ) {
+            deadline = System.nanoTime() + timeMillis * 1000000L;
+        }
+        if ( maxPostings > 0 ) {
+            this.maxPostings = maxPostings;
+        }
+    }
+
+
+    /** Throws a CancellationException if the deadline has passed. */
+    public void check() {
+        if ( System.nanoTime() > deadline ) {
+            throw new CancellationException( "Time budget exceeded" );
+        }
+    }
+
+
+    /**
+     *  Records that <code>n</code> more postings are about to be scanned,
+     *  and throws a CancellationException if that exceeds the budget.
+     */
+    public void charge( long n ) {
+        postings += n;
+        if ( postings > maxPostings ) {
+            throw new CancellationException( "Postings budget exceeded (" + postings + " > " + maxPostings + ")" );
+        }
+        check();
+    }
+
+
+    /**
+     *  Called by the Searcher with the estimated cost of the query before
+     *  the expensive part of it is run. Returns false if the query should
+     *  be answered in a cheaper way (or given up), because it is expensive
+     *  and too many other expensive queries are running.
+     */
+    public boolean admit( long cost ) {
+        this.cost = cost;
+        if ( controller == null ) {
+            return true;
+        }
+        return controller.admitExpensive( this );
+    }
+}
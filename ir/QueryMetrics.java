@@ -0,0 +1,287 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import ir.QueryTrace.Stage;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.*;
+
+
+/**
+ *   Latency histograms of every stage of the searches (see QueryTrace.Stage),
+ *   and a log of the slow queries.
+ *
+ *   The histograms are shown over JMX as ir:type=QueryMetrics, with the
+ *   attributes <Stage>Count, <Stage>MeanMillis, <Stage>P50Millis,
+ *   <Stage>P90Millis, <Stage>P99Millis and <Stage>MaxMillis for every
+ *   stage. A stage is only recorded for the queries that go through it.
+ *
+ *   A query that takes longer than slowQueryMillis is appended to
+ *   SLOW_QUERY_LOG with the time of every stage and the lengths of the
+ *   postings lists of its terms. The threshold can be changed with -slow
+ *   or over JMX.
+ */
+public class QueryMetrics implements DynamicMBean {
+
+    /** Default threshold of the slow-query log, in milliseconds. */
+    public final static long SLOW_QUERY_MILLIS = 500;
+
+    /** The file the slow queries are written to. */
+    public final static String SLOW_QUERY_LOG = "slow_queries.log";
+
+    /** Names of the statistics of every stage, as in the JMX attribute names. */
+    final static String[] STATISTICS = { "Count", "MeanMillis", "P50Millis", "P90Millis", "P99Millis", "MaxMillis" };
+
+    private final static DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern( "yyyy-MM-dd'T'HH:mm:ss.SSS" );
+
+    private final static QueryMetrics metrics = new QueryMetrics();
+
+    /** One histogram per stage, by ordinal. */
+    LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+    /** Queries slower than this many milliseconds are logged (0 logs nothing). */
+    volatile long slowQueryMillis = SLOW_QUERY_MILLIS;
+
+    LongAdder slowQueries = new LongAdder();
+
+    private PrintWriter slowQueryLog;
+    private boolean registered = false;
+
+
+    private QueryMetrics() {
+        for ( int i=0; i<histograms.length; i++ ) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+
+    /** The metrics of this JVM. */
+    public static QueryMetrics get() {
+        return metrics;
+    }
+
+
+    /** Shows the metrics over JMX. */
+    public synchronized void register() {
+        if ( registered ) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean( this, new ObjectName( "ir:type=QueryMetrics" ));
+        } catch ( Exception e ) {
+            System.err.println( "Could not register the query metrics with JMX: " + e );
+        }
+        registered = true;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Records the stages of a finished query, and logs it if it was slow.
+     */
+    void record( QueryTrace trace, Query query, QueryType queryType, RankingType rankingType, int results ) {
+        for ( Stage stage : Stage.values() ) {
+            long nanos = trace.nanos[stage.ordinal()];
+            if ( nanos > 0 ) {
+                histograms[stage.ordinal()].record( nanos );
+            }
+        }
+        long total = trace.nanos[Stage.TOTAL.ordinal()];
+        long threshold = slowQueryMillis;
+        if ( threshold > 0 && total >= threshold * 1000000 ) {
+            slowQueries.increment();
+            logSlowQuery( trace, query, queryType, rankingType, results );
+        }
+    }
+
+
+    /**
+     *  Appends one line to the slow-query log, e.g.
+     *  2026-10-19T10:12:01.123 1234.5 ms RANKED_QUERY/TF_IDF "zombie attack" results=812
+     *  postings=[zombie:3412, attack:1200] lookup=0.012 read=1.3 ... sort=20.1 ms
+     */
+    private void logSlowQuery( QueryTrace trace, Query query, QueryType queryType, RankingType rankingType, int results ) {
+        StringBuilder line = new StringBuilder();
+        line.append( LocalDateTime.now().format( TIME_FORMAT ));
+        line.append( String.format( Locale.ROOT, " %.1f ms ", trace.nanos[Stage.TOTAL.ordinal()] / 1e6 ));
+        line.append( queryType );
+        if ( queryType == QueryType.RANKED_QUERY ) {
+            line.append( '/' ).append( rankingType );
+        }
+        StringBuilder words = new StringBuilder();
+        for ( Query.QueryTerm term : query.queryterm ) {
+            words.append( words.length() > 0 ? " " : "" ).append( term.term );
+        }
+        line.append( ' ' ).append( SearchServer.quote( words.toString() ));
+        line.append( " results=" ).append( results );
+        line.append( " postings=[" );
+        for ( int i=0; i<trace.terms.size(); i++ ) {
+            line.append( i > 0 ? ", " : "" ).append( trace.terms.get( i )).append( ':' ).append( trace.postingsSizes.get( i ));
+        }
+        line.append( ']' );
+        for ( Stage stage : Stage.values() ) {
+            if ( stage != Stage.TOTAL ) {
+                line.append( ' ' ).append( stage.name().toLowerCase() ).append( '=' );
+                line.append( String.format( Locale.ROOT, "%.3f", trace.nanos[stage.ordinal()] / 1e6 ));
+            }
+        }
+        line.append( " ms" );
+        synchronized ( this ) {
+            try {
+                if ( slowQueryLog == null ) {
+                    slowQueryLog = new PrintWriter( new FileWriter( SLOW_QUERY_LOG, StandardCharsets.UTF_8, true ));
+                }
+                slowQueryLog.println( line );
+                slowQueryLog.flush();
+            } catch ( IOException e ) {
+                System.err.println( "Could not write to " + SLOW_QUERY_LOG + ": " + e.getMessage() );
+            }
+        }
+    }
+
+
+    /** Forgets all recorded latencies. */
+    public void reset() {
+        for ( LatencyHistogram histogram : histograms ) {
+            histogram.reset();
+        }
+        slowQueries.reset();
+    }
+
+
+    /**
+     *  The mean and the 99th percentile of every stage in milliseconds,
+     *  e.g. "lookup 0.01/0.05 read 1.20/6.00 ... total 3.10/12.00 ms (mean/p99)".
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        for ( Stage stage : Stage.values() ) {
+            LatencyHistogram histogram = histograms[stage.ordinal()];
+            if ( histogram.count() > 0 ) {
+                summary.append( summary.length() > 0 ? " " : "" ).append( stage.name().toLowerCase() );
+                summary.append( String.format( Locale.ROOT, " %.2f/%.2f", histogram.mean() / 1e6, histogram.percentile( 99 ) / 1e6 ));
+            }
+        }
+        if ( summary.length() == 0 ) {
+            return "no queries";
+        }
+        return summary.append( " ms (mean/p99)" ).toString();
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /** The value of statistic number <code>s</code> (see STATISTICS) of <code>stage</code>. */
+    private Object statistic( Stage stage, int s ) {
+        LatencyHistogram histogram = histograms[stage.ordinal()];
+        switch ( s ) {
+        case 0: return histogram.count();
+        case 1: return histogram.mean() / 1e6;
+        case 2: return histogram.percentile( 50 ) / 1e6;
+        case 3: return histogram.percentile( 90 ) / 1e6;
+        case 4: return histogram.percentile( 99 ) / 1e6;
+        default: return histogram.max() / 1e6;
+        }
+    }
+
+
+    /** The JMX name of a stage, e.g. "Postings". */
+    private static String name( Stage stage ) {
+        return stage.name().charAt( 0 ) + stage.name().substring( 1 ).toLowerCase();
+    }
+
+
+    public Object getAttribute( String attribute ) throws AttributeNotFoundException {
+        if ( "SlowQueryMillis".equals( attribute )) {
+            return slowQueryMillis;
+        } else if ( "SlowQueries".equals( attribute )) {
+            return slowQueries.sum();
+        }
+        for ( Stage stage : Stage.values() ) {
+            for ( int s=0; s<STATISTICS.length; s++ ) {
+                if ( attribute.equals( name( stage ) + STATISTICS[s] )) {
+                    return statistic( stage, s );
+                }
+            }
+        }
+        throw new AttributeNotFoundException( attribute );
+    }
+
+
+    public void setAttribute( Attribute attribute ) throws AttributeNotFoundException, InvalidAttributeValueException {
+        if ( !"SlowQueryMillis".equals( attribute.getName() )) {
+            throw new AttributeNotFoundException( attribute.getName() );
+        }
+        if ( !( attribute.getValue() instanceof Long )) {
+            throw new InvalidAttributeValueException( "SlowQueryMillis must be a long" );
+        }
+        slowQueryMillis = (Long) attribute.getValue();
+    }
+
+
+    public AttributeList getAttributes( String[] attributes ) {
+        AttributeList list = new AttributeList();
+        for ( String attribute : attributes ) {
+            try {
+                list.add( new Attribute( attribute, getAttribute( attribute )));
+            } catch ( AttributeNotFoundException e ) {
+                // Unknown attributes are left out
+            }
+        }
+        return list;
+    }
+
+
+    public AttributeList setAttributes( AttributeList attributes ) {
+        AttributeList set = new AttributeList();
+        for ( Attribute attribute : attributes.asList() ) {
+            try {
+                setAttribute( attribute );
+                set.add( attribute );
+            } catch ( JMException e ) {
+                // Attributes that cannot be set are left out
+            }
+        }
+        return set;
+    }
+
+
+    public Object invoke( String action, Object[] params, String[] signature ) throws ReflectionException {
+        if ( "reset".equals( action )) {
+            reset();
+            return null;
+        }
+        throw new ReflectionException( new NoSuchMethodException( action ));
+    }
+
+
+    public MBeanInfo getMBeanInfo() {
+        ArrayList<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        attributes.add( new MBeanAttributeInfo( "SlowQueryMillis", "long", "Queries slower than this are logged to " + SLOW_QUERY_LOG, true, true, false ));
+        attributes.add( new MBeanAttributeInfo( "SlowQueries", "long", "Number of slow queries", true, false, false ));
+        for ( Stage stage : Stage.values() ) {
+            for ( int s=0; s<STATISTICS.length; s++ ) {
+                attributes.add( new MBeanAttributeInfo( name( stage ) + STATISTICS[s], s == 0 ? "long" : "double",
+                                                        STATISTICS[s] + " of the " + stage.name().toLowerCase() + " stage", true, false, false ));
+            }
+        }
+        MBeanOperationInfo reset = new MBeanOperationInfo( "reset", "Forgets all recorded latencies", new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION );
+        return new MBeanInfo( getClass().getName(), "Latencies of the stages of the searches", attributes.toArray( new MBeanAttributeInfo[0] ),
+                              null, new MBeanOperationInfo[] { reset }, null );
+    }
+}
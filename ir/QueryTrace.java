@@ -0,0 +1,103 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.ArrayList;
+
+
+/**
+ *   The time one query spends in every stage of the search, and the sizes
+ *   of the postings lists it reads. A trace belongs to the thread running
+ *   the query; the index finds it with {@link #current}, so that the
+ *   stages inside getPostings can be timed without changing the Index
+ *   interface.
+ */
+public class QueryTrace {
+
+    /** The stages of a search. */
+    public enum Stage {
+        /** Finding the terms in the dictionary. */
+        LOOKUP,
+        /** Reading postings from disk. */
+        READ,
+        /** Turning what was read into PostingsLists. */
+        DECODE,
+        /** Finding the words that match wildcard terms in the k-gram index. */
+        EXPAND,
+        /** Taking the union of the postings lists of the words matching a wildcard term. */
+        UNION,
+        /** Getting the postings lists of all terms (including the five stages above). */
+        POSTINGS,
+        /** Intersecting, matching phrases or taking the union of the postings lists. */
+        MERGE,
+        /** Computing tf-idf scores. */
+        SCORE,
+        /** Looking up pagerank and HITS scores, and running HITS. */
+        RANKING,
+        /** Sorting the results by score. */
+        SORT,
+        /** The whole search. */
+        TOTAL
+    }
+
+    private final static ThreadLocal<QueryTrace> current = new ThreadLocal<QueryTrace>();
+
+    /** Nanoseconds spent in every stage, by ordinal. */
+    final long[] nanos = new long[Stage.values().length];
+
+    /** The terms of the query and the lengths of their postings lists. */
+    final ArrayList<String> terms = new ArrayList<String>();
+    final ArrayList<Integer> postingsSizes = new ArrayList<Integer>();
+
+    /** When the search started (System.nanoTime()). */
+    final long startTime = System.nanoTime();
+
+
+    /** The trace of the query running on this thread, or null. */
+    public static QueryTrace current() {
+        return current.get();
+    }
+
+
+    /** Starts a trace for a query on this thread. */
+    static QueryTrace start() {
+        QueryTrace trace = new QueryTrace();
+        current.set( trace );
+        return trace;
+    }
+
+
+    /** Ends the trace of this thread. */
+    void stop() {
+        nanos[Stage.TOTAL.ordinal()] = System.nanoTime() - startTime;
+        current.remove();
+    }
+
+
+    /** Adds <code>n</code> nanoseconds to <code>stage</code>. */
+    public void add( Stage stage, long n ) {
+        nanos[stage.ordinal()] += n;
+    }
+
+
+    /**
+     *  Adds the time since <code>since</code> to <code>stage</code>, and
+     *  returns the current time, so that consecutive stages can be timed
+     *  with one call to System.nanoTime() each.
+     */
+    public long lap( Stage stage, long since ) {
+        long now = System.nanoTime();
+        nanos[stage.ordinal()] += now - since;
+        return now;
+    }
+
+
+    /** Records the postings list read for one term. */
+    void postings( String term, int size ) {
+        terms.add( term );
+        postingsSizes.add( size );
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+
+/**
+ *   A cache of the best results of recent queries, so that a query that is
+ *   asked again does not have to merge, score and sort its postings again.
+ *
+ *   A query is identified by its terms (sorted, except for phrase queries,
+ *   where the order matters), its type, ranking and normalization. Only the
+ *   DEPTH best results are kept, as a docID array and a score array, so a
+ *   cached query takes about 12 bytes per result; callers that need more
+ *   results than that do not use the cache.
+ *
+ *   The cache holds at most maxEntries queries, and forgets the least
+ *   recently used one when it is full. It is emptied when the index changes
+ *   (see Index.generation). When several threads miss on the same query at
+ *   the same time, only the first one runs it and the others wait for its
+ *   results. Results that were degraded to stay within a budget are handed
+ *   to the waiting threads but not cached. If the first thread gives up
+ *   (e.g. because of its own budget), one of the waiting threads runs the
+ *   query instead, with its own budget. Queries answered from the cache or
+ *   by another thread cost nothing.
+ */
+public class ResultCache {
+
+    /** Default number of cached queries. */
+    public final static int DEFAULT_ENTRIES = 1000;
+
+    /** Number of results kept for every query. */
+    public final static int DEPTH = 1000;
+
+    /**
+     *  The best results of a query, in ranked order (or in docID order for
+     *  intersection and phrase queries).
+     */
+    public static class Results {
+        /** Number of documents matching the query. */
+        final int total;
+
+        /** The first min(total, DEPTH) results, or null if the query had no result list. */
+        final int[] docIDs;
+        final double[] scores;
+
+        /** True if the results were ranked in a cheaper way than asked for. */
+        final boolean degraded;
+
+        Results( PostingsList list, int n, boolean degraded ) {
+            this.degraded = degraded;
+            if ( list == null ) {
+                total = 0;
+                docIDs = null;
+                scores = null;
+                return;
+            }
+            total = list.size();
+            n = Math.min( n, total );
+            docIDs = new int[n];
+            scores = new double[n];
+            for ( int i=0; i<n; i++ ) {
+                PostingsEntry entry = list.get( i );
+                docIDs[i] = entry.docID;
+                scores[i] = entry.score;
+            }
+        }
+
+        /** Number of results kept. */
+        public int size() {
+            return docIDs == null ? 0 : docIDs.length;
+        }
+    }
+
+
+    /** The normalized form of a query and its settings. */
+    static class Key {
+        final String[] terms;
+        final QueryType queryType;
+        final RankingType rankingType;
+        final NormalizationType normType;
+        final int hash;
+
+        Key( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType ) {
+            terms = new String[query.queryterm.size()];
+            for ( int i=0; i<terms.length; i++ ) {
+                terms[i] = query.queryterm.get( i ).term;
+            }
+            if ( queryType != QueryType.PHRASE_QUERY ) {
+                Arrays.sort( terms );
+            }
+            this.queryType = queryType;
+            // The ranking and normalization only matter for ranked queries
+            this.rankingType = queryType == QueryType.RANKED_QUERY ? rankingType : null;
+            this.normType = queryType == QueryType.RANKED_QUERY ? normType : null;
+            hash = Arrays.hashCode( terms ) * 31 + queryType.hashCode() * 17 +
+                ( this.rankingType == null ? 0 : this.rankingType.hashCode() * 7 ) + ( this.normType == null ? 0 : this.normType.hashCode() );
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals( Object o ) {
+            if ( !( o instanceof Key )) {
+                return false;
+            }
+            Key other = (Key) o;
+            return hash == other.hash && queryType == other.queryType && rankingType == other.rankingType &&
+                normType == other.normType && Arrays.equals( terms, other.terms );
+        }
+    }
+
+
+    /** Max number of cached queries. */
+    final int maxEntries;
+
+    /** The cached queries, least recently used first. */
+    private final LinkedHashMap<Key,Results> entries;
+
+    /** The queries being run, which other threads can wait for. */
+    private final HashMap<Key,CompletableFuture<Results>> running = new HashMap<Key,CompletableFuture<Results>>();
+
+    /** The generation of the index the cached results were computed on. */
+    private long generation = -1;
+
+    LongAdder hits = new LongAdder();
+    LongAdder misses = new LongAdder();
+    LongAdder coalesced = new LongAdder();
+    LongAdder evictions = new LongAdder();
+    LongAdder invalidations = new LongAdder();
+
+
+    public ResultCache( int maxEntries ) {
+        this.maxEntries = maxEntries;
+        entries = new LinkedHashMap<Key,Results>( 16, 0.75f, true ) {
+            protected boolean removeEldestEntry( Map.Entry<Key,Results> eldest ) {
+                if ( size() > ResultCache.this.maxEntries ) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+
+    /**
+     *  Returns the results of a query on the index of generation
+     *  <code>generation</code>: from the cache, from another thread that is
+     *  running the same query, or by calling <code>search</code>, which
+     *  returns the full results and sets budget.degraded if it ranked them
+     *  in a cheaper way. A thread that waits for another one gives up with a
+     *  CancellationException when its own budget runs out, and tries again
+     *  if the other thread fails. A query that is not run by this thread
+     *  gets a cost of 0 in its budget.
+     */
+    Results get( Key key, long generation, QueryBudget budget, Supplier<PostingsList> search ) {
+        CompletableFuture<Results> future = null, own = null;
+        synchronized ( this ) {
+            if ( generation < this.generation ) {
+                // The query runs on an older snapshot than the cached results
+                misses.increment();
+            } else {
+                if ( generation > this.generation ) {
+                    // Queries still running on the old index are not waited for
+                    if ( !entries.isEmpty() ) {
+                        invalidations.increment();
+                    }
+                    entries.clear();
+                    running.clear();
+                    this.generation = generation;
+                }
+                Results results = entries.get( key );
+                if ( results != null ) {
+                    hits.increment();
+                    answered( budget, results );
+                    return results;
+                }
+                future = running.get( key );
+                if ( future == null ) {
+                    misses.increment();
+                    own = new CompletableFuture<Results>();
+                    running.put( key, own );
+                } else {
+                    coalesced.increment();
+                }
+            }
+        }
+        if ( future != null ) {
+            return await( future, key, generation, budget, search );
+        } else if ( own == null ) {
+            return run( budget, search );
+        }
+        try {
+            Results results = run( budget, search );
+            synchronized ( this ) {
+                running.remove( key, own );
+                if ( !results.degraded && generation == this.generation ) {
+                    entries.put( key, results );
+                }
+            }
+            own.complete( results );
+            return results;
+        } catch ( RuntimeException | Error e ) {
+            synchronized ( this ) {
+                running.remove( key, own );
+            }
+            own.completeExceptionally( e );
+            throw e;
+        }
+    }
+
+
+    /** Waits for the results of a query another thread is running. */
+    private Results await( CompletableFuture<Results> future, Key key, long generation, QueryBudget budget, Supplier<PostingsList> search ) {
+        try {
+            Results results;
+            if ( budget == null || budget.deadline == Long.MAX_VALUE ) {
+                results = future.get();
+            } else {
+                results = future.get( Math.max( 0, budget.deadline - System.nanoTime() ), TimeUnit.NANOSECONDS );
+            }
+            answered( budget, results );
+            return results;
+        } catch ( TimeoutException e ) {
+            throw new CancellationException( "Time budget exceeded" );
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException( "Interrupted" );
+        } catch ( CancellationException | ExecutionException e ) {
+            // The other query may have been given up because of its own
+            // budget or shed (get() throws its CancellationException as it
+            // is). One of the waiting threads runs it instead.
+            return get( key, generation, budget, search );
+        }
+    }
+
+
+    /** Records in <code>budget</code> that the query was answered without running it. */
+    private static void answered( QueryBudget budget, Results results ) {
+        if ( budget != null ) {
+            budget.admit( 0 );
+            budget.degraded = results.degraded;
+        }
+    }
+
+
+    private static Results run( QueryBudget budget, Supplier<PostingsList> search ) {
+        PostingsList list = search.get();
+        return new Results( list, DEPTH, budget != null && budget.degraded );
+    }
+
+
+    /** Number of cached queries. */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+
+    /** E.g. "Result cache: 800 hits, 150 misses, 50 coalesced, 850/1000 entries, 0 evictions". */
+    public String summary() {
+        return String.format( "Result cache: %d hits, %d misses, %d coalesced, %d/%d entries, %d evictions",
+                              hits.sum(), misses.sum(), coalesced.sum(), size(), maxEntries, evictions.sum() );
+    }
+
+
+    /** The statistics of the cache as a JSON member, for the /stats page of the server. */
+    String statsJson() {
+        long h = hits.sum(), m = misses.sum(), c = coalesced.sum();
+        return String.format( "\"cache\":{\"entries\":%d,\"max_entries\":%d,\"hits\":%d,\"misses\":%d,\"coalesced\":%d," +
+                              "\"hit_rate\":%.3f,\"evictions\":%d,\"invalidations\":%d}",
+                              size(), maxEntries, h, m, c, h + m + c == 0 ? 0.0 : (double) ( h + c ) / ( h + m + c ),
+                              evictions.sum(), invalidations.sum() );
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+
+/**
+ *   Java Flight Recorder events of the search engine, so that a recording
+ *   can show which queries, postings reads, ranking computations and index
+ *   commits were running when the allocation rate or the GC spiked.
+ *
+ *   Every event type can be switched on and off on its own, e.g. with the
+ *   settings in search.jfc:
+ *
+ *     java -XX:StartFlightRecording:settings=default,settings=search.jfc,filename=search.jfr ...
+ *
+ *   or with jcmd JFR.configure / JFR.start. Postings reads are disabled by
+ *   default, since there is one for every term of every query. An event
+ *   that is disabled costs a check of a flag (the event object itself is
+ *   removed by the JIT compiler). Its fields are only filled in after
+ *   end(), when shouldCommit() says it is enabled and over its threshold.
+ */
+public class SearchEvents {
+
+    private SearchEvents() {
+    }
+
+
+    @Name( "ir.Query" )
+    @Label( "Query" )
+    @Category( { "Search Engine", "Search" } )
+    @Description( "A search, with the time spent in every stage (see QueryTrace)" )
+    @StackTrace( false )
+    @Threshold( "0 ms" )
+    static class QueryEvent extends Event {
+        @Label( "Query Hash" )
+        @Description( "Hash of the query terms, so that the terms themselves are not recorded" )
+        int queryHash;
+
+        @Label( "Type" )
+        String queryType;
+
+        @Label( "Ranking" )
+        String ranking;
+
+        @Label( "Results" )
+        int results;
+
+        @Label( "Lookup" ) @Timespan( Timespan.NANOSECONDS )
+        long lookup;
+
+        @Label( "Read" ) @Timespan( Timespan.NANOSECONDS )
+        long read;
+
+        @Label( "Decode" ) @Timespan( Timespan.NANOSECONDS )
+        long decode;
+
+        @Label( "Expand" ) @Timespan( Timespan.NANOSECONDS )
+        long expand;
+
+        @Label( "Union" ) @Timespan( Timespan.NANOSECONDS )
+        long union;
+
+        @Label( "Postings" ) @Timespan( Timespan.NANOSECONDS )
+        long postings;
+
+        @Label( "Merge" ) @Timespan( Timespan.NANOSECONDS )
+        long merge;
+
+        @Label( "Score" ) @Timespan( Timespan.NANOSECONDS )
+        long score;
+
+        @Label( "Ranking Time" ) @Timespan( Timespan.NANOSECONDS )
+        long rankingTime;
+
+        @Label( "Sort" ) @Timespan( Timespan.NANOSECONDS )
+        long sort;
+
+        void set( QueryTrace trace, Query query, QueryType queryType, RankingType rankingType, int results ) {
+            StringBuilder words = new StringBuilder();
+            for ( Query.QueryTerm term : query.queryterm ) {
+                words.append( words.length() > 0 ? " " : "" ).append( term.term );
+            }
+            queryHash = words.toString().hashCode();
+            this.queryType = queryType.toString();
+            ranking = queryType == QueryType.RANKED_QUERY ? rankingType.toString() : null;
+            this.results = results;
+            lookup = trace.nanos[QueryTrace.Stage.LOOKUP.ordinal()];
+            read = trace.nanos[QueryTrace.Stage.READ.ordinal()];
+            decode = trace.nanos[QueryTrace.Stage.DECODE.ordinal()];
+            expand = trace.nanos[QueryTrace.Stage.EXPAND.ordinal()];
+            union = trace.nanos[QueryTrace.Stage.UNION.ordinal()];
+            postings = trace.nanos[QueryTrace.Stage.POSTINGS.ordinal()];
+            merge = trace.nanos[QueryTrace.Stage.MERGE.ordinal()];
+            score = trace.nanos[QueryTrace.Stage.SCORE.ordinal()];
+            rankingTime = trace.nanos[QueryTrace.Stage.RANKING.ordinal()];
+            sort = trace.nanos[QueryTrace.Stage.SORT.ordinal()];
+        }
+    }
+
+
+    @Name( "ir.PostingsRead" )
+    @Label( "Postings Read" )
+    @Category( { "Search Engine", "Search" } )
+    @Description( "The postings list of one term, read from disk or found in memory" )
+    @Enabled( false )
+    @StackTrace( false )
+    static class PostingsReadEvent extends Event {
+        @Label( "Term" )
+        String term;
+
+        @Label( "Bytes" ) @DataAmount
+        @Description( "Bytes read from disk, including the dictionary entries probed" )
+        long bytes;
+
+        @Label( "Entries" )
+        int entries;
+
+        @Label( "Cache Hit" )
+        @Description( "Whether the postings list was in memory" )
+        boolean cacheHit;
+    }
+
+
+    @Name( "ir.Ranking" )
+    @Label( "Ranking Computation" )
+    @Category( { "Search Engine", "Ranking" } )
+    @Description( "A HITS or PageRank power iteration" )
+    @StackTrace( false )
+    static class RankingEvent extends Event {
+        @Label( "Algorithm" )
+        String algorithm;
+
+        @Label( "Nodes" )
+        int nodes;
+
+        @Label( "Iterations" )
+        int iterations;
+
+        @Label( "Converged" )
+        boolean converged;
+    }
+
+
+    @Name( "ir.IndexCommit" )
+    @Label( "Index Commit" )
+    @Category( { "Search Engine", "Indexing" } )
+    @Description( "The index written to disk, or a refresh of the live index made searchable" )
+    @StackTrace( false )
+    static class IndexCommitEvent extends Event {
+        @Label( "Kind" )
+        String kind;
+
+        @Label( "Documents" )
+        @Description( "Documents added by the commit" )
+        int documents;
+
+        @Label( "Deleted" )
+        int deleted;
+
+        @Label( "Terms" )
+        int terms;
+
+        @Label( "Segments" )
+        int segments;
+    }
+}
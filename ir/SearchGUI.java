@@ -170,13 +170,12 @@ public class SearchGUI extends JFrame {
                     }
                     query.relevanceFeedback( results, relevant, engine );
                 }
-                // Search and print results. Access to the index is synchronized since
-                // we don't want to search at the same time we're indexing new files
-                // (this might corrupt the index).
+                // Search and print results. The search waits until the index has been
+                // built, and then runs against a snapshot of the index, so it does not
+                // have to wait for documents that are being added.
                 long startTime = System.currentTimeMillis();
-                synchronized ( engine.indexLock ) {
-                    results = engine.searcher.search( query, queryType, rankingType, normType );
-                }
+                engine.awaitIndex();
+                results = engine.searcher.search( query, queryType, rankingType, normType );
                 long elapsedTime = System.currentTimeMillis() - startTime;
                 // Display the first few results + a button to see all results.
                 //
@@ -422,6 +421,10 @@ public class SearchGUI extends JFrame {
      */
     String displayableFileName( String path ) {
         String result = "";
+        if ( path == null ) {
+            // Deleted after the search
+            return result;
+        }
         StringTokenizer tok = new StringTokenizer( path, "\\/" );
         while ( tok.hasMoreTokens() ) {
             result = tok.nextToken();
@@ -0,0 +1,296 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ *   Serves searches over HTTP with JSON responses, so that the engine can
+ *   run without the GUI (java ir.Engine -server port ...).
+ *
+ *   GET /search?q=zombie+attack&type=ranked&ranking=tf_idf&norm=number_of_words&offset=0&limit=10
+ *    type:    intersection, phrase or ranked (default intersection)
+ *    ranking: tf_idf, pagerank, combination or hits (default tf_idf)
+ *    norm:    number_of_words or euclidean (default number_of_words)
+ *    offset, limit: which of the results to return (default the first 10)
+ *
+ *   GET /stats
+ *    The number of queries served, queries per second, latency percentiles,
+ *    and how many queries were shed, degraded or cancelled.
+ *
+ *   Every request is handled on its own virtual thread. The server only
+ *   listens on the loopback interface. The AdmissionController bounds the
+ *   number of searches running at the same time: under overload, queries
+ *   are answered with 503 (Service Unavailable) instead of making every
+ *   query slow. A query that exceeds its time or postings budget is
+ *   cancelled, also with 503. Expensive HITS queries may be "degraded"
+ *   (ranked in a cheaper way), which is shown in the response.
+ */
+public class SearchServer {
+
+    /** Number of results returned if no limit is given. */
+    public final static int DEFAULT_LIMIT = 10;
+
+    /** Max number of results returned by one request. */
+    public final static int MAX_LIMIT = 1000;
+
+    /** Max number of spelling corrections suggested when a query has no results. */
+    public final static int MAX_SUGGESTIONS = 5;
+
+    /** Seconds between two lines of statistics on stderr (when there has been traffic). */
+    public final static int REPORT_INTERVAL = 10;
+
+    /** The engine whose searcher is used. */
+    Engine engine;
+
+    HttpServer server;
+
+    /** Latencies of all searches since the server started, and since the last report. */
+    LatencyHistogram latencies = new LatencyHistogram();
+    LatencyHistogram recentLatencies = new LatencyHistogram();
+
+    /** Number of requests that failed. */
+    LongAdder errors = new LongAdder();
+
+    /** Decides which queries run, and with what budget. */
+    AdmissionController admission;
+
+    /** When the server was started. */
+    long startTime;
+
+
+    /* ----------------------------------------------- */
+
+
+    public SearchServer( Engine engine, int port ) throws IOException {
+        this.engine = engine;
+        admission = new AdmissionController( engine.max_concurrent_queries, engine.query_time_budget, engine.query_postings_budget );
+        server = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), port ), 0 );
+        server.createContext( "/search", this::handleSearch );
+        server.createContext( "/stats", this::handleStats );
+        server.setExecutor( Executors.newVirtualThreadPerTaskExecutor() );
+    }
+
+
+    /** Starts serving requests. */
+    public void start() {
+        startTime = System.nanoTime();
+        server.start();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread thread = new Thread( r, "server-stats" );
+            thread.setDaemon( true );
+            return thread;
+        });
+        reporter.scheduleAtFixedRate( this::report, REPORT_INTERVAL, REPORT_INTERVAL, TimeUnit.SECONDS );
+        System.err.println( "Serving searches on http://localhost:" + server.getAddress().getPort() + "/search" +
+                            " (at most " + admission.maxConcurrent + " at a time)" );
+    }
+
+
+    /** Writes the statistics of the last REPORT_INTERVAL seconds to stderr. */
+    private void report() {
+        long n = recentLatencies.count();
+        if ( n > 0 ) {
+            System.err.println( String.format( "Served %d queries in the last %d s (%.1f qps), latency %s",
+                                               n, REPORT_INTERVAL, (double) n / REPORT_INTERVAL, recentLatencies.summary() ));
+            recentLatencies.reset();
+        }
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    private void handleSearch( HttpExchange exchange ) throws IOException {
+        long start = System.nanoTime();
+        try {
+            HashMap<String,String> params = parseParameters( exchange.getRequestURI().getRawQuery() );
+            String queryString = params.getOrDefault( "q", "" ).toLowerCase().trim();
+            QueryType queryType = parseEnum( QueryType.class, params.get( "type" ), QueryType.INTERSECTION_QUERY );
+            RankingType rankingType = parseEnum( RankingType.class, params.get( "ranking" ), RankingType.TF_IDF );
+            NormalizationType normType = parseEnum( NormalizationType.class, params.get( "norm" ), NormalizationType.NUMBER_OF_WORDS );
+            int offset = Math.max( 0, parseInt( params.get( "offset" ), 0 ));
+            int limit = Math.min( MAX_LIMIT, Math.max( 0, parseInt( params.get( "limit" ), DEFAULT_LIMIT )));
+
+            QueryBudget budget = admission.admit();
+            if ( budget == null ) {
+                exchange.getResponseHeaders().set( "Retry-After", "1" );
+                send( exchange, 503, "{\"error\":\"Overloaded, try again later\"}" );
+                return;
+            }
+            ResultCache.Results results;
+            String[] suggestions = null;
+            try {
+                results = engine.searcher.searchTop( new Query( queryString ), queryType, rankingType, normType, budget, offset + limit );
+                if ( results.total == 0 && engine.speller != null ) {
+                    budget.check();
+                    suggestions = engine.speller.check( new Query( queryString ), MAX_SUGGESTIONS );
+                }
+            } catch ( QueryBudget.Shed e ) {
+                admission.shed.increment();
+                exchange.getResponseHeaders().set( "Retry-After", "1" );
+                send( exchange, 503, "{\"error\":" + quote( e.getMessage() ) + ",\"shed\":true}" );
+                return;
+            } catch ( CancellationException e ) {
+                admission.cancelled.increment();
+                send( exchange, 503, "{\"error\":" + quote( e.getMessage() ) + ",\"cancelled\":true}" );
+                return;
+            } finally {
+                admission.release( budget );
+            }
+            int total = results.total;
+            long took = System.nanoTime() - start;
+            latencies.record( took );
+            recentLatencies.record( took );
+
+            StringBuilder json = new StringBuilder();
+            json.append( "{\"query\":" ).append( quote( queryString ));
+            json.append( ",\"type\":\"" ).append( queryType ).append( '"' );
+            json.append( ",\"ranking\":\"" ).append( rankingType ).append( '"' );
+            json.append( ",\"normalization\":\"" ).append( normType ).append( '"' );
+            json.append( ",\"total\":" ).append( total );
+            json.append( ",\"offset\":" ).append( offset );
+            json.append( ",\"cost\":" ).append( budget.cost );
+            json.append( ",\"degraded\":" ).append( results.degraded );
+            json.append( ",\"took_ms\":" ).append( String.format( "%.3f", took / 1e6 ));
+            json.append( ",\"results\":[" );
+            for ( int i = offset; i < results.size() && i < offset + limit; i++ ) {
+                if ( i > offset ) {
+                    json.append( ',' );
+                }
+                json.append( "{\"rank\":" ).append( i + 1 );
+                json.append( ",\"docID\":" ).append( results.docIDs[i] );
+                json.append( ",\"name\":" ).append( quote( Index.docNames.get( results.docIDs[i] )));
+                json.append( ",\"score\":" ).append( Double.isFinite( results.scores[i] ) ? results.scores[i] : 0 );
+                json.append( '}' );
+            }
+            json.append( ']' );
+            if ( suggestions != null ) {
+                json.append( ",\"suggestions\":[" );
+                for ( int i=0; i<suggestions.length; i++ ) {
+                    json.append( i > 0 ? "," : "" ).append( quote( suggestions[i] ));
+                }
+                json.append( ']' );
+            }
+            json.append( '}' );
+            send( exchange, 200, json.toString() );
+        } catch ( IllegalArgumentException e ) {
+            errors.increment();
+            send( exchange, 400, "{\"error\":" + quote( e.getMessage() ) + "}" );
+        } catch ( Exception e ) {
+            errors.increment();
+            e.printStackTrace();
+            send( exchange, 500, "{\"error\":" + quote( e.toString() ) + "}" );
+        }
+    }
+
+
+    private void handleStats( HttpExchange exchange ) throws IOException {
+        double uptime = ( System.nanoTime() - startTime ) / 1e9;
+        long n = latencies.count();
+        ResultCache cache = engine.searcher.resultCache;
+        String json = String.format( "{\"uptime_s\":%.1f,\"queries\":%d,\"errors\":%d,\"qps\":%.2f,%s,%s" +
+                                     "\"latency_ms\":{\"mean\":%.3f,\"p50\":%.3f,\"p90\":%.3f,\"p99\":%.3f,\"max\":%.3f}}",
+                                     uptime, n, errors.sum(), n / uptime, admission.statsJson(),
+                                     cache == null ? "" : cache.statsJson() + ",", latencies.mean() / 1e6,
+                                     latencies.percentile( 50 ) / 1e6, latencies.percentile( 90 ) / 1e6,
+                                     latencies.percentile( 99 ) / 1e6, latencies.max() / 1e6 );
+        send( exchange, 200, json );
+    }
+
+
+    private void send( HttpExchange exchange, int status, String json ) throws IOException {
+        byte[] bytes = json.getBytes( StandardCharsets.UTF_8 );
+        exchange.getResponseHeaders().set( "Content-Type", "application/json; charset=utf-8" );
+        exchange.sendResponseHeaders( status, bytes.length );
+        try ( OutputStream out = exchange.getResponseBody() ) {
+            out.write( bytes );
+        }
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /** Decodes the parameters of a query string like "q=a+b&limit=5". */
+    static HashMap<String,String> parseParameters( String rawQuery ) {
+        HashMap<String,String> params = new HashMap<String,String>();
+        if ( rawQuery == null ) {
+            return params;
+        }
+        for ( String pair : rawQuery.split( "&" )) {
+            int eq = pair.indexOf( '=' );
+            String key = eq < 0 ? pair : pair.substring( 0, eq );
+            String value = eq < 0 ? "" : pair.substring( eq + 1 );
+            params.put( URLDecoder.decode( key, StandardCharsets.UTF_8 ), URLDecoder.decode( value, StandardCharsets.UTF_8 ));
+        }
+        return params;
+    }
+
+
+    /**
+     *  Parses the name of an enum constant, ignoring case. The suffix
+     *  "_QUERY" of the query types may be left out ("ranked").
+     */
+    static <E extends Enum<E>> E parseEnum( Class<E> type, String value, E defaultValue ) {
+        if ( value == null || value.isEmpty() ) {
+            return defaultValue;
+        }
+        String name = value.toUpperCase().replace( '-', '_' );
+        for ( E constant : type.getEnumConstants() ) {
+            if ( constant.name().equals( name ) || constant.name().equals( name + "_QUERY" )) {
+                return constant;
+            }
+        }
+        throw new IllegalArgumentException( "Unknown " + type.getSimpleName() + ": " + value );
+    }
+
+
+    static int parseInt( String value, int defaultValue ) {
+        if ( value == null || value.isEmpty() ) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt( value );
+        } catch ( NumberFormatException e ) {
+            throw new IllegalArgumentException( "Not a number: " + value );
+        }
+    }
+
+
+    /** A JSON string literal. */
+    static String quote( String s ) {
+        if ( s == null ) {
+            return "null";
+        }
+        StringBuilder result = new StringBuilder( "\"" );
+        for ( int i=0; i<s.length(); i++ ) {
+            char c = s.charAt( i );
+            if ( c == '"' || c == '\\' ) {
+                result.append( '\\' ).append( c );
+            } else if ( c < 0x20 ) {
+                result.append( String.format( "\\u%04x", (int) c ));
+            } else {
+                result.append( c );
+            }
+        }
+        return result.append( '"' ).toString();
+    }
+}
@@ -9,12 +9,22 @@ package ir;
 
 import ir.Query.QueryTerm;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  *  Searches an index for results of a query.
+ *
+ *  Any number of threads can search at the same time. Every search runs
+ *  against a snapshot of the index taken when it starts, and never changes
+ *  the postings of the index.
  */
 public class Searcher {
 
@@ -24,19 +34,103 @@ public class Searcher {
     /** The k-gram index to be searched by this Searcher */
     KGramIndex kgIndex;
 
+    /** Max number of postings entries in the union of the words matching one wildcard term */
+    public static final int MAX_WILDCARD_POSTINGS = 500000;
+
     /** The pagerank scores */
     HashMap<String, Double> pagerank = new HashMap<String, Double>();
 
-    /** The HITS ranker */
+    /** The file containing the topic-sensitive pagerank vectors (see TopicPageRank) */
+    public static final String TOPIC_PAGERANK_FNAME = "data/topic_pagerank.txt";
+
+    /** The query words of every topic */
+    ArrayList<HashSet<String>> topicTerms = new ArrayList<HashSet<String>>();
+
+    /** The topic-sensitive pagerank scores, one column per topic */
+    HashMap<String, double[]> topicPagerank = new HashMap<String, double[]>();
+
+    /** The pagerank scores aligned by docID, for one generation of the index */
+    static class RankingColumns {
+        final long generation;
+
+        /** The pagerank scores, so they can be looked up without hashing */
+        final double[] pagerank;
+
+        /** The topic-sensitive pagerank scores, one array per topic */
+        final double[][] topicPagerank;
+
+        RankingColumns(long generation, double[] pagerank, double[][] topicPagerank) {
+            this.generation = generation;
+            this.pagerank = pagerank;
+            this.topicPagerank = topicPagerank;
+        }
+    }
+
+    /** The columns aligned for the newest generation of the index seen so far */
+    volatile RankingColumns rankingColumns;
+
+    /** The HITS ranker, created by hitsTask */
     HITSRanker hitsRanker;
+
+    /** Settings given to the HITS ranker when it is created */
+    int hitsRootSetSize = HITSRanker.MAX_ROOT_SET_SIZE;
+    int hitsInLinks = HITSRanker.MAX_IN_LINKS_PER_NODE;
+    boolean hitsGlobal = false;
+
+    /**
+     *  Load the ranking resources. Each task runs only once, either in the
+     *  background (see warmup) or when a query first needs the resource.
+     *  Intersection and phrase queries need neither of them.
+     */
+    FutureTask<Void> pagerankTask = new FutureTask<Void>(this::loadPagerank, null);
+    FutureTask<Void> hitsTask = new FutureTask<Void>(this::loadHits, null);
+
+    /** The pairs of consecutive words with their own postings, or null if there are none */
+    BiwordIndex biwords;
+
+    /** The best results of recent queries, or null if they are not cached */
+    ResultCache resultCache;
+
+    /** When this Searcher was created, for reporting when the resources are ready */
+    long createdAt = System.currentTimeMillis();
     
     /** Constructor */
     public Searcher( Index index, KGramIndex kgIndex ) {
         this.index = index;
         this.kgIndex = kgIndex;
-        this.hitsRanker = new HITSRanker("data/linksDavis.txt", "data/davisTitles.txt", index);
+    }
 
-        // Read pagerank from file
+    /**
+     *  Starts loading the ranking resources in a background thread, so that
+     *  they are (hopefully) ready before the first ranked query.
+     */
+    public void warmup() {
+        Thread thread = new Thread(() -> {
+            pagerankTask.run();
+            hitsTask.run();
+        }, "ranking-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     *  Makes sure the resource loaded by <code>task</code> is ready. Loads it in the
+     *  calling thread if nobody has started it yet, otherwise waits for it.
+     */
+    private void await(FutureTask<Void> task) {
+        task.run();
+        try {
+            task.get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     *  Reads the pagerank scores and the topic-sensitive pagerank vectors.
+     */
+    private void loadPagerank() {
+        long startTime = System.currentTimeMillis();
         try (BufferedReader br = new BufferedReader(new FileReader("data/pagerank.txt"))) {
             String line;
             while ((line = br.readLine()) != null) {
@@ -48,6 +142,63 @@ public class Searcher {
         } catch (IOException e) {
             e.printStackTrace();
         }
+
+        readTopicPagerank(TOPIC_PAGERANK_FNAME);
+        reportReady("PageRank", startTime);
+    }
+
+    /**
+     *  Reads the link graph for the HITS ranker.
+     */
+    private void loadHits() {
+        long startTime = System.currentTimeMillis();
+        HITSRanker ranker = new HITSRanker("data/linksDavis.txt", "data/davisTitles.txt", index);
+        ranker.maxRootSetSize = hitsRootSetSize;
+        ranker.maxInLinksPerNode = hitsInLinks;
+        ranker.useGlobalScores = hitsGlobal;
+        hitsRanker = ranker;
+        reportReady("HITS", startTime);
+    }
+
+    private void reportReady(String component, long startTime) {
+        long now = System.currentTimeMillis();
+        System.err.println(String.format("%s loaded in %d ms, ready for queries %.1f seconds after startup",
+                                         component, now - startTime, (now - createdAt) / 1000.0));
+    }
+
+    /**
+     *  Reads the topic-sensitive pagerank vectors, if they have been computed.
+     */
+    private void readTopicPagerank(String fileName) {
+        File file = new File(fileName);
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] parts = line.split(";");
+                if (parts[0].equals(TopicPageRank.TOPIC_HEADER)) {
+                    HashSet<String> terms = new HashSet<String>();
+                    if (parts.length > 2) {
+                        for (String term: parts[2].split(",")) {
+                            terms.add(term);
+                        }
+                    }
+                    topicTerms.add(terms);
+                }
+                else {
+                    double[] scores = new double[parts.length - 1];
+                    for (int i = 1; i < parts.length; i++) {
+                        scores[i - 1] = Double.parseDouble(parts[i]);
+                    }
+                    topicPagerank.put(parts[0], scores);
+                }
+            }
+            System.err.println("Read " + topicTerms.size() + " topic-sensitive pagerank vectors");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -55,70 +206,175 @@ public class Searcher {
      *  @return A postings list representing the result of the query.
      */
     public PostingsList search( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType ) { 
-        //
-        //  REPLACE THE STATEMENT BELOW WITH YOUR CODE
-        //
+        return search(query, queryType, rankingType, normType, null);
+    }
+
+    /**
+     *  Searches the index for postings matching the query, within the given
+     *  budget (or without limits if it is null). The cost of the query is
+     *  estimated once the postings lists have been read, and expensive HITS
+     *  queries that the budget does not admit are ranked in a cheaper way.
+     *  @return A postings list representing the result of the query.
+     *  @throws CancellationException if the query exceeds its budget.
+     */
+    public PostingsList search( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType, QueryBudget budget ) {
+        // The time of every stage is recorded in QueryMetrics, including
+        // the stages inside the index, which find the trace by its thread
+        SearchEvents.QueryEvent event = new SearchEvents.QueryEvent();
+        event.begin();
+        QueryTrace trace = QueryTrace.start();
+        PostingsList result = null;
+        try {
+            result = search(query, queryType, rankingType, normType, budget, trace);
+            return result;
+        }
+        finally {
+            trace.stop();
+            int results = result == null ? 0 : result.size();
+            QueryMetrics.get().record(trace, query, queryType, rankingType, results);
+            event.end();
+            if (event.shouldCommit()) {
+                event.set(trace, query, queryType, rankingType, results);
+                event.commit();
+            }
+        }
+    }
+
+    private PostingsList search(Query query, QueryType queryType, RankingType rankingType, NormalizationType normType, QueryBudget budget, QueryTrace trace) {
+        Index index = this.index.snapshot();
         if (query.queryterm.isEmpty()) {
             return new PostingsList();
         }
-        else if (queryType == QueryType.INTERSECTION_QUERY) {
-            PostingsList resultList = index.getPostings(query.queryterm.getFirst().term);
+        boolean wildcards = kgIndex != null && hasWildcard(query);
+        if (queryType == QueryType.PHRASE_QUERY && biwords != null && query.queryterm.size() > 1 && !wildcards) {
+            return searchPhrase(index, query, budget, trace);
+        }
+
+        // Terms that are not in the index get empty postings lists
+        long time = System.nanoTime();
+        PostingsList[] postingsLists = new PostingsList[query.queryterm.size()];
+        boolean allFound = true;
+        for (int i = 0; i < query.queryterm.size(); i++) {
+            String term = query.queryterm.get(i).term;
+            if (wildcards && term.indexOf(KGramIndex.WILDCARD) >= 0) {
+                postingsLists[i] = getWildcardPostings(index, term, budget, trace);
+            }
+            else {
+                postingsLists[i] = index.getPostings(term);
+            }
+            if (postingsLists[i] == null || postingsLists[i].size() == 0) {
+                postingsLists[i] = new PostingsList();
+                allFound = false;
+            }
+            trace.postings(query.queryterm.get(i).term, postingsLists[i].size());
+        }
+        time = trace.lap(QueryTrace.Stage.POSTINGS, time);
+
+        if (rankingType == RankingType.HITS && queryType == QueryType.RANKED_QUERY) {
+            await(hitsTask);
+            time = trace.lap(QueryTrace.Stage.RANKING, time);
+        }
+        if (budget != null && !budget.admit(estimateCost(postingsLists, queryType, rankingType))) {
+            // Too many expensive queries are running: HITS queries can be
+            // ranked in a cheaper way, other queries are given up
+            if (queryType != QueryType.RANKED_QUERY || rankingType != RankingType.HITS) {
+                throw new QueryBudget.Shed("Too many expensive queries are running");
+            }
+            budget.degraded = true;
+        }
+        time = System.nanoTime();
+
+        if (queryType == QueryType.INTERSECTION_QUERY) {
+            if (!allFound) {
+                return null;
+            }
+            PostingsList resultList = postingsLists[0];
             for (int i = 1; i < query.queryterm.size(); i++) {
-                QueryTerm queryterm = query.queryterm.get(i);
-                resultList = resultList.intersectWith(index.getPostings(queryterm.term));
+                charge(budget, resultList.size() + postingsLists[i].size());
+                resultList = resultList.intersectWith(postingsLists[i]);
             }
+            trace.lap(QueryTrace.Stage.MERGE, time);
             return resultList;
         }
         else if (queryType == QueryType.PHRASE_QUERY) {
-            PostingsList resultList = index.getPostings(query.queryterm.getFirst().term);
+            if (!allFound) {
+                return null;
+            }
+            PostingsList resultList = postingsLists[0];
             for (int i = 1; i < query.queryterm.size(); i++) {
-                QueryTerm queryterm = query.queryterm.get(i);
-                resultList = resultList.phraseWith(index.getPostings(queryterm.term), i);
+                charge(budget, resultList.size() + postingsLists[i].size());
+                resultList = resultList.phraseWith(postingsLists[i], i);
             }
+            trace.lap(QueryTrace.Stage.MERGE, time);
             return resultList;
         }
         else if (queryType == QueryType.RANKED_QUERY) {
-            PostingsList[] postingsLists = new PostingsList[query.queryterm.size()];
             PostingsList resultList = null;
 
             for (int i = 0; i < query.queryterm.size(); i++) {
-                QueryTerm queryterm = query.queryterm.get(i);
-                postingsLists[i] = index.getPostings(queryterm.term);
-                if (i == 0) {
+                if (postingsLists[i].size() == 0) {
+                    continue;
+                }
+                if (resultList == null) {
                     resultList = postingsLists[i];
                 }
                 else {
+                    charge(budget, resultList.size() + postingsLists[i].size());
                     resultList = resultList.unionWith(postingsLists[i]);
                 }
             }
+            if (resultList == null) {
+                return null;
+            }
+            // The scores are set on copies, since the entries belong to the index
+            resultList = resultList.copy();
+            time = trace.lap(QueryTrace.Stage.MERGE, time);
 
             if (rankingType == RankingType.TF_IDF) {
-                double[] tfidf = getTfidf(query, postingsLists, resultList, normType);
+                double[] tfidf = getTfidf(query, postingsLists, resultList, normType, budget);
                 for (int i = 0; i < resultList.size(); i++) {
                     resultList.get(i).score = tfidf[i];
                 }
+                time = trace.lap(QueryTrace.Stage.SCORE, time);
             }
             else if (rankingType == RankingType.PAGERANK) {
                 double[] pagerank = getPagerank(resultList);
                 for (int i = 0; i < resultList.size(); i++) {
                     resultList.get(i).score = pagerank[i];
                 }
+                time = trace.lap(QueryTrace.Stage.RANKING, time);
             }
             else if (rankingType == RankingType.COMBINATION) {
-                double[] tfidf = getTfidf(query, postingsLists, resultList, normType);
-                double[] pagerank = getPagerank(resultList);
+                double[] tfidf = getTfidf(query, postingsLists, resultList, normType, budget);
+                time = trace.lap(QueryTrace.Stage.SCORE, time);
+                double[] pagerank = getTopicPagerank(query, resultList);
                 for (int i = 0; i < resultList.size(); i++) {
                     resultList.get(i).score = tfidf[i] + 1000 * pagerank[i];
                 }
+                time = trace.lap(QueryTrace.Stage.RANKING, time);
             }
             else if (rankingType == RankingType.HITS) {
-                // TODO
-                System.err.println("HITS");
-                resultList = hitsRanker.rank(resultList);
-
+                boolean degraded = budget != null && budget.degraded;
+                // The root set is made of the documents with the highest tf-idf
+                // scores, which are also the ranking if HITS is too expensive
+                if (degraded || !hitsRanker.useGlobalScores && resultList.size() > hitsRanker.maxRootSetSize) {
+                    double[] tfidf = getTfidf(query, postingsLists, resultList, normType, budget);
+                    for (int i = 0; i < resultList.size(); i++) {
+                        resultList.get(i).score = tfidf[i];
+                    }
+                    time = trace.lap(QueryTrace.Stage.SCORE, time);
+                }
+                if (!degraded) {
+                    resultList = hitsRanker.rank(resultList, budget);
+                }
+                else if (hitsRanker.hasGlobalScores()) {
+                    resultList = hitsRanker.rankByGlobalScores(resultList);
+                }
+                time = trace.lap(QueryTrace.Stage.RANKING, time);
             }
 
             resultList.sortByScore();
+            trace.lap(QueryTrace.Stage.SORT, time);
             return resultList;
         }
         else {
@@ -126,11 +382,172 @@ public class Searcher {
         }
     }
 
-    private double[] getTfidf(Query query, PostingsList[] postingsLists, PostingsList resultList, NormalizationType normType) {
+    /**
+     *  Matches a phrase with the postings of the pairs of consecutive words.
+     *  Every pair that has its own postings is matched as one list, so a
+     *  phrase of two words is just a lookup, and the positions of a longer
+     *  phrase are only compared in the documents that have all its pairs,
+     *  which are much shorter lists than those of the words. Words that are
+     *  in no indexed pair are matched with their own postings.
+     */
+    private PostingsList searchPhrase(Index index, Query query, QueryBudget budget, QueryTrace trace) {
+        long time = System.nanoTime();
+        int n = query.queryterm.size();
+        ArrayList<PostingsList> lists = new ArrayList<PostingsList>();
+        ArrayList<Integer> offsets = new ArrayList<Integer>();
+        boolean coveredByPair = false;
+        for (int i = 0; i < n; i++) {
+            String word = query.queryterm.get(i).term;
+            String next = i + 1 < n ? query.queryterm.get(i + 1).term : null;
+            boolean pair = next != null && biwords.indexes(word, next);
+            if (pair || !coveredByPair) {
+                PostingsList list = index.getPostings(pair ? BiwordIndex.key(word, next) : word);
+                int size = list == null ? 0 : list.size();
+                trace.postings(pair ? word + " " + next : word, size);
+                if (size == 0) {
+                    trace.lap(QueryTrace.Stage.POSTINGS, time);
+                    // As in the other path, only a missing word gives no result list
+                    return pair && wordsIndexed(index, query) ? new PostingsList() : null;
+                }
+                lists.add(list);
+                offsets.add(i);
+            }
+            coveredByPair = pair;
+        }
+        time = trace.lap(QueryTrace.Stage.POSTINGS, time);
+
+        if (budget != null && !budget.admit(estimateCost(lists.toArray(new PostingsList[0]), QueryType.PHRASE_QUERY, null))) {
+            throw new QueryBudget.Shed("Too many expensive queries are running");
+        }
+        time = System.nanoTime();
+        // The first list is always at offset 0, since the first word is in it
+        PostingsList resultList = lists.get(0);
+        for (int i = 1; i < lists.size(); i++) {
+            charge(budget, resultList.size() + lists.get(i).size());
+            resultList = resultList.phraseWith(lists.get(i), offsets.get(i));
+        }
+        trace.lap(QueryTrace.Stage.MERGE, time);
+        return resultList;
+    }
+
+    /** True if a term of the query has a wildcard. */
+    private static boolean hasWildcard(Query query) {
+        for (Query.QueryTerm term : query.queryterm) {
+            if (term.term.indexOf(KGramIndex.WILDCARD) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     *  The union of the postings of the words that match a wildcard term,
+     *  such as "univ*" or "c*nia", which are found with the k-gram index.
+     *  The term is then searched for like one word. At most
+     *  KGramIndex.MAX_EXPANSION words are used, the first ones in sorted
+     *  order, and no more words once their postings add up to
+     *  MAX_WILDCARD_POSTINGS, so that a short prefix cannot make the query
+     *  slow.
+     */
+    private PostingsList getWildcardPostings(Index index, String pattern, QueryBudget budget, QueryTrace trace) {
+        long time = System.nanoTime();
+        int[] termIDs = kgIndex.expand(pattern, KGramIndex.MAX_EXPANSION);
+        trace.lap(QueryTrace.Stage.EXPAND, time);
+        ArrayList<PostingsList> lists = new ArrayList<PostingsList>();
+        long postings = 0;
+        for (int termID : termIDs) {
+            PostingsList list = index.getPostings(kgIndex.getTermByID(termID));
+            if (list == null || list.size() == 0) {
+                continue;
+            }
+            if (postings + list.size() > MAX_WILDCARD_POSTINGS && !lists.isEmpty()) {
+                break;
+            }
+            lists.add(list);
+            postings += list.size();
+        }
+        charge(budget, postings);
+        time = System.nanoTime();
+        PostingsList union = PostingsList.union(lists);
+        trace.lap(QueryTrace.Stage.UNION, time);
+        return union;
+    }
+
+    /** True if every word of the query has postings. */
+    private static boolean wordsIndexed(Index index, Query query) {
+        for (Query.QueryTerm term : query.queryterm) {
+            PostingsList list = index.getPostings(term.term);
+            if (list == null || list.size() == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *  Searches the index within the given budget (or without limits if it
+     *  is null), and returns the <code>n</code> best results together with
+     *  the number of matching documents. The results are taken from the
+     *  result cache if there is one and <code>n</code> is within its depth;
+     *  they may then contain more than <code>n</code> results.
+     *  @throws CancellationException if the query exceeds its budget.
+     */
+    public ResultCache.Results searchTop( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType, QueryBudget budget, int n ) {
+        ResultCache cache = resultCache;
+        if (cache == null || n > ResultCache.DEPTH || query.queryterm.isEmpty()) {
+            PostingsList results = search(query, queryType, rankingType, normType, budget);
+            return new ResultCache.Results(results, n, budget != null && budget.degraded);
+        }
+        // The generation is read before the search takes its snapshot, so
+        // the results are never older than the generation they are cached for
+        long generation = index.generation();
+        return cache.get(new ResultCache.Key(query, queryType, rankingType, normType), generation, budget,
+                         () -> search(query, queryType, rankingType, normType, budget));
+    }
+
+    /**
+     *  Estimates the work of a query before it is run, as the number of
+     *  postings it scans: every postings list is merged once, ranked queries
+     *  scan the union once more for every term, and HITS queries add the
+     *  work of iterating over the largest possible base set.
+     */
+    long estimateCost(PostingsList[] postingsLists, QueryType queryType, RankingType rankingType) {
+        long postings = 0;
+        for (PostingsList list: postingsLists) {
+            postings += list.size();
+        }
+        if (queryType != QueryType.RANKED_QUERY) {
+            return postings;
+        }
+        long cost = postings;
+        if (rankingType == RankingType.TF_IDF || rankingType == RankingType.COMBINATION) {
+            cost += postings * postingsLists.length;
+        }
+        else if (rankingType == RankingType.HITS && hitsRanker != null) {
+            if (!hitsRanker.useGlobalScores && postings > hitsRanker.maxRootSetSize) {
+                cost += postings * postingsLists.length;
+            }
+            cost += hitsRanker.estimateCost((int) Math.min(postings, Index.docNames.size()));
+        }
+        return cost;
+    }
+
+    /** Charges <code>n</code> scanned postings to the budget, if there is one. */
+    private static void charge(QueryBudget budget, long n) {
+        if (budget != null) {
+            budget.charge(n);
+        }
+    }
+
+    double[] getTfidf(Query query, PostingsList[] postingsLists, PostingsList resultList, NormalizationType normType, QueryBudget budget) {
         double[] tfidf = new double[resultList.size()];
         
         for (int i = 0; i < query.queryterm.size(); i++) {
             int df = postingsLists[i].size();
+            if (df == 0) {
+                continue;
+            }
+            charge(budget, resultList.size() + df);
             double idf = Math.log((double) Index.docNames.size() / df);
             double weight_queryterm = 1; // 1 / idf;
 
@@ -157,18 +574,114 @@ public class Searcher {
     }
 
     private double[] getPagerank(PostingsList resultList) {
+        return getPagerank(alignRankingColumns(), resultList);
+    }
+
+    private static double[] getPagerank(RankingColumns columns, PostingsList resultList) {
+        double[] pagerankByDoc = columns.pagerank;
         double[] pageranks = new double[resultList.size()];
         for (int i = 0; i < resultList.size(); i++) {
-            String fileName = Index.docNames.get(resultList.get(i).docID);
-            int index = fileName.lastIndexOf("\\");
-            fileName = fileName.substring(index + 1);
-            if (pagerank.containsKey(fileName)) {
-                pageranks[i] = pagerank.get(fileName);
+            int docID = resultList.get(i).docID;
+            pageranks[i] = docID < pagerankByDoc.length ? pagerankByDoc[docID] : 0;
+        }
+        return pageranks;
+    }
+
+    /**
+     *  Blends the global pagerank with the topic-sensitive pageranks. Each topic
+     *  gets the fraction of query terms that belong to it as its weight, and
+     *  the global pagerank gets what is left.
+     */
+    private double[] getTopicPagerank(Query query, PostingsList resultList) {
+        RankingColumns columns = alignRankingColumns();
+        double[] pageranks = getPagerank(columns, resultList);
+        double[][] topicPagerankByDoc = columns.topicPagerank;
+        int numberOfTopics = topicTerms.size();
+        if (numberOfTopics == 0) {
+            return pageranks;
+        }
+
+        double[] weights = new double[numberOfTopics];
+        double topicWeight = 0;
+        for (int t = 0; t < numberOfTopics; t++) {
+            for (QueryTerm queryterm: query.queryterm) {
+                if (topicTerms.get(t).contains(queryterm.term)) {
+                    weights[t] += 1.0 / query.queryterm.size();
+                }
             }
-            else {
-                pageranks[i] = 0;
+            topicWeight += weights[t];
+        }
+        if (topicWeight == 0) {
+            return pageranks;
+        }
+        if (topicWeight > 1) {
+            for (int t = 0; t < numberOfTopics; t++) {
+                weights[t] /= topicWeight;
+            }
+            topicWeight = 1;
+        }
+
+        for (int i = 0; i < resultList.size(); i++) {
+            int docID = resultList.get(i).docID;
+            double score = (1 - topicWeight) * pageranks[i];
+            for (int t = 0; t < numberOfTopics; t++) {
+                if (weights[t] > 0 && docID < topicPagerankByDoc[t].length) {
+                    score += weights[t] * topicPagerankByDoc[t][docID];
+                }
             }
+            pageranks[i] = score;
         }
         return pageranks;
     }
+
+    /**
+     *  Returns the docID-aligned pagerank arrays, building them again when
+     *  the index has changed since (documents added by the LiveIndexer get
+     *  new docIDs, even when as many others are deleted). After this, a
+     *  pagerank lookup is a single array read. The arrays are replaced, not
+     *  changed, so running queries can keep using the old ones, and the lock
+     *  is only taken to build them.
+     */
+    private RankingColumns alignRankingColumns() {
+        // The generation is read before the document names, so that new
+        // documents are at worst aligned once more
+        long generation = index.generation();
+        RankingColumns columns = rankingColumns;
+        if (columns != null && columns.generation >= generation) {
+            return columns;
+        }
+        synchronized (this) {
+            columns = rankingColumns;
+            if (columns != null && columns.generation >= generation) {
+                return columns;
+            }
+            await(pagerankTask);
+            int maxDocID = -1;
+            for (int docID: Index.docNames.keySet()) {
+                maxDocID = Math.max(maxDocID, docID);
+            }
+            double[] pagerankByDoc = new double[maxDocID + 1];
+            double[][] topicPagerankByDoc = new double[topicTerms.size()][maxDocID + 1];
+            for (HashMap.Entry<Integer, String> entry: Index.docNames.entrySet()) {
+                String fileName = TopicPageRank.getFileName(entry.getValue());
+                int docID = entry.getKey();
+                if (docID > maxDocID) {
+                    // Added after the arrays were sized, aligned next time
+                    continue;
+                }
+                Double pr = pagerank.get(fileName);
+                if (pr != null) {
+                    pagerankByDoc[docID] = pr;
+                }
+                double[] scores = topicPagerank.get(fileName);
+                if (scores != null) {
+                    for (int t = 0; t < scores.length && t < topicPagerankByDoc.length; t++) {
+                        topicPagerankByDoc[t][docID] = scores[t];
+                    }
+                }
+            }
+            rankingColumns = new RankingColumns(generation, pagerankByDoc, topicPagerankByDoc);
+            return rankingColumns;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,231 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+
+/**
+ *   An index made of a base index (built or loaded when the engine starts)
+ *   and a number of small in-memory segments holding the documents that
+ *   have been added since, see LiveIndexer.
+ *
+ *   Segments are never changed once they have been added, and the list of
+ *   segments and the set of deleted documents are replaced together as one
+ *   immutable Segments object, so a new segment can be built while queries
+ *   are running against the old ones, and a snapshot of the index is just
+ *   a reference to the current Segments. The postings of a term are those of the base index followed by
+ *   those of every segment, without the deleted documents. Since every
+ *   segment only holds documents with larger docIDs than the ones before
+ *   it, the result is sorted by docID.
+ */
+public class SegmentedIndex implements Index {
+
+    /** Segments with fewer postings entries than this are merged as if they had this many. */
+    public final static long MIN_MERGE_SIZE = 1000;
+
+    /** The index built or loaded when the engine started. */
+    Index base;
+
+    /** The in-memory segments and the deleted documents. */
+    volatile Segments segments = new Segments( new ArrayList<HashedIndex>(), new HashSet<Integer>(), 0 );
+
+
+    /**
+     *  The in-memory segments, oldest first, and the documents that have been
+     *  deleted or replaced by a newer version. Never changed once created.
+     */
+    static class Segments {
+        final ArrayList<HashedIndex> list;
+        final HashSet<Integer> deleted;
+        final long generation;
+
+        Segments( ArrayList<HashedIndex> list, HashSet<Integer> deleted, long generation ) {
+            this.list = list;
+            this.deleted = deleted;
+            this.generation = generation;
+        }
+    }
+
+
+    public SegmentedIndex( Index base ) {
+        this.base = base;
+    }
+
+
+    private SegmentedIndex( Index base, Segments segments ) {
+        this.base = base;
+        this.segments = segments;
+    }
+
+
+    /**
+     *  Returns the index with the segments and deleted documents it has
+     *  now. Segments published later are not seen by the snapshot.
+     */
+    public Index snapshot() {
+        return new SegmentedIndex( base.snapshot(), segments );
+    }
+
+
+    /**
+     *  Inserts a token into the base index (only done while the engine starts).
+     */
+    public void insert( CharSequence token, int docID, int offset ) {
+        base.insert( token, docID, offset );
+    }
+
+
+    /**
+     *  Returns the postings for a specific term, or null if the term is
+     *  in neither the base index nor any of the segments.
+     */
+    public PostingsList getPostings( String token ) {
+        Segments segments = this.segments;
+        HashSet<Integer> deleted = segments.deleted;
+        PostingsList basePostings = base.getPostings( token );
+        if ( segments.list.isEmpty() && deleted.isEmpty() ) {
+            return basePostings;
+        }
+        PostingsList result = null;
+        if ( basePostings != null ) {
+            result = new PostingsList();
+            addLive( basePostings, deleted, result );
+        }
+        for ( HashedIndex segment : segments.list ) {
+            PostingsList postings = segment.getPostings( token );
+            if ( postings != null ) {
+                if ( result == null ) {
+                    result = new PostingsList();
+                }
+                addLive( postings, deleted, result );
+            }
+        }
+        return result;
+    }
+
+
+    /** Appends the entries of <code>postings</code> whose documents have not been deleted. */
+    private void addLive( PostingsList postings, HashSet<Integer> deleted, PostingsList result ) {
+        for ( int i=0; i<postings.size(); i++ ) {
+            PostingsEntry entry = postings.get( i );
+            if ( !deleted.contains( entry.docID )) {
+                result.add( entry );
+            }
+        }
+    }
+
+
+    /**
+     *  Returns the segments there would be after adding <code>segment</code>
+     *  and merging the ones of about the same size (see {@link #merge}).
+     *  The deleted documents whose postings were left out of the merged
+     *  segments are added to <code>dropped</code>. Nothing is visible to
+     *  queries until the result is given to {@link #publish}, so this can be
+     *  done while queries are running.
+     */
+    public ArrayList<HashedIndex> segmentsWith( HashedIndex segment, int mergeFactor, Set<Integer> dropped ) {
+        ArrayList<HashedIndex> newSegments = new ArrayList<HashedIndex>( segments.list );
+        newSegments.add( segment );
+        return merge( newSegments, mergeFactor, segments.deleted, dropped );
+    }
+
+
+    /**
+     *  Makes <code>newSegments</code> searchable and removes the documents
+     *  <code>deletedDocs</code>. The documents in <code>dropped</code> are
+     *  no longer in any segment, so they no longer need to be marked as
+     *  deleted. The segments must not be changed after this.
+     */
+    public void publish( ArrayList<HashedIndex> newSegments, Collection<Integer> deletedDocs, Collection<Integer> dropped ) {
+        HashSet<Integer> deleted = segments.deleted;
+        if ( !deletedDocs.isEmpty() || !dropped.isEmpty() ) {
+            deleted = new HashSet<Integer>( deleted );
+            deleted.removeAll( dropped );
+            deleted.addAll( deletedDocs );
+        }
+        segments = new Segments( newSegments, deleted, segments.generation + 1 );
+    }
+
+
+    /**
+     *  Merges every <code>mergeFactor</code> neighbouring segments of about
+     *  the same size into one, youngest first, until there are no more such
+     *  segments. Segments are of about the same size when the largest has at
+     *  most <code>mergeFactor</code> times as many postings entries as the
+     *  smallest, counting segments smaller than MIN_MERGE_SIZE as that
+     *  large. A merged segment is then at least 1.5 times larger than each
+     *  of its parts, so a document is copied a logarithmic number of times
+     *  instead of at every refresh, and there are a logarithmic number of
+     *  segments. The postings of the documents in <code>deleted</code> are
+     *  left out of the merged segments, and the documents are added to
+     *  <code>dropped</code>. The old segments are not changed, since queries
+     *  may still be using them.
+     */
+    static ArrayList<HashedIndex> merge( ArrayList<HashedIndex> segments, int mergeFactor, Set<Integer> deleted, Set<Integer> dropped ) {
+        ArrayList<HashedIndex> result = new ArrayList<HashedIndex>( segments );
+        for ( int end=result.size(); end>=mergeFactor; end-- ) {
+            int start = end - mergeFactor;
+            long min = Long.MAX_VALUE, max = 0;
+            for ( int i=start; i<end; i++ ) {
+                long size = Math.max( MIN_MERGE_SIZE, result.get( i ).postingsEntries );
+                min = Math.min( min, size );
+                max = Math.max( max, size );
+            }
+            if ( max <= mergeFactor * min ) {
+                HashedIndex merged = new HashedIndex();
+                for ( HashedIndex segment : result.subList( start, end )) {
+                    merged.append( segment, deleted, dropped );
+                }
+                result.subList( start, end ).clear();
+                result.add( start, merged );
+                // Look again from the youngest segments
+                end = result.size() + 1;
+            }
+        }
+        return result;
+    }
+
+
+    /** Incremented by every publish. */
+    public long generation() {
+        return segments.generation;
+    }
+
+
+    /**
+     *  The words of the base index. Words that only occur in documents
+     *  added while the engine is running are not in it.
+     */
+    public List<String> terms() {
+        return base.terms();
+    }
+
+
+    /** The document frequencies in the base index. */
+    public int[] documentFrequencies() {
+        return base.documentFrequencies();
+    }
+
+
+    /** Number of in-memory segments. */
+    public int numberOfSegments() {
+        return segments.list.size();
+    }
+
+
+    public void cleanup() {
+        base.cleanup();
+    }
+
+    public void init() {
+        base.init();
+    }
+}
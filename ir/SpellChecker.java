@@ -7,9 +7,26 @@
 
 package ir;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 
 
+/**
+ *   Suggests corrections of query words that are not in the index.
+ *
+ *   The candidate corrections of a word are the words of the k-gram index
+ *   whose Jaccard coefficient with it, computed from the number of k-grams
+ *   they share and the k-gram counts of the KGramIndex, is at least
+ *   JACCARD_THRESHOLD. The candidates within MAX_EDIT_DISTANCE of the word
+ *   are ranked by their Jaccard coefficient times the log of their
+ *   document frequency, so that common words are preferred. The edit
+ *   distance is bounded (see editDistance): a candidate is given up as
+ *   soon as it cannot be within MAX_EDIT_DISTANCE any more.
+ */
 public class SpellChecker {
     /** The regular inverted index to be used by the spell checker */
     Index index;
@@ -17,6 +34,24 @@ public class SpellChecker {
     /** K-gram index to be used by the spell checker */
     KGramIndex kgIndex;
 
+    /**
+     *  If set, the candidate corrections are taken from the deletion index
+     *  instead of the k-gram postings. The suggestions are the same.
+     */
+    DeletionIndex deletions;
+
+    /** Max number of counter arrays kept for reuse (see commonKGrams). */
+    final static int MAX_POOLED_COUNTERS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /**
+     *  Arrays for counting the k-grams every word of the k-gram index shares
+     *  with the word being checked, by ID. A word borrows one and gives it
+     *  back set to 0, so that an array as large as the vocabulary is not
+     *  allocated for every word (the server runs every query on a new
+     *  thread). At most MAX_POOLED_COUNTERS are kept.
+     */
+    private final ArrayBlockingQueue<int[]> commonKGrams = new ArrayBlockingQueue<int[]>(MAX_POOLED_COUNTERS);
+
     /** The auxiliary class for containing the value of your ranking function for a token */
     class KGramStat implements Comparable {
         double score;
@@ -66,10 +101,7 @@ public class SpellChecker {
      *  of the two sets contains <code>intersection</code> elements.
      */
     private double jaccard(int szA, int szB, int intersection) {
-        //
-        // YOUR CODE HERE
-        //
-        return 0;
+        return (double) intersection / (szA + szB - intersection);
     }
 
     /**
@@ -80,11 +112,109 @@ public class SpellChecker {
      *      => substitute (cost 2)
      */
     private int editDistance(String s1, String s2) {
-        //
-        // YOUR CODE HERE
-        //
+        return editDistance(new Letters(s1), s2, Integer.MAX_VALUE - 1);
+    }
+
+    /**
+     *  The positions of the letters of a word as bit masks, in blocks of 64
+     *  positions: bit i of the mask of a letter is set if letter i of the
+     *  word is that letter. Made once for a misspelled word and used for all
+     *  its candidates.
+     */
+    static class Letters {
+        final int length;
+        final char[] letters;
+        final long[][] masks;
+        final long[] none;
+
+        Letters(String word) {
+            length = word.length();
+            int blocks = (length + 63) / 64;
+            char[] distinct = new char[length];
+            long[][] bits = new long[length][];
+            int n = 0;
+            for (int i = 0; i < length; i++) {
+                char c = word.charAt(i);
+                int l = 0;
+                while (l < n && distinct[l] != c) {
+                    l++;
+                }
+                if (l == n) {
+                    distinct[n] = c;
+                    bits[n++] = new long[blocks];
+                }
+                bits[l][i / 64] |= 1L << (i % 64);
+            }
+            letters = Arrays.copyOf(distinct, n);
+            masks = Arrays.copyOf(bits, n);
+            none = new long[blocks];
+        }
+
+        long[] mask(char c) {
+            for (int l = 0; l < letters.length; l++) {
+                if (letters[l] == c) {
+                    return masks[l];
+                }
+            }
+            return none;
+        }
+    }
+
+    /**
+     *  The edit distance between the word of <code>a</code> and
+     *  <code>word</code>, or <code>max + 1</code> if it is larger than
+     *  <code>max</code>.
+     *
+     *  Since a substitution costs as much as a deletion and an insertion,
+     *  the distance is m + n - 2 * LCS, where m and n are the lengths of the
+     *  words and LCS is the length of their longest common subsequence.
+     *  The LCS is computed with the bit-parallel algorithm of Allison and
+     *  Dix (as improved by Hyyrö): after the first j letters of
+     *  <code>word</code>, bit i of V is 0 if the LCS of them and the first
+     *  i + 1 letters of the other word is longer than with its first i
+     *  letters, so the LCS is the number of 0 bits, and every letter takes
+     *  a few operations per 64 letters. The LCS can grow by at most one for
+     *  every letter left, so the computation is given up as soon as the
+     *  distance can no longer be within <code>max</code>.
+     */
+    static int editDistance(Letters a, String word, int max) {
+        int m = a.length, n = word.length();
+        if (Math.abs(m - n) > max) {
+            return max + 1;
+        }
+        if (m == 0) {
+            return n;
+        }
+        int blocks = a.none.length;
+        long lastBits = m % 64 == 0 ? -1L : (1L << (m % 64)) - 1;
+        long[] v = new long[blocks];
+        Arrays.fill(v, -1L);
+        for (int j = 0; j < n; j++) {
+            long[] pm = a.mask(word.charAt(j));
+            // V = (V + U) | (V - U) with U = V & PM, adding with carry across blocks
+            long carry = 0;
+            for (int b = 0; b < blocks; b++) {
+                long x = v[b];
+                long u = x & pm[b];
+                long sum = x + u + carry;
+                carry = ((x & u) | ((x | u) & ~sum)) >>> 63;
+                v[b] = sum | (x - u);
+            }
+            int best = Math.min(m, lcs(v, lastBits) + n - 1 - j);
+            if (m + n - 2 * best > max) {
+                return max + 1;
+            }
+        }
+        return m + n - 2 * lcs(v, lastBits);
+    }
 
-        return -1;
+    /** Number of 0 bits in the first m bits of V, where the last block has the bits <code>lastBits</code>. */
+    private static int lcs(long[] v, long lastBits) {
+        int lcs = 0;
+        for (int b = 0; b < v.length - 1; b++) {
+            lcs += Long.bitCount(~v[b]);
+        }
+        return lcs + Long.bitCount(~v[v.length - 1] & lastBits);
     }
 
     /**
@@ -92,22 +222,130 @@ public class SpellChecker {
      *  <code>limit</code> ranked suggestions for spelling correction.
      */
     public String[] check(Query query, int limit) {
-        //
-        // YOUR CODE HERE
-        //
+        List<List<KGramStat>> qCorrections = new ArrayList<List<KGramStat>>();
+        StringBuilder original = new StringBuilder();
+        for (Query.QueryTerm term : query.queryterm) {
+            qCorrections.add(corrections(term.term, limit));
+            original.append(original.length() > 0 ? " " : "").append(term.term);
+        }
+        ArrayList<String> suggestions = new ArrayList<String>();
+        for (KGramStat stat : mergeCorrections(qCorrections, limit)) {
+            if (!stat.getToken().equals(original.toString())) {
+                suggestions.add(stat.getToken());
+            }
+        }
+        return suggestions.toArray(new String[0]);
+    }
 
-        return null;
+    /**
+     *  The best corrections of one query word, best first. A word that is in
+     *  the index, or has a wildcard, is its own only correction. A word
+     *  without any correction is kept, with score 0, so that the other words
+     *  of the query can still be corrected.
+     */
+    private List<KGramStat> corrections(String word, int limit) {
+        Integer id = kgIndex.getIDByTerm(word);
+        if (id != null || word.indexOf(KGramIndex.WILDCARD) >= 0) {
+            return Collections.singletonList(new KGramStat(word, id == null ? 0 : Math.log(1 + kgIndex.df(id))));
+        }
+
+        HashSet<String> kgrams = new HashSet<String>(kgIndex.kgrams(word));
+        Letters letters = new Letters(word);
+        ArrayList<KGramStat> corrections = new ArrayList<KGramStat>();
+        if (deletions != null) {
+            for (int termID : deletions.candidates(word)) {
+                String candidate = kgIndex.getTermByID(termID);
+                int common = 0;
+                for (String kgram : new HashSet<String>(kgIndex.kgrams(candidate))) {
+                    if (kgrams.contains(kgram)) {
+                        common++;
+                    }
+                }
+                addCorrection(corrections, letters, kgrams.size(), termID, common);
+            }
+        } else {
+            addKGramCorrections(corrections, letters, kgrams);
+        }
+        if (corrections.isEmpty()) {
+            return Collections.singletonList(new KGramStat(word, 0));
+        }
+        // Equal scores are ordered by word, so the order does not depend on how the candidates were found
+        corrections.sort((c1, c2) -> c1.score != c2.score ? Double.compare(c2.score, c1.score) : c1.token.compareTo(c2.token));
+        return corrections.subList(0, Math.min(limit, corrections.size()));
+    }
+
+    /**
+     *  Adds the corrections among the words that share k-grams with the
+     *  misspelled word, found by counting the shared k-grams in the k-gram
+     *  postings.
+     */
+    private void addKGramCorrections(List<KGramStat> corrections, Letters letters, HashSet<String> kgrams) {
+        int[] common = commonKGrams.poll();
+        if (common == null || common.length != kgIndex.size()) {
+            common = new int[kgIndex.size()];
+        }
+        int[] candidates = new int[64];
+        int n = 0;
+        for (String kgram : kgrams) {
+            for (int termID : kgIndex.getTermIDs(kgram)) {
+                if (common[termID]++ == 0) {
+                    if (n == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, 2 * n);
+                    }
+                    candidates[n++] = termID;
+                }
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            int termID = candidates[i];
+            addCorrection(corrections, letters, kgrams.size(), termID, common[termID]);
+            common[termID] = 0;
+        }
+        // Not given back if this failed half-way, since it may not be all 0
+        commonKGrams.offer(common);
+    }
+
+    /**
+     *  Adds the word with ID <code>termID</code>, which shares
+     *  <code>common</code> of the <code>numKGrams</code> k-grams of the
+     *  misspelled word, if it is similar enough and within
+     *  MAX_EDIT_DISTANCE of it.
+     */
+    private void addCorrection(List<KGramStat> corrections, Letters letters, int numKGrams, int termID, int common) {
+        double jaccard = jaccard(numKGrams, kgIndex.numKGrams(termID), common);
+        if (jaccard < JACCARD_THRESHOLD) {
+            return;
+        }
+        String candidate = kgIndex.getTermByID(termID);
+        if (editDistance(letters, candidate, MAX_EDIT_DISTANCE) > MAX_EDIT_DISTANCE) {
+            return;
+        }
+        corrections.add(new KGramStat(candidate, jaccard * Math.log(1 + kgIndex.df(termID))));
     }
 
     /**
      *  Merging ranked candidate spelling corrections for all query terms available in
      *  <code>qCorrections</code> into one final merging of query phrases. Returns up
      *  to <code>limit</code> corrected phrases.
+     *
+     *  The phrases are built one word at a time, keeping only the
+     *  <code>limit</code> best ones, scored by the sum of the scores of
+     *  their words.
      */
     private List<KGramStat> mergeCorrections(List<List<KGramStat>> qCorrections, int limit) {
-        //
-        // YOUR CODE HERE
-        //
-        return null;
+        List<KGramStat> phrases = Collections.singletonList(new KGramStat("", 0));
+        for (List<KGramStat> corrections : qCorrections) {
+            ArrayList<KGramStat> longer = new ArrayList<KGramStat>();
+            for (KGramStat phrase : phrases) {
+                for (KGramStat correction : corrections) {
+                    String token = phrase.token.isEmpty() ? correction.token : phrase.token + " " + correction.token;
+                    longer.add(new KGramStat(token, phrase.score + correction.score));
+                }
+            }
+            longer.sort((c1, c2) -> Double.compare(c2.score, c1.score));
+            phrases = longer.subList(0, Math.min(limit, longer.size()));
+        }
+        return phrases;
     }
 }
@@ -0,0 +1,172 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ *   Maps every distinct term to a dense int id 0, 1, 2, ... while indexing.
+ *
+ *   Terms can be looked up with any CharSequence (e.g. the reusable token
+ *   view of the Tokenizer) without creating a String. The characters of all
+ *   terms are stored back to back in one char array, and a String is only
+ *   created when a term is asked for with {@link #term}, e.g. when the
+ *   index is written to disk.
+ */
+public class TermDictionary {
+
+    /** The characters of all terms. Term i is chars[start[i]..start[i+1]). */
+    char[] chars = new char[1 << 16];
+    int[] start = new int[1025];
+
+    /** The hash code of every term, so that the table can be grown without rehashing strings. */
+    int[] hashes = new int[1024];
+
+    /** Open addressing hash table with linear probing. Holds term id + 1, or 0 if empty. */
+    int[] table = new int[2048];
+
+    /** Number of terms. */
+    int size = 0;
+
+    /** Number of calls to add, hash table slots probed by them, and the most slots probed by one. */
+    long lookups = 0;
+    long probes = 0;
+    int maxProbes = 0;
+
+
+    /** Number of distinct terms. */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     *  The same hash code as String.hashCode, so it does not matter if the
+     *  term is given as a String or as some other CharSequence.
+     */
+    static int hash( CharSequence term ) {
+        int h = 0;
+        for ( int i=0; i<term.length(); i++ ) {
+            h = 31*h + term.charAt( i );
+        }
+        return h ^ ( h >>> 16 );
+    }
+
+
+    /** Returns the id of <code>term</code>, or -1 if it is not in the dictionary. */
+    public int get( CharSequence term ) {
+        int h = hash( term );
+        int mask = table.length - 1;
+        for ( int slot = h & mask; table[slot] != 0; slot = ( slot + 1 ) & mask ) {
+            int id = table[slot] - 1;
+            if ( hashes[id] == h && equals( id, term )) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+
+    /** Returns the id of <code>term</code>, adding it to the dictionary if it is new. */
+    public int add( CharSequence term ) {
+        int h = hash( term );
+        int mask = table.length - 1;
+        int slot = h & mask;
+        int probed = 1;
+        lookups++;
+        for ( ; table[slot] != 0; slot = ( slot + 1 ) & mask, probed++ ) {
+            int id = table[slot] - 1;
+            if ( hashes[id] == h && equals( id, term )) {
+                countProbes( probed );
+                return id;
+            }
+        }
+        countProbes( probed );
+        int id = size++;
+        if ( size == hashes.length ) {
+            hashes = Arrays.copyOf( hashes, 2 * size );
+            start = Arrays.copyOf( start, 2 * size + 1 );
+        }
+        int len = term.length();
+        int end = start[id];
+        if ( end + len > chars.length ) {
+            chars = Arrays.copyOf( chars, Math.max( 2 * chars.length, end + len ));
+        }
+        for ( int i=0; i<len; i++ ) {
+            chars[end + i] = term.charAt( i );
+        }
+        start[id + 1] = end + len;
+        hashes[id] = h;
+        table[slot] = id + 1;
+        if ( 2 * size > table.length ) {
+            rehash();
+        }
+        return id;
+    }
+
+
+    private void countProbes( int probed ) {
+        probes += probed;
+        if ( probed > maxProbes ) {
+            maxProbes = probed;
+        }
+    }
+
+
+    /** Returns term number <code>id</code> as a String. */
+    public String term( int id ) {
+        return new String( chars, start[id], start[id + 1] - start[id] );
+    }
+
+
+    /**
+     *  All terms, in the order of their ids. The list is a view, so terms
+     *  added later are also in it, and every term is made a String when it
+     *  is asked for.
+     */
+    public List<String> terms() {
+        return new AbstractList<String>() {
+            public String get( int id ) {
+                return term( id );
+            }
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+
+    private boolean equals( int id, CharSequence term ) {
+        int s = start[id];
+        int len = start[id + 1] - s;
+        if ( len != term.length() ) {
+            return false;
+        }
+        for ( int i=0; i<len; i++ ) {
+            if ( chars[s + i] != term.charAt( i )) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /** Doubles the hash table. */
+    private void rehash() {
+        table = new int[2 * table.length];
+        int mask = table.length - 1;
+        for ( int id=0; id<size; id++ ) {
+            int slot = hashes[id] & mask;
+            while ( table[slot] != 0 ) {
+                slot = ( slot + 1 ) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+}
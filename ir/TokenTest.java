@@ -9,6 +9,7 @@ package ir;
 
 import java.io.*;
 import java.nio.charset.*;
+import java.nio.file.Files;
 
 
 /** 
@@ -21,6 +22,7 @@ public class TokenTest {
     boolean remove_punctuation = false;
     String patternsfile = null;
     String filename = null;
+    int benchmark_rounds = 0;
 
     /**
      *  Tokenizes and indexes the file @code{f}. If @code{f} is a directory,
@@ -55,6 +57,41 @@ public class TokenTest {
     }
 
 
+    /**
+     *  Tokenizes the file @code{f} @code{benchmark_rounds} times, first trying
+     *  every pattern on every token and then with the pattern prefilter, and
+     *  prints the throughput of both. Also checks that both give the same tokens.
+     */
+    public void benchmark( File f ) throws IOException {
+        String text = new String( Files.readAllBytes( f.toPath() ), StandardCharsets.UTF_8 );
+        long[] checksum = new long[2];
+        for ( int mode=0; mode<2; mode++ ) {
+            long best = Long.MAX_VALUE;
+            int tokens = 0;
+            for ( int round=0; round<benchmark_rounds; round++ ) {
+                Tokenizer tok = new Tokenizer( new StringReader( text ), case_folding, remove_diacritics, remove_punctuation, patternsfile );
+                tok.use_prefilter = mode == 1;
+                long[] sum = new long[1];
+                long startTime = System.nanoTime();
+                tokens = tok.tokenize( token -> {
+                    for ( int i=0; i<token.length(); i++ ) {
+                        sum[0] = 31*sum[0] + token.charAt( i );
+                    }
+                    sum[0] = 31*sum[0] + ' ';
+                });
+                best = Math.min( best, System.nanoTime() - startTime );
+                checksum[mode] = sum[0];
+            }
+            System.err.println( String.format( "%s: %d tokens in %.2f ms (%.0f tokens/s)",
+                                               mode == 0 ? "All patterns" : "Prefiltered ",
+                                               tokens, best/1e6, tokens/(best/1e9) ));
+        }
+        if ( checksum[0] != checksum[1] ) {
+            System.err.println( "ERROR: the prefilter changed the tokens" );
+        }
+    }
+
+
     /** Prints usage information. */
     static void printHelpMessage() {
         System.err.println( "The following parameters are available: " );
@@ -63,6 +100,7 @@ public class TokenTest {
         System.err.println( "  -rd : removes diacritics  (optional)" );
         System.err.println( "  -p <filename> : name of the file containing regular expressions for non-standard words (optional)" );
         System.err.println( "  -f <filename> : name of file or directory to be tokenized (mandatory)" );
+        System.err.println( "  -b <rounds> : benchmarks the pattern prefilter on the file instead of printing tokens (optional)" );
     }
 
 
@@ -90,6 +128,15 @@ public class TokenTest {
                     printHelpMessage();
                     return;
                 }
+            } else if ( args[i].equals( "-b" )) {
+                i++;
+                if ( i<args.length ) {
+                    t.benchmark_rounds = Integer.parseInt( args[i] );
+                    i++;
+                } else {
+                    printHelpMessage();
+                    return;
+                }
             } else if ( args[i].equals( "-p" )) {
                 i++;
                 if ( i<args.length ) {
@@ -105,7 +152,13 @@ public class TokenTest {
                 return;
             }
         }
-        if ( t.filename != null ) {
+        if ( t.filename != null && t.benchmark_rounds > 0 ) {
+            try {
+                t.benchmark( new File( t.filename ));
+            } catch ( IOException e ) {
+                e.printStackTrace();
+            }
+        } else if ( t.filename != null ) {
             t.processFiles( new File( t.filename ));
         } else {
             printHelpMessage();
@@ -9,14 +9,12 @@ package ir;
 
 import java.io.Reader;
 import java.io.IOException;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Arrays;
 import java.util.ArrayList;
-import java.util.regex.Pattern;
+import java.util.ArrayDeque;
 import java.util.regex.Matcher;
-import java.util.regex.PatternSyntaxException;
 import java.lang.System;
 
 
@@ -52,6 +50,12 @@ public class Tokenizer {
 
     /** The reader from where tokens are read. */
     Reader reader;
+
+    /** 
+     *  UTF-8 encoded bytes from where tokens are read, e.g. a memory-mapped
+     *  file. Used instead of the reader if it is not null.
+     */
+    ByteBuffer bytes;
     
     /** 
      *  Characters are read @code{BUFFER_LENGTH} characters at a
@@ -66,13 +70,45 @@ public class Tokenizer {
     int token_start = -1;
 
     /** The next tokens to emit. */
-    ArrayList<String> token_queue = new ArrayList<String>();
+    ArrayDeque<String> token_queue = new ArrayDeque<String>();
+
+    /**
+     *  Receives the tokens produced by {@link #tokenize}.
+     */
+    public interface TokenSink {
+        /**
+         *  Called once for every token. The token is a view into the
+         *  tokenizer's buffer, and is only valid during the call.
+         */
+        void token( CharSequence token );
+    }
+
+    /** Where the tokens go. By default, they are copied into the token queue. */
+    TokenSink sink = token -> token_queue.add( token.toString() );
+
+    /** The view handed to the sink. It is reused for every token. */
+    final TokenView token_view = new TokenView();
+
+    /** The view the patterns are matched against. */
+    final TokenView match_view = new TokenView();
+
+    /** One reusable matcher per pattern. */
+    Matcher[] matchers = null;
 
     /** @code{true} if we've started reading tokens. */
     boolean started_reading = false;
 
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
-    ArrayList<Pattern> patterns = null;
+    PatternSet patterns = null;
+
+    /**
+     *  This flag should be set to 'false' to try every pattern on every
+     *  token, without first checking which patterns could match.
+     */
+    public boolean use_prefilter = true;
+
+    /** The characters of the current token, as computed by PatternSet.characterMask. */
+    final long[] token_mask = new long[2];
 
     /** Special characters (with diacritics) can be translated into these characters. */
     public static final char[] SPECIAL_CHAR_MAPPING = {
@@ -95,12 +131,90 @@ public class Tokenizer {
      *         for non-standard words (like dates, mail addresses, etc.).
      */
     public Tokenizer( Reader reader, boolean case_folding, boolean remove_diacritics, boolean remove_punctuation, String pattern_file ) {
+        this( case_folding, remove_diacritics, remove_punctuation, pattern_file );
         this.reader = reader;
+    }
+
+
+    /**
+     *  Constructor for a Tokenizer without input. Give it input with one
+     *  of the reset methods. The parameters are the same as above.
+     */
+    public Tokenizer( boolean case_folding, boolean remove_diacritics, boolean remove_punctuation, String pattern_file ) {
         this.case_folding = case_folding;
         this.remove_diacritics = remove_diacritics;
         this.remove_punctuation = remove_punctuation;
         if ( pattern_file != null ) {
-            readPatterns( pattern_file );
+            patterns = PatternSet.forFile( pattern_file );
+            matchers = new Matcher[patterns.size()];
+            for ( int i=0; i<matchers.length; i++ ) {
+                matchers[i] = patterns.patterns[i].matcher( "" );
+            }
+        }
+    }
+
+
+    /**
+     *  Starts tokenizing a new text read from <code>reader</code>, reusing
+     *  the buffer and the pattern matchers of this Tokenizer.
+     */
+    public void reset( Reader reader ) {
+        this.reader = reader;
+        this.bytes = null;
+        reset();
+    }
+
+
+    /**
+     *  Starts tokenizing the UTF-8 encoded text in <code>bytes</code> (from
+     *  its position to its limit), reusing the buffer and the pattern
+     *  matchers of this Tokenizer.
+     */
+    public void reset( ByteBuffer bytes ) {
+        this.reader = null;
+        this.bytes = bytes;
+        reset();
+    }
+
+
+    private void reset() {
+        ptr = 0;
+        token_start = -1;
+        started_reading = false;
+        token_queue.clear();
+    }
+
+
+    /**
+     *  A CharSequence view of a part of a char array. Lets tokens and
+     *  pattern matching work on the buffer without copying it into Strings.
+     */
+    static final class TokenView implements CharSequence {
+        char[] chars;
+        int start;
+        int length;
+
+        TokenView set( char[] chars, int start, int length ) {
+            this.chars = chars;
+            this.start = start;
+            this.length = length;
+            return this;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt( int index ) {
+            return chars[start + index];
+        }
+
+        public CharSequence subSequence( int from, int to ) {
+            return new String( chars, start + from, to - from );
+        }
+
+        public String toString() {
+            return new String( chars, start, length );
         }
     }
 
@@ -121,30 +235,6 @@ public class Tokenizer {
     }
 
 
-    /**
-     *  Read the patterns that match non-standard words  
-     */
-    private void readPatterns( String filename ) {
-        patterns = new ArrayList<Pattern>();
-        String line = null;
-        try {
-            BufferedReader in = new BufferedReader( new FileReader( filename ));
-            while (( line = in.readLine()) != null ) {
-                line = line.trim();
-                if ( !line.startsWith( "//" ) && line.length() > 0 ) {
-                    patterns.add( Pattern.compile( line ));
-                }
-            }
-        }
-        catch ( IOException e ) {
-            System.err.println( "Warning: IOException reading the regular expressions from file" );
-        }
-        catch ( PatternSyntaxException e ) {
-            System.err.println( "ERROR: Malformed regular expression: " + line );
-        }
-    }
-
-
     /** 
      *  Normalizes letters by converting to lower-case and possibly
      *  removing diacritics. This method is also used for checking
@@ -155,6 +245,16 @@ public class Tokenizer {
      */
     public boolean normalize( char[] buf, int ptr ) {
         char c = buf[ptr];
+        if ( c < 128 ) {
+            // ASCII: no diacritics, and only A-Z have to be case folded
+            if ( c >= 'A' && c <= 'Z' ) {
+                if ( case_folding ) {
+                    buf[ptr] = (char)( c + 32 );
+                }
+                return true;
+            }
+            return c >= '!' && c <= '~';
+        }
         if ( Character.isLetter( c )) {
             if ( remove_diacritics ) {
                 // Remove diacritics by mapping to the closest character 
@@ -200,16 +300,40 @@ public class Tokenizer {
     public String nextToken() throws IOException { 
         if ( token_queue.size() == 0 ) {
             if ( readTokens() )
-                return token_queue.remove( 0 );
+                return token_queue.poll();
             else
                 return null;
         }
         else {
-            return token_queue.remove( 0 );
+            return token_queue.poll();
         }
     }
 
 
+    /**
+     *  Streams all the remaining tokens into <code>tokenSink</code>, without
+     *  creating any objects per token. Should not be mixed with
+     *  {@link #nextToken} on the same Tokenizer.
+     *
+     *  @return the number of tokens.
+     */
+    public int tokenize( TokenSink tokenSink ) throws IOException {
+        TokenSink old_sink = sink;
+        int[] count = new int[1];
+        sink = token -> {
+            count[0]++;
+            tokenSink.token( token );
+        };
+        try {
+            while ( readTokens() ) {
+            }
+        } finally {
+            sink = old_sink;
+        }
+        return count[0];
+    }
+
+
     /**
      *  Reads the next token. 
      */ 
@@ -264,6 +388,14 @@ public class Tokenizer {
     }
 
 
+    /**
+     *  Emits the characters buf[start..end) as a token.
+     */
+    private void emit( int start, int end ) {
+        sink.token( token_view.set( buf, start, end-start ));
+    }
+
+
     /**
      *  Adds token to the queue
      */
@@ -271,18 +403,25 @@ public class Tokenizer {
         if ( token_start < 0 ) {
             return false;
         }
-        String s = new String( buf, token_start, ptr-token_start );
-        if ( patterns != null ) {
-            // Now let's see if the string s matches one of the patterns 
+        if ( matchers != null ) {
+            // Now let's see if the token matches one of the patterns 
             // for non-standard words
-            for ( Pattern p : patterns ) {
-                Matcher m = p.matcher( s );
+            match_view.set( buf, token_start, ptr-token_start );
+            // Find out which characters the token contains, so that patterns
+            // that cannot match are skipped without running the regex.
+            PatternSet.characterMask( buf, token_start, ptr, token_mask );
+            for ( int i=0; i<matchers.length; i++ ) {
+                if ( use_prefilter && !patterns.mayMatch( i, token_mask[0], token_mask[1] )) {
+                    continue;
+                }
+                Matcher m = matchers[i];
+                m.reset( match_view );
                 if ( m.find() ) {
                     // The string contains a non-standard word. First check the prefix 
                     // before the matching substring, then add the non-standard word  
                     // to the token queue, then check the remainder of the string.
-                    addStandardTokensToQueue( s.substring(0, m.start() ));
-                    token_queue.add( m.group() );
+                    addStandardTokensToQueue( token_start, token_start+m.start() );
+                    emit( token_start+m.start(), token_start+m.end() );
                     token_start += m.end();
                     addTokensToQueue();
                     return true;
@@ -290,44 +429,39 @@ public class Tokenizer {
             }
         }
         // This string contains only standard words
-        return addStandardTokensToQueue( s );
+        return addStandardTokensToQueue( token_start, ptr );
     }
 
 
     /**
      *  Adds standard tokens (i.e. tokens not matching any regular
-     *  expression) to the queue.
+     *  expression) in buf[start..end) to the queue.
      */
-    private boolean addStandardTokensToQueue( String s ) {
-        // This string s does not match any specific pattern.
+    private boolean addStandardTokensToQueue( int start, int end ) {
+        // This string does not match any specific pattern.
         // Then split it, considering all punctuation symbols
         // to be separators.
         boolean tokens_found = false;
-        StringBuffer smallbuf = new StringBuffer();
-        for ( int i=0; i<s.length(); i++ ) {
-            if ( punctuation( s.charAt( i ))) {
+        int word_start = start;
+        for ( int i=start; i<end; i++ ) {
+            if ( punctuation( buf[i] )) {
                 // The string before the punctuation sign is a token
                 // unless it is empty
-                String t = smallbuf.toString();
-                if ( t.length()>0 ) {
-                    token_queue.add( t );
-                    smallbuf = new StringBuffer();
+                if ( i>word_start ) {
+                    emit( word_start, i );
                     tokens_found = true;
                 }
+                word_start = i+1;
                 if ( !remove_punctuation ) {
-                    token_queue.add( "" + s.charAt( i ));
+                    emit( i, i+1 );
                     tokens_found = true;
                 }
             }
-            else {
-                smallbuf.append( s.charAt( i ));
-            }
         }
         // The string after the last punctuation sign is a token
         // unless it is empty
-        String t = smallbuf.toString();
-        if ( t.length()>0 ) {
-            token_queue.add( t );
+        if ( end>word_start ) {
+            emit( word_start, end );
             tokens_found = true;
         }   
         return tokens_found;
@@ -338,11 +472,74 @@ public class Tokenizer {
      *  Refills the buffer and adds end_of_file "\0" at the appropriate place.
      */
     private void refillBuffer( int start ) throws IOException {
-        int chars_read = reader.read( buf, start, BUFFER_LENGTH-start );
-        if ( chars_read >= 0 && chars_read < BUFFER_LENGTH-start ) {
-            buf[chars_read] = 0;
+        int chars_read = bytes != null ? decode( start ) : reader.read( buf, start, BUFFER_LENGTH-start );
+        if ( chars_read < 0 ) {
+            buf[start] = 0;
+        } else if ( chars_read < BUFFER_LENGTH-start ) {
+            buf[start+chars_read] = 0;
         }
     }
 
-}
 
+    /**
+     *  Decodes UTF-8 from @code{bytes} into buf[start..BUFFER_LENGTH).
+     *  Malformed input is replaced by U+FFFD, like InputStreamReader does.
+     *
+     *  @return the number of chars decoded, or -1 at the end of the input.
+     */
+    private int decode( int start ) {
+        if ( !bytes.hasRemaining() ) {
+            return -1;
+        }
+        int pos = bytes.position();
+        int limit = bytes.limit();
+        int i = start;
+        while ( i < BUFFER_LENGTH && pos < limit ) {
+            int b = bytes.get( pos );
+            if ( b >= 0 ) {
+                // ASCII
+                buf[i++] = (char) b;
+                pos++;
+                continue;
+            }
+            int n, cp;
+            if (( b & 0xe0 ) == 0xc0 ) {
+                n = 2;
+                cp = b & 0x1f;
+            } else if (( b & 0xf0 ) == 0xe0 ) {
+                n = 3;
+                cp = b & 0x0f;
+            } else if (( b & 0xf8 ) == 0xf0 ) {
+                n = 4;
+                cp = b & 0x07;
+            } else {
+                buf[i++] = '\ufffd';
+                pos++;
+                continue;
+            }
+            int j = 1;
+            while ( j < n && pos+j < limit && ( bytes.get( pos+j ) & 0xc0 ) == 0x80 ) {
+                cp = ( cp << 6 ) | ( bytes.get( pos+j ) & 0x3f );
+                j++;
+            }
+            if ( j < n ) {
+                // Truncated sequence
+                buf[i++] = '\ufffd';
+                pos += j;
+            } else if ( cp < 0x10000 ) {
+                buf[i++] = (char) cp;
+                pos += n;
+            } else if ( i+1 < BUFFER_LENGTH ) {
+                buf[i++] = Character.highSurrogate( cp );
+                buf[i++] = Character.lowSurrogate( cp );
+                pos += n;
+            } else {
+                // No room for the surrogate pair, decode it next time
+                break;
+            }
+        }
+        bytes.position( pos );
+        return i - start;
+    }
+
+}
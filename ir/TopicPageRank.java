@@ -0,0 +1,357 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ */
+
+package ir;
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ *   Computes topic-sensitive PageRank vectors offline.
+ *
+ *   Each topic has its own teleport set. Instead of jumping to a random
+ *   page, a bored surfer jumps to one of the seed pages of the topic.
+ *   The vectors are written as columns of a single file, so that the
+ *   Searcher only has to look up a few numbers per candidate document
+ *   at query time.
+ *
+ *   Each line in the topics file has the following format:
+ *    topicName;seed1,seed2,...,seedK[;word1,word2,...]
+ *   where a seed is one of
+ *    term:someword  - every page containing the word (needs a persistent index)
+ *    dir:somedir    - every file in the directory (recursively)
+ *    somePage.f     - a single page title
+ *   The words given with "term:", together with the optional words in the
+ *   third field, are used at query time to decide how much each topic
+ *   vector should contribute to the score.
+ *
+ *   The output file starts with one header line per topic:
+ *    #topic;topicName;word1,word2,...
+ *   followed by one line per page:
+ *    pageTitle;score1;score2;...;scoreN
+ *   with the scores in the same order as the header lines.
+ */
+public class TopicPageRank {
+
+    /**
+     *   Probability that the surfer gets bored and jumps to a seed page.
+     */
+    final static double BORED = 0.15;
+
+    /**
+     *   Convergence criterion: the scores do not change more
+     *   than EPSILON from one iteration to another.
+     */
+    final static double EPSILON = 0.0001;
+
+    /**
+     *   Max number of iterations for the power method.
+     */
+    final static int MAX_NUMBER_OF_STEPS = 1000;
+
+    /**
+     *   Prefix of the header lines in the output file.
+     */
+    public static final String TOPIC_HEADER = "#topic";
+
+    /**
+     *   Mapping from the titles to dense node numbers 0..numberOfDocs-1
+     */
+    HashMap<String,Integer> titleToNode = new HashMap<String,Integer>();
+
+    /**
+     *   Mapping from dense node numbers to titles
+     */
+    ArrayList<String> nodeToTitle = new ArrayList<String>();
+
+    /**
+     *   Out-links of every node, stored as one array. The out-links of
+     *   node i are outLinks[outStart[i]] ... outLinks[outStart[i+1]-1].
+     */
+    int[] outStart;
+    int[] outLinks;
+
+    /**
+     *   Names, query words and seed nodes of the topics
+     */
+    ArrayList<String> topicNames = new ArrayList<String>();
+    ArrayList<String> topicTerms = new ArrayList<String>();
+    ArrayList<int[]> topicSeeds = new ArrayList<int[]>();
+
+
+    /* --------------------------------------------- */
+
+
+    public TopicPageRank( String linksFilename, String titlesFilename ) {
+        readDocs( linksFilename, titlesFilename );
+    }
+
+
+    /**
+     *   Returns the file name at the end of a path.
+     */
+    static String getFileName( String path ) {
+        int index = Math.max( path.lastIndexOf( '/' ), path.lastIndexOf( '\\' ));
+        return path.substring( index + 1 );
+    }
+
+
+    /**
+     *   Reads the titles file and the links file into the CSR arrays.
+     */
+    private void readDocs( String linksFilename, String titlesFilename ) {
+        // Node ids of the links file -> dense node numbers
+        HashMap<Integer,Integer> idToNode = new HashMap<Integer,Integer>();
+        try ( BufferedReader in = new BufferedReader( new FileReader( titlesFilename ))) {
+            String line;
+            while (( line = in.readLine()) != null ) {
+                int index = line.indexOf( ';' );
+                int id = Integer.parseInt( line.substring( 0, index ));
+                String title = line.substring( index + 1 );
+                idToNode.put( id, nodeToTitle.size() );
+                titleToNode.put( title, nodeToTitle.size() );
+                nodeToTitle.add( title );
+            }
+        } catch ( IOException e ) {
+            System.err.println( "Error reading file " + titlesFilename );
+        }
+
+        int n = nodeToTitle.size();
+        ArrayList<int[]> adjacency = new ArrayList<int[]>();
+        for ( int i = 0; i < n; i++ ) {
+            adjacency.add( null );
+        }
+        int numberOfLinks = 0;
+        try ( BufferedReader in = new BufferedReader( new FileReader( linksFilename ))) {
+            String line;
+            while (( line = in.readLine()) != null ) {
+                int index = line.indexOf( ';' );
+                Integer from = idToNode.get( Integer.parseInt( line.substring( 0, index )));
+                if ( from == null || index == line.length() - 1 ) {
+                    continue;
+                }
+                String[] tos = line.substring( index + 1 ).split( "," );
+                int[] links = new int[tos.length];
+                int k = 0;
+                for ( String to : tos ) {
+                    Integer toNode = idToNode.get( Integer.parseInt( to ));
+                    if ( toNode != null ) {
+                        links[k++] = toNode;
+                    }
+                }
+                adjacency.set( from, Arrays.copyOf( links, k ));
+                numberOfLinks += k;
+            }
+        } catch ( IOException e ) {
+            System.err.println( "Error reading file " + linksFilename );
+        }
+
+        outStart = new int[n + 1];
+        outLinks = new int[numberOfLinks];
+        for ( int i = 0; i < n; i++ ) {
+            int[] links = adjacency.get( i );
+            int len = links == null ? 0 : links.length;
+            if ( len > 0 ) {
+                System.arraycopy( links, 0, outLinks, outStart[i], len );
+            }
+            outStart[i + 1] = outStart[i] + len;
+        }
+        System.err.println( "Read " + n + " documents and " + numberOfLinks + " links" );
+    }
+
+
+    /**
+     *   Reads the topic definitions and resolves the seeds into node numbers.
+     */
+    void readTopics( String topicsFilename ) {
+        Index index = null;
+        try ( BufferedReader in = new BufferedReader( new FileReader( topicsFilename ))) {
+            String line;
+            while (( line = in.readLine()) != null ) {
+                line = line.trim();
+                if ( line.length() == 0 || line.startsWith( "//" )) {
+                    continue;
+                }
+                String[] parts = line.split( ";" );
+                TreeSet<Integer> seeds = new TreeSet<Integer>();
+                StringBuilder terms = new StringBuilder();
+                for ( String seed : parts[1].split( "," )) {
+                    seed = seed.trim();
+                    if ( seed.startsWith( "term:" )) {
+                        String term = seed.substring( 5 );
+                        if ( index == null ) {
+                            index = new PersistentHashedIndex();
+                        }
+                        PostingsList list = index.getPostings( term );
+                        for ( int i = 0; list != null && i < list.size(); i++ ) {
+                            addSeed( seeds, getFileName( Index.docNames.get( list.get( i ).docID )));
+                        }
+                        if ( terms.length() > 0 ) {
+                            terms.append( ',' );
+                        }
+                        terms.append( term );
+                    } else if ( seed.startsWith( "dir:" )) {
+                        addDirectorySeeds( seeds, new File( seed.substring( 4 )));
+                    } else {
+                        addSeed( seeds, seed );
+                    }
+                }
+                if ( parts.length > 2 ) {
+                    for ( String word : parts[2].split( "," )) {
+                        if ( word.trim().length() > 0 ) {
+                            if ( terms.length() > 0 ) {
+                                terms.append( ',' );
+                            }
+                            terms.append( word.trim() );
+                        }
+                    }
+                }
+                if ( seeds.isEmpty() ) {
+                    System.err.println( "Warning: topic " + parts[0] + " has no known seed pages, skipping it" );
+                    continue;
+                }
+                int[] seedArray = new int[seeds.size()];
+                int k = 0;
+                for ( int s : seeds ) {
+                    seedArray[k++] = s;
+                }
+                topicNames.add( parts[0] );
+                topicTerms.add( terms.toString() );
+                topicSeeds.add( seedArray );
+                System.err.println( "Topic " + parts[0] + ": " + seedArray.length + " seed pages" );
+            }
+        } catch ( IOException e ) {
+            System.err.println( "Error reading file " + topicsFilename );
+        }
+    }
+
+
+    private void addSeed( TreeSet<Integer> seeds, String title ) {
+        Integer node = titleToNode.get( title );
+        if ( node != null ) {
+            seeds.add( node );
+        }
+    }
+
+
+    private void addDirectorySeeds( TreeSet<Integer> seeds, File f ) {
+        if ( f.isDirectory() ) {
+            String[] fs = f.list();
+            if ( fs != null ) {
+                for ( String name : fs ) {
+                    addDirectorySeeds( seeds, new File( f, name ));
+                }
+            }
+        } else {
+            addSeed( seeds, f.getName() );
+        }
+    }
+
+
+    /**
+     *   Computes the PageRank vector whose teleport set is <code>seeds</code>.
+     *   Sinks (pages without out-links) also jump to the seed pages.
+     */
+    double[] iterate( int[] seeds ) {
+        SearchEvents.RankingEvent event = new SearchEvents.RankingEvent();
+        event.begin();
+        int n = nodeToTitle.size();
+        int steps = 0;
+        boolean converged = false;
+        double teleport = 1.0 / seeds.length;
+        double[] x = new double[n];
+        double[] next = new double[n];
+        for ( int s : seeds ) {
+            x[s] = teleport;
+        }
+        for ( int step = 0; step < MAX_NUMBER_OF_STEPS; step++ ) {
+            Arrays.fill( next, 0 );
+            double jump = 0;
+            for ( int i = 0; i < n; i++ ) {
+                int start = outStart[i], end = outStart[i + 1];
+                if ( start == end ) {
+                    jump += x[i];
+                } else {
+                    jump += BORED * x[i];
+                    double share = ( 1 - BORED ) * x[i] / ( end - start );
+                    for ( int j = start; j < end; j++ ) {
+                        next[outLinks[j]] += share;
+                    }
+                }
+            }
+            for ( int s : seeds ) {
+                next[s] += jump * teleport;
+            }
+            double diff = 0;
+            for ( int i = 0; i < n; i++ ) {
+                diff += Math.abs( next[i] - x[i] );
+            }
+            double[] tmp = x;
+            x = next;
+            next = tmp;
+            steps++;
+            if ( diff < EPSILON ) {
+                System.err.println( "Converged after " + ( step + 1 ) + " iterations" );
+                converged = true;
+                break;
+            }
+        }
+        event.end();
+        if ( event.shouldCommit() ) {
+            event.algorithm = "PageRank";
+            event.nodes = n;
+            event.iterations = steps;
+            event.converged = converged;
+            event.commit();
+        }
+        return x;
+    }
+
+
+    /**
+     *   Computes all topic vectors and writes them to <code>outputFilename</code>.
+     */
+    void rank( String outputFilename ) {
+        int n = nodeToTitle.size();
+        double[][] columns = new double[topicNames.size()][];
+        for ( int t = 0; t < columns.length; t++ ) {
+            long startTime = System.currentTimeMillis();
+            columns[t] = iterate( topicSeeds.get( t ));
+            System.err.println( "Topic " + topicNames.get( t ) + " computed in " + ( System.currentTimeMillis() - startTime ) + " ms" );
+        }
+        try ( BufferedWriter writer = new BufferedWriter( new FileWriter( outputFilename ))) {
+            for ( int t = 0; t < columns.length; t++ ) {
+                writer.write( TOPIC_HEADER + ";" + topicNames.get( t ) + ";" + topicTerms.get( t ) + "\n" );
+            }
+            StringBuilder line = new StringBuilder();
+            for ( int i = 0; i < n; i++ ) {
+                line.setLength( 0 );
+                line.append( nodeToTitle.get( i ));
+                for ( int t = 0; t < columns.length; t++ ) {
+                    line.append( ';' ).append( String.format( Locale.ROOT, "%.7g", columns[t][i] ));
+                }
+                writer.write( line.append( '\n' ).toString() );
+            }
+        } catch ( IOException e ) {
+            System.err.println( "Error writing file " + outputFilename );
+        }
+    }
+
+
+    /* --------------------------------------------- */
+
+
+    public static void main( String[] args ) {
+        if ( args.length != 4 ) {
+            System.err.println( "Please give the names of the link, title, topics and output files" );
+        }
+        else {
+            TopicPageRank tpr = new TopicPageRank( args[0], args[1] );
+            tpr.readTopics( args[2] );
+            tpr.rank( args[3] );
+        }
+    }
+}
@@ -0,0 +1 @@
+java -cp classes -Xmx1g ir.BatchSearch -q queries.txt -o run.txt -t 4 -ranking tf_idf
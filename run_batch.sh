@@ -0,0 +1,2 @@
+#!/bin/sh
+java -cp classes -Xmx1g ir.BatchSearch -q queries.txt -o run.txt -t 4 -ranking tf_idf
@@ -0,0 +1 @@
+java -cp bench\classes -Xmx2g ir.Benchmarks -json bench\results.json %*
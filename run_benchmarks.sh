@@ -0,0 +1,2 @@
+#!/bin/sh
+java -cp bench/classes -Xmx2g ir.Benchmarks -json bench/results.json "$@"
@@ -0,0 +1 @@
+java -cp classes ir.MappedLinkGraph data/linksDavis.txt data/davisTitles.txt
\ No newline at end of file
@@ -0,0 +1,2 @@
+#!/bin/sh
+java -cp classes ir.MappedLinkGraph data/linksDavis.txt data/davisTitles.txt
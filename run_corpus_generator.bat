@@ -0,0 +1 @@
+java -cp classes -Xmx2g ir.CorpusGenerator -n 100000 -o synthetic -seed 42
@@ -0,0 +1 @@
+java -cp classes -Xmx1g ir.Engine -d ..\davisWiki -p patterns.txt -server 8080
@@ -0,0 +1,2 @@
+#!/bin/sh
+java -cp classes -Xmx1g ir.Engine -d ../davisWiki -p patterns.txt -server 8080